@@ -0,0 +1,73 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.DataUtils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the var handle codec of DataUtils against the shift code, 512 shorts are written and read back by one operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteOrderBenchmark {
+
+    private final byte[] bytes = new byte[1024];
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+
+    @Benchmark
+    public long shiftArray() {
+        long sum = 0;
+        for (int i = 0; i < 1024; i += 2) {
+            bytes[i] = (byte) (i >>> 8);
+            bytes[i + 1] = (byte) i;
+            sum += (short) ((bytes[i] << 8) | (bytes[i + 1] & 0xff));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long dataUtilsArray() {
+        long sum = 0;
+        for (int i = 0; i < 1024; i += 2) {
+            DataUtils.shortToBytes(bytes, (short) i, i);
+            sum += DataUtils.bytesToShort(bytes, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long shiftDirect() {
+        long sum = 0;
+        for (int i = 0; i < 1024; i += 2) {
+            buffer.put(i, (byte) (i >>> 8));
+            buffer.put(i + 1, (byte) i);
+            sum += (short) ((buffer.get(i) << 8) | (buffer.get(i + 1) & 0xff));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long dataUtilsDirect() {
+        long sum = 0;
+        for (int i = 0; i < 1024; i += 2) {
+            DataUtils.putShort(buffer, i, (short) i);
+            sum += DataUtils.getShort(buffer, i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,191 @@
+package benchmark;
+
+import network.packet.ACKPacket;
+import network.packet.DATAPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import network.packet.WRRQPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * the packet encode/decode of the request path and the transfer loop.
+ * run with -prof gc, the gc.alloc.rate.norm column is the bytes allocated by one packet,
+ * the in place codec of the transfer loop allocates nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketBenchmark {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5000);
+
+    private byte[] ackBytes;
+
+    private DatagramPacket ackDatagram;
+
+    private final PacketView view = new PacketView();
+
+    private DatagramPacket rrqDatagram;
+
+    private byte[] fileBytes;
+
+    private DATAPacket readPacket;
+
+    private DATAPacket received;
+
+    private ACKPacket ackPacket;
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(516);
+
+    private Path file;
+
+    private FileChannel fileChannel;
+
+    private DATAPacket.PositionalReader fileReader;
+
+    private DATAPacket sendPacket;
+
+    private byte[] dataBytes;
+
+    private short blockNo;
+
+    @Setup
+    public void setup() throws IOException {
+        ackBytes = copy(TftpPacketFactory.buildACKPacket("127.0.0.1", 5000, (short) 7).build());
+        ackDatagram = new DatagramPacket(ackBytes, ackBytes.length, CLIENT);
+
+        Map<String, String> options = new HashMap<>();
+        options.put(TftpPacketConsts.OPTION_BLKSIZE, "1428");
+        options.put(TftpPacketConsts.OPTION_WINDOWSIZE, "16");
+        byte[] rrqBytes = copy(TftpPacketFactory.buildRRQPacket("127.0.0.1", 5000, "pxelinux.0", TftpPacketConsts.MODE_OCTET, options).build());
+        rrqDatagram = new DatagramPacket(rrqBytes, rrqBytes.length, CLIENT);
+
+        fileBytes = new byte[1024 * 1024];
+        new Random(1).nextBytes(fileBytes);
+        file = Files.createTempFile("tftp-bench", null);
+        Files.write(file, fileBytes);
+        fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        fileReader = fileChannel::read;
+        sendPacket = new DATAPacket(CLIENT, 512);
+
+        sendPacket.readBlock(fileReader, 0, (short) 1);
+        dataBytes = copy(sendPacket.build());
+        readPacket = new DATAPacket(CLIENT, 512);
+        received = new DATAPacket(new DatagramPacket(dataBytes, dataBytes.length, CLIENT));
+        ackPacket = new ACKPacket(CLIENT, (short) 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fileChannel.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public TftpPacket decodeAckByFactory() throws IOException {
+        return TftpPacketFactory.buildTftpPacket(ackDatagram);
+    }
+
+    @Benchmark
+    public short decodeAckByView() {
+        view.wrap(ackBytes, ackBytes.length);
+        return (short) (view.getOpCode() + view.getBlockNo());
+    }
+
+    @Benchmark
+    public WRRQPacket decodeRequest() {
+        return new WRRQPacket(rrqDatagram);
+    }
+
+    @Benchmark
+    public DatagramPacket encodeAckByPacket() {
+        return new ACKPacket(CLIENT, ++blockNo).build();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeAckInPlace() {
+        return PacketView.putAck(sendBuffer, ++blockNo);
+    }
+
+    /**
+     * read the next block of the file into the reused DATA packet, as the download loop does.
+     */
+    @Benchmark
+    public DatagramPacket readBlockByPosition() throws IOException {
+        ++blockNo;
+        sendPacket.readBlock(fileReader, (blockNo & 0x7ff) * 512L, blockNo);
+        return sendPacket.build();
+    }
+
+    /**
+     * read all the blocks of a 1 MB stream, one operation is the whole stream.
+     */
+    @Benchmark
+    public void readBlockData(Blackhole blackhole) {
+        BooleanSupplier reader = readPacket.readBlockData(new ByteArrayInputStream(fileBytes));
+        while (reader.getAsBoolean()) {
+            blackhole.consume(readPacket.getBlockNum());
+        }
+    }
+
+    @Benchmark
+    public void writeBlockData() throws IOException {
+        received.writeBlockData(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void writeDataByPacket() throws IOException {
+        new DATAPacket(new DatagramPacket(dataBytes, dataBytes.length, CLIENT)).writeBlockData(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void writeDataByView() throws IOException {
+        view.wrap(dataBytes, dataBytes.length);
+        view.writeData(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public short resetAckBlockNo() {
+        ackPacket.resetBlockNo(++blockNo);
+        return ackPacket.getBlockNo();
+    }
+
+    private static byte[] copy(DatagramPacket datagramPacket) {
+        byte[] bytes = new byte[datagramPacket.getLength()];
+        System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,508 @@
+package benchmark;
+
+import network.StorageType;
+import network.TftpServer;
+import network.TransferEngineType;
+import network.client.TftpClient;
+import network.packet.ACKPacket;
+import network.packet.BlockNumber;
+import network.packet.OACKPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import network.storage.ContentAddressedStore;
+import network.storage.FileSystemStore;
+import network.storage.StoredFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the loopback benchmarks of the listener, multicast, storage and path resolve.
+ * the packet codec and the end to end transfer are measured by the JMH benchmarks, see gradle :bench:jmh.
+ * run: gradle :bench:loopback -Pmode='[listener|multicast|storage|resolve|all] [blksize]'
+ * or java -cp <classpath> benchmark.TftpBenchmark [listener|multicast|storage|resolve|all] [blksize]
+ * the listener, multicast and storage benchmarks start the server on port 69, multicast runs on the loopback interface.
+ */
+public class TftpBenchmark {
+
+    /**
+     * the time of warm up and measure for each benchmark.
+     */
+    private static final long WARMUP_MS = 1000;
+
+    private static final long MEASURE_MS = 3000;
+
+    /**
+     * the multicast group of the multicast benchmark.
+     */
+    private static final String MULTICAST_ADDRESS = "239.255.0.69";
+
+    private static final int MULTICAST_PORT = 17580;
+
+    /**
+     * keep the results alive, so JIT can not remove the work.
+     */
+    private static volatile long sink;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * one operation of benchmark.
+     */
+    private interface Op {
+        /**
+         * @return the byte count processed.
+         */
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "all";
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : TftpPacketConsts.DEFAULT_BLKSIZE;
+        if ("all".equals(mode) || "listener".equals(mode)) {
+            runListener(1);
+            runListener(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        if ("all".equals(mode) || "multicast".equals(mode)) {
+            runMulticast(blockSize);
+        }
+        if ("all".equals(mode) || "storage".equals(mode)) {
+            runStorage(blockSize);
+        }
+        if ("all".equals(mode) || "resolve".equals(mode)) {
+            runResolve();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * the request rate of a boot storm: many clients send RRQ and wait the answer, closed loop.
+     * the file not exists, so every request is answered by one ERROR packet.
+     * @param listenerCount
+     */
+    private static void runListener(int listenerCount) throws Exception {
+        File baseDir = Files.createTempDirectory("tftp-bench").toFile();
+        TftpServer server = new TftpServer(msg -> { });
+        server.setBaseDir(baseDir.getCanonicalPath());
+        server.setEngineType(TransferEngineType.NIO);
+        server.setListenerCount(listenerCount);
+        server.start();
+        Thread.sleep(500);
+
+        int clientCount = 16;
+        LongAdder requests = new LongAdder();
+        long end = System.nanoTime() + (WARMUP_MS + MEASURE_MS) * 1000000L;
+        long measureStart = System.nanoTime() + WARMUP_MS * 1000000L;
+        Thread[] clients = new Thread[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = new Thread(() -> {
+                //every client has its own port, so the requests are spread to the listeners.
+                try (DatagramSocket socket = new DatagramSocket()) {
+                    socket.setSoTimeout(1000);
+                    DatagramPacket request = TftpPacketFactory.buildRRQPacket("127.0.0.1", TftpServer.PORT, "missing", TftpPacketConsts.MODE_OCTET).build();
+                    DatagramPacket response = new DatagramPacket(new byte[1024], 1024);
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        socket.send(request);
+                        try {
+                            socket.receive(response);
+                        } catch (SocketTimeoutException e) {
+                            continue;
+                        }
+                        if (now >= measureStart) {
+                            requests.increment();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        server.stop();
+        baseDir.delete();
+
+        double seconds = MEASURE_MS / 1000.0;
+        System.out.printf("%-45s %14.1f req/s%n", String.format("listener RRQ storm listeners=%s", listenerCount), requests.sum() / seconds);
+    }
+
+    /**
+     * the bytes on the wire of a rack boot: the clients download the same file by unicast, then by multicast.
+     * the clients start one by one, so the late joiners are caught up by the next masters.
+     */
+    private static void runMulticast(int blockSize) throws Exception {
+        int clientCount = 50;
+        int size = 4 * 1024 * 1024;
+        File baseDir = Files.createTempDirectory("tftp-bench").toFile();
+        File file = new File(baseDir, "bench-multicast");
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Files.write(file.toPath(), data);
+
+        TftpServer server = new TftpServer(msg -> { });
+        server.setBaseDir(baseDir.getCanonicalPath());
+        server.setMulticast(MULTICAST_ADDRESS, MULTICAST_PORT, 4);
+        server.setMulticastInterface(loopbackInterface().getName(), 1);
+        server.start();
+        Thread.sleep(500);
+        try {
+            for (boolean multicast : new boolean[]{false, true}) {
+                long sentBefore = server.getMetrics().getBytesSent();
+                LongAdder received = new LongAdder();
+                long start = System.nanoTime();
+                Thread[] clients = new Thread[clientCount];
+                for (int i = 0; i < clientCount; i++) {
+                    long delay = i * 10L;
+                    clients[i] = new Thread(() -> {
+                        try {
+                            Thread.sleep(delay);
+                            received.add(multicast ? multicastDownload(file.getName(), blockSize) : download(file.getName(), blockSize));
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    });
+                    clients[i].start();
+                }
+                for (Thread client : clients) {
+                    client.join();
+                }
+                long nanos = System.nanoTime() - start;
+                if (received.sum() != (long) size * clientCount) {
+                    throw new IllegalStateException("Received " + received.sum() + " bytes, expect " + (long) size * clientCount);
+                }
+                System.out.printf("%-45s %10.1f MB on wire %8.1f x file %8d ms%n",
+                        String.format("%s %s clients %sMB blksize=%s", multicast ? "multicast" : "unicast", clientCount, size / 1024 / 1024, blockSize),
+                        (server.getMetrics().getBytesSent() - sentBefore) / 1024.0 / 1024, (double) (server.getMetrics().getBytesSent() - sentBefore) / size,
+                        nanos / 1000000);
+            }
+        } finally {
+            server.stop();
+            file.delete();
+            baseDir.delete();
+        }
+    }
+
+    /**
+     * the download of every storage, and the chunks shared by the identical uploads of the content addressed store.
+     * the file is uploaded through the server first, so every store serves the same content.
+     * @param blockSize
+     */
+    private static void runStorage(int blockSize) throws Exception {
+        int size = 8 * 1024 * 1024;
+        int times = 10;
+        int copies = 4;
+        File baseDir = Files.createTempDirectory("tftp-bench").toFile();
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        try {
+            for (StorageType storageType : StorageType.values()) {
+                TftpServer server = new TftpServer(msg -> { });
+                server.setBaseDir(baseDir.getCanonicalPath());
+                server.setStorage(storageType, null, 0);
+                server.start();
+                Thread.sleep(500);
+                try {
+                    TftpClient client = new TftpClient(new InetSocketAddress("127.0.0.1", TftpServer.PORT));
+                    client.setBlockSize(blockSize);
+                    for (int i = 0; i < copies; i++) {
+                        client.upload("bench-storage-" + i, new ByteArrayInputStream(data), size);
+                    }
+
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size);
+                    client.download("bench-storage-0", outputStream);
+                    if (!Arrays.equals(data, outputStream.toByteArray())) {
+                        throw new IllegalStateException("Download corrupted from " + storageType);
+                    }
+                    long allocated = totalAllocatedBytes();
+                    long start = System.nanoTime();
+                    long bytes = 0;
+                    for (int i = 0; i < times; i++) {
+                        bytes += download("bench-storage-" + (i % copies), blockSize);
+                    }
+                    report(String.format("%s download %sMB blksize=%s", storageType, size / 1024 / 1024, blockSize),
+                            times, bytes, System.nanoTime() - start, totalAllocatedBytes() - allocated);
+                    if (server.getStore() instanceof ContentAddressedStore) {
+                        ContentAddressedStore store = (ContentAddressedStore) server.getStore();
+                        System.out.printf("%-45s %10d chunks stored %8d chunks shared %8.1f MB on disk%n",
+                                String.format("%s %s identical uploads", storageType, copies), store.getStoredChunks(), store.getSharedChunks(),
+                                store.getStoredChunks() * (double) ContentAddressedStore.CHUNK_SIZE / 1024 / 1024);
+                    }
+                } finally {
+                    server.stop();
+                }
+            }
+        } finally {
+            deleteRecursively(baseDir);
+        }
+    }
+
+    /**
+     * open the hot file and the missing file of the file system store, with and without the path cache.
+     */
+    private static void runResolve() throws Exception {
+        File baseDir = Files.createTempDirectory("tftp-bench").toFile();
+        File dir = new File(baseDir, "images/boot");
+        dir.mkdirs();
+        Files.write(new File(dir, "kernel").toPath(), new byte[64 * 1024]);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        try {
+            for (int cacheSize : new int[]{0, FileSystemStore.DEFAULT_PATH_CACHE_SIZE}) {
+                FileSystemStore store = new FileSystemStore(baseDir.getCanonicalPath(), null, cacheSize);
+                try {
+                    bench(String.format("resolve hot file cache=%s", cacheSize), () -> {
+                        try (StoredFile file = store.open("/images/./boot/kernel")) {
+                            buffer.clear();
+                            return file.read(buffer, 0);
+                        }
+                    });
+                    bench(String.format("resolve missing file cache=%s", cacheSize), () -> {
+                        sink += store.open("images/boot/initrd") == null ? 1 : 0;
+                        return 0;
+                    });
+                    if (store.getResolver().isCaching()) {
+                        System.out.printf("%-45s %10d hits %8d misses %8d invalidations %8d evictions%n", "resolve cache",
+                                store.getResolver().getHitCount(), store.getResolver().getMissCount(),
+                                store.getResolver().getInvalidationCount(), store.getResolver().getEvictionCount());
+                    }
+                } finally {
+                    store.close();
+                }
+            }
+        } finally {
+            deleteRecursively(baseDir);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * download the file by the multicast option of RFC 2090.
+     * the client listens the group after the OACK, and acks the last block it has in order only when it is the master.
+     * @return the byte count received.
+     */
+    private static long multicastDownload(String fileName, int blockSize) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put(TftpPacketConsts.OPTION_MULTICAST, "");
+        options.put(TftpPacketConsts.OPTION_TSIZE, "0");
+        if (blockSize != TftpPacketConsts.DEFAULT_BLKSIZE) {
+            options.put(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(blockSize));
+        }
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), TftpServer.PORT);
+        try (DatagramChannel unicast = DatagramChannel.open(StandardProtocolFamily.INET);
+             DatagramChannel group = DatagramChannel.open(StandardProtocolFamily.INET);
+             Selector selector = Selector.open()) {
+            unicast.bind(null);
+            unicast.configureBlocking(false);
+            unicast.register(selector, SelectionKey.OP_READ);
+            ByteBuffer request = wrap(TftpPacketFactory.buildRRQPacket("127.0.0.1", TftpServer.PORT, fileName, TftpPacketConsts.MODE_OCTET, options).build());
+            unicast.send(request, serverAddress);
+
+            ByteBuffer buffer = ByteBuffer.allocate(blockSize + 4);
+            PacketView view = new PacketView();
+            SocketAddress serverTid = null;
+            BitSet blocks = new BitSet();
+            long lastSeq = Long.MAX_VALUE;
+            int inOrder = 0;
+            boolean master = false;
+            long bytes = 0;
+            while (true) {
+                if (selector.select(1000) == 0) {
+                    if (serverTid == null) {
+                        unicast.send(request.rewind(), serverAddress);
+                    } else if (master) {
+                        unicast.send(ackOf(inOrder), serverTid);
+                    }
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                boolean ack = false;
+                SocketAddress from;
+                buffer.clear();
+                while ((from = unicast.receive(buffer)) != null) {
+                    view.wrap(buffer.array(), buffer.position());
+                    if (view.getOpCode() == TftpPacketConsts.OP_ERROR) {
+                        throw new IOException("Server error:" + view.getErrMsg());
+                    }
+                    if (view.getOpCode() == TftpPacketConsts.OP_OACK) {
+                        OACKPacket oack = new OACKPacket(new DatagramPacket(buffer.array(), buffer.position(), (InetSocketAddress) from));
+                        String[] multicast = oack.getOptions().get(TftpPacketConsts.OPTION_MULTICAST).split(",");
+                        lastSeq = Long.parseLong(oack.getOptions().get(TftpPacketConsts.OPTION_TSIZE)) / blockSize + 1;
+                        if (serverTid == null) {
+                            serverTid = from;
+                            group.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                            group.bind(new InetSocketAddress(Integer.parseInt(multicast[1])));
+                            group.join(InetAddress.getByName(multicast[0]), loopbackInterface());
+                            group.configureBlocking(false);
+                            group.register(selector, SelectionKey.OP_READ);
+                        }
+                        if ("1".equals(multicast[2])) {
+                            master = true;
+                            ack = true;
+                        }
+                    }
+                    buffer.clear();
+                }
+                while (group.receive(buffer) != null) {
+                    view.wrap(buffer.array(), buffer.position());
+                    int blockNo = BlockNumber.toUnsigned(view.getBlockNo());
+                    if (view.getOpCode() == TftpPacketConsts.OP_DATA && !blocks.get(blockNo)) {
+                        blocks.set(blockNo);
+                        bytes += view.getDataLength();
+                        while (blocks.get(inOrder + 1)) {
+                            ++inOrder;
+                        }
+                    }
+                    ack |= master;
+                    buffer.clear();
+                }
+                if (ack) {
+                    unicast.send(ackOf(inOrder), serverTid);
+                    if (inOrder >= lastSeq) {
+                        return bytes;
+                    }
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer ackOf(int blockNo) {
+        return wrap(new ACKPacket("127.0.0.1", 0, (short) blockNo).build());
+    }
+
+    private static ByteBuffer wrap(DatagramPacket datagramPacket) {
+        return ByteBuffer.wrap(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength());
+    }
+
+    private static NetworkInterface loopbackInterface() throws IOException {
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * download the file from the local server in lock-step, a repeated block is only acknowledged again.
+     * @return the byte count received.
+     */
+    private static long download(String fileName, int blockSize) throws IOException {
+        Map<String, String> options = blockSize == TftpPacketConsts.DEFAULT_BLKSIZE ? Collections.emptyMap()
+                : Collections.singletonMap(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(blockSize));
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(5000);
+            socket.send(TftpPacketFactory.buildRRQPacket("127.0.0.1", 69, fileName, TftpPacketConsts.MODE_OCTET, options).build());
+
+            byte[] buffer = new byte[blockSize + 4];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            PacketView view = new PacketView();
+            ACKPacket ackPacket = null;
+            short lastBlockNo = 0;
+            long bytes = 0;
+            while (true) {
+                response.setLength(buffer.length);
+                socket.receive(response);
+                view.wrap(buffer, response.getLength());
+                if (ackPacket == null) {
+                    ackPacket = new ACKPacket(response.getAddress().getHostAddress(), response.getPort(), (short) 0);
+                }
+
+                short opCode = view.getOpCode();
+                if (opCode == TftpPacketConsts.OP_OACK) {
+                    socket.send(ackPacket.build());
+                    continue;
+                }
+                if (opCode != TftpPacketConsts.OP_DATA) {
+                    throw new IOException("Unexpected opcode:" + opCode);
+                }
+
+                short blockNo = view.getBlockNo();
+                ackPacket.resetBlockNo(blockNo);
+                socket.send(ackPacket.build());
+                if (blockNo == lastBlockNo) {
+                    continue;
+                }
+                lastBlockNo = blockNo;
+                bytes += view.getDataLength();
+                if (view.isLast(blockSize)) {
+                    return bytes;
+                }
+            }
+        }
+    }
+
+    /**
+     * run the op until the time is up, then report the rate and allocation.
+     */
+    private static void bench(String name, Op op) throws Exception {
+        long deadline = System.currentTimeMillis() + WARMUP_MS;
+        while (System.currentTimeMillis() < deadline) {
+            op.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long end = start + MEASURE_MS * 1000000L;
+        long ops = 0;
+        long bytes = 0;
+        long now;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                bytes += op.run();
+            }
+            ops += 1000;
+            now = System.nanoTime();
+        } while (now < end);
+        report(name, ops, bytes, now - start, THREAD_BEAN.getThreadAllocatedBytes(threadId) - allocated);
+    }
+
+    private static void report(String name, long ops, long bytes, long nanos, long allocatedBytes) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-45s %14.1f ops/s %10.2f MB/s %12.1f B/op %10.2f MB/s alloc%n",
+                name, ops / seconds, bytes / seconds / 1024 / 1024, (double) allocatedBytes / ops, allocatedBytes / seconds / 1024 / 1024);
+    }
+
+    /**
+     * get the bytes allocated by all live threads.
+     */
+    private static long totalAllocatedBytes() {
+        long total = 0;
+        for (long allocated : THREAD_BEAN.getThreadAllocatedBytes(THREAD_BEAN.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+}
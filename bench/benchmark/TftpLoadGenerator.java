@@ -0,0 +1,236 @@
+package benchmark;
+
+import network.TftpServer;
+import network.TransferEngineType;
+import network.client.TftpClient;
+import network.client.TransferResult;
+import network.metrics.Histogram;
+import network.transport.SimulatedTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * fire many concurrent RRQ/WRQ sessions at a server and report the throughput, latency and retransmits.
+ * run: gradle :bench:load -Pload.args='--baseDir=/tmp/tftp --sessions=2000 --concurrency=1000 --loss=0.01'
+ * with --baseDir a server is started in process on the dir, or the server of --server is tested.
+ */
+public class TftpLoadGenerator {
+
+    private static final String USAGE = "Usage: TftpLoadGenerator [--server=127.0.0.1:69] [--baseDir=<dir> [--engine=BLOCKING|NIO]]"
+            + " [--op=rrq|wrq|mixed] [--file=<name>] [--size=<bytes>] [--sessions=<n>] [--concurrency=<n>]"
+            + " [--blksize=<bytes>] [--windowsize=<n>] [--timeout=<ms>] [--retries=<n>]"
+            + " [--loss=<0..1>] [--duplicate=<0..1>] [--delay=<ms>] [--jitter=<ms>] [--reorder=<0..1>] [--seed=<n>] [--executor=CACHED_POOL|VIRTUAL_THREAD]";
+
+    private final Map<String, String> args;
+
+    private final LongAdder okCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder packetsSent = new LongAdder();
+
+    private final LongAdder retransmits = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * the transfer latency in ms.
+     */
+    private final Histogram latency = new Histogram();
+
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    /**
+     * the count of failures by the error message.
+     */
+    private final Map<String, LongAdder> errors = new HashMap<>();
+
+    private TftpLoadGenerator(Map<String, String> args) {
+        this.args = args;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parsed;
+        try {
+            parsed = parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        new TftpLoadGenerator(parsed).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        String op = get("op", "rrq").toLowerCase(Locale.ROOT);
+        int size = Integer.parseInt(get("size", String.valueOf(1024 * 1024)));
+        String fileName = get("file", "load-" + size);
+        int sessions = Integer.parseInt(get("sessions", get("concurrency", "100")));
+        int concurrency = Integer.parseInt(get("concurrency", "100"));
+
+        TftpServer server = null;
+        InetSocketAddress serverAddress;
+        if (args.containsKey("baseDir")) {
+            File baseDir = new File(args.get("baseDir"));
+            File file = new File(baseDir, fileName);
+            if (!file.exists()) {
+                byte[] data = new byte[size];
+                new Random(size).nextBytes(data);
+                Files.write(file.toPath(), data);
+            }
+            int port = Integer.parseInt(get("port", String.valueOf(TftpServer.PORT)));
+            server = new TftpServer(msg -> { });
+            server.setBaseDir(baseDir.getCanonicalPath());
+            server.setPort(port);
+            server.setEngineType(TransferEngineType.valueOf(get("engine", "NIO").toUpperCase(Locale.ROOT)));
+            server.setSessionLimits(0, 0, 0);
+            server.start();
+            //wait the listener to bind.
+            Thread.sleep(500);
+            serverAddress = new InetSocketAddress("127.0.0.1", port);
+        } else {
+            String[] hostPort = get("server", "127.0.0.1:" + TftpServer.PORT).split(":");
+            serverAddress = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        }
+
+        TftpClient client = new TftpClient(serverAddress);
+        client.setBlockSize(Integer.parseInt(get("blksize", "512")));
+        client.setWindowSize(Integer.parseInt(get("windowsize", "1")));
+        client.setTimeout(Integer.parseInt(get("timeout", String.valueOf(TftpClient.DEFAULT_TIMEOUT))));
+        client.setRetries(Integer.parseInt(get("retries", String.valueOf(TftpClient.DEFAULT_RETRIES))));
+        SimulatedTransport conditions = new SimulatedTransport(Long.parseLong(get("seed", "1")));
+        conditions.setLossRate(Double.parseDouble(get("loss", "0")));
+        conditions.setDuplicateRate(Double.parseDouble(get("duplicate", "0")));
+        conditions.setReorderRate(Double.parseDouble(get("reorder", "0")));
+        conditions.setDelay(Integer.parseInt(get("delay", "0")), Integer.parseInt(get("jitter", "0")));
+        client.setTransport(conditions);
+
+        byte[] uploadData = new byte[size];
+        new Random(size + 1).nextBytes(uploadData);
+        System.out.printf("%s sessions=%s concurrency=%s op=%s size=%s %s%n", serverAddress, sessions, concurrency, op, size, conditions);
+
+        //every worker runs the sessions one by one until all are started.
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = createExecutor();
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < sessions) {
+                    boolean upload = "wrq".equals(op) || ("mixed".equals(op) && index % 2 == 1);
+                    runSession(client, upload, upload ? "load-upload-" + index : fileName, uploadData);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        long nanos = System.nanoTime() - start;
+        report(nanos, server);
+
+        if (server != null) {
+            server.stop();
+            for (int i = 0; i < sessions; i++) {
+                new File(args.get("baseDir"), "load-upload-" + i).delete();
+            }
+        }
+    }
+
+    private void runSession(TftpClient client, boolean upload, String fileName, byte[] uploadData) {
+        try {
+            TransferResult result = upload
+                    ? client.upload(fileName, new ByteArrayInputStream(uploadData), uploadData.length)
+                    : client.download(fileName, OutputStream.nullOutputStream());
+            okCount.increment();
+            bytes.add(result.getBytes());
+            packetsSent.add(result.getPacketsSent());
+            retransmits.add(result.getRetransmits());
+            timeouts.add(result.getTimeouts());
+            duplicates.add(result.getDuplicates());
+            long ms = TimeUnit.NANOSECONDS.toMillis(result.getDurationNanos());
+            latency.record(ms);
+            maxLatency.accumulate(ms);
+        } catch (IOException e) {
+            failedCount.increment();
+            synchronized (errors) {
+                errors.computeIfAbsent(e.getClass().getSimpleName() + ":" + e.getMessage(), key -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    private void report(long nanos, TftpServer server) {
+        double seconds = nanos / 1e9;
+        long sent = packetsSent.sum();
+        System.out.printf("sessions ok=%s failed=%s in %.2fs, %.1f sessions/s%n", okCount.sum(), failedCount.sum(), seconds, okCount.sum() / seconds);
+        System.out.printf("throughput %.2f MB/s (%s bytes)%n", bytes.sum() / seconds / 1024 / 1024, bytes.sum());
+        //the histogram answers the upper bound of the bucket, not more than the max seen.
+        long max = maxLatency.get();
+        System.out.printf("latency p50=%sms p99=%sms max=%sms%n",
+                Math.min(latency.getValueAtPercentile(50), max), Math.min(latency.getValueAtPercentile(99), max), max);
+        System.out.printf("client packets=%s retransmits=%s (%.3f%%) timeouts=%s duplicates received=%s%n",
+                sent, retransmits.sum(), sent == 0 ? 0 : retransmits.sum() * 100.0 / sent, timeouts.sum(), duplicates.sum());
+        if (server != null) {
+            System.out.printf("server retransmits=%s bytes sent=%s bytes received=%s%n",
+                    server.getMetrics().getRetransmits(), server.getMetrics().getBytesSent(), server.getMetrics().getBytesReceived());
+        }
+        errors.forEach((message, count) -> System.out.printf("error x%s %s%n", count.sum(), message));
+    }
+
+    /**
+     * create the workers, the virtual threads are looked up by reflection like the server.
+     * @return
+     */
+    private ExecutorService createExecutor() {
+        if ("VIRTUAL_THREAD".equalsIgnoreCase(get("executor", "CACHED_POOL"))) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual thread is not supported, use cached thread pool.");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private String get(String key, String defaultValue) {
+        return args.getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * parse the "--key=value" arguments.
+     * @param args
+     * @return
+     */
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> parsed = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                throw new IllegalArgumentException("Unknown argument:" + arg);
+            }
+            parsed.put(arg.substring(2, index), arg.substring(index + 1));
+        }
+        return parsed;
+    }
+}
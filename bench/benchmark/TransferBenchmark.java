@@ -0,0 +1,176 @@
+package benchmark;
+
+import network.TftpServer;
+import network.TransferEngineType;
+import network.packet.PacketView;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the in process loopback download of 1 MB and 100 MB files, the bytes counter reports the bytes/s.
+ * the server binds the port of SERVER_PORT, so the benchmark runs without root.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final int SERVER_PORT = 16969;
+
+    private static final int CLIENT_TIMEOUT = 1000;
+
+    private static final int CLIENT_RETRIES = 5;
+
+    @Param({"1048576", "104857600"})
+    private int size;
+
+    @Param({"512", "1428"})
+    private int blockSize;
+
+    @Param({"BLOCKING", "NIO"})
+    private TransferEngineType engine;
+
+    private File baseDir;
+
+    private TftpServer server;
+
+    private String fileName;
+
+    private long logChars;
+
+    /**
+     * the bytes downloaded, reported as a rate next to the ops/s.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        baseDir = Files.createTempDirectory("tftp-bench").toFile();
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        fileName = "bench-" + size;
+        Files.write(new File(baseDir, fileName).toPath(), data);
+
+        //the log sink is synchronized like the one of the app.
+        server = new TftpServer(this::consumeLog);
+        server.setBaseDir(baseDir.getCanonicalPath());
+        server.setEngineType(engine);
+        server.setPort(SERVER_PORT);
+        server.start();
+        //wait the listener to bind.
+        Thread.sleep(500);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+        new File(baseDir, fileName).delete();
+        baseDir.delete();
+    }
+
+    @Benchmark
+    public long download(Counters counters) throws IOException {
+        long bytes = download(fileName, blockSize);
+        counters.bytes += bytes;
+        return bytes;
+    }
+
+    private synchronized void consumeLog(String msg) {
+        logChars += msg.length();
+    }
+
+    /**
+     * download the file in lock-step with the blksize option, send the last packet again on timeout.
+     */
+    private static long download(String fileName, int blockSize) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        if (blockSize != 512) {
+            options.put(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(blockSize));
+        }
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(CLIENT_TIMEOUT);
+            DatagramPacket lastSent = TftpPacketFactory.buildRRQPacket("127.0.0.1", SERVER_PORT, fileName, TftpPacketConsts.MODE_OCTET, options).build();
+            socket.send(lastSent);
+
+            byte[] buffer = new byte[blockSize + 4];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            PacketView view = new PacketView();
+            //the rollover of the server decides the next block number, a repeated block is only acknowledged again.
+            short lastBlockNo = 0;
+            int tries = 0;
+            long bytes = 0;
+            while (true) {
+                response.setLength(buffer.length);
+                try {
+                    socket.receive(response);
+                } catch (SocketTimeoutException e) {
+                    if (++tries > CLIENT_RETRIES) {
+                        throw e;
+                    }
+                    socket.send(lastSent);
+                    continue;
+                }
+                view.wrap(buffer, response.getLength());
+                short opCode = view.getOpCode();
+                if (opCode == TftpPacketConsts.OP_ERROR) {
+                    throw new IOException("Server answer ERROR " + view.getErrCode() + ": " + view.getErrMsg());
+                }
+                if (opCode == TftpPacketConsts.OP_OACK && bytes == 0) {
+                    //accept the options and ask the first block.
+                    lastSent = TftpPacketFactory.buildACKPacket("127.0.0.1", response.getPort(), (short) 0).build();
+                    socket.send(lastSent);
+                    continue;
+                }
+                if (opCode != TftpPacketConsts.OP_DATA) {
+                    continue;
+                }
+
+                tries = 0;
+                short blockNo = view.getBlockNo();
+                lastSent = TftpPacketFactory.buildACKPacket("127.0.0.1", response.getPort(), blockNo).build();
+                socket.send(lastSent);
+                if (blockNo == lastBlockNo) {
+                    continue;
+                }
+                lastBlockNo = blockNo;
+                bytes += view.getDataLength();
+                if (view.isLast(blockSize)) {
+                    return bytes;
+                }
+            }
+        }
+    }
+}
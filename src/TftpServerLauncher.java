@@ -0,0 +1,303 @@
+import network.HandlerExecutorType;
+import network.MulticastService;
+import network.StorageType;
+import network.TftpServer;
+import network.TransferEngineType;
+import network.io.FsyncPolicy;
+import utils.LogLevel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * headless entry of the server, without the JavaFX toolkit.
+ * the settings are read from the properties file of --config, then overridden by the command line:
+ * <pre>
+ * java -jar build/libs/tftp-server-1.0.jar --config=tftp.properties --baseDir=/srv/tftp --engine=NIO
+ * </pre>
+ * the keys are the same in the file and the command line, "--key=value" or "--key value".
+ * for faster cold start, dump the loaded classes once with -XX:ArchiveClassesAtExit=tftp.jsa
+ * and start with -XX:SharedArchiveFile=tftp.jsa (AppCDS).
+ */
+public class TftpServerLauncher {
+
+    private static final String KEY_CONFIG = "config";
+
+    private static final String KEY_PORT = "port";
+
+    private static final String KEY_BASE_DIR = "baseDir";
+
+    private static final String KEY_ENGINE = "engine";
+
+    private static final String KEY_EXECUTOR = "executor";
+
+    private static final String KEY_EVENT_LOOPS = "eventLoops";
+
+    private static final String KEY_MAX_BLOCK_SIZE = "maxBlockSize";
+
+    private static final String KEY_MAX_WINDOW_SIZE = "maxWindowSize";
+
+    private static final String KEY_BLOCK_CACHE_SIZE = "blockCacheSize";
+
+    private static final String KEY_PATH_CACHE_SIZE = "pathCacheSize";
+
+    private static final String KEY_MIN_RETRANSMIT_TIMEOUT = "minRetransmitTimeout";
+
+    private static final String KEY_MAX_RETRANSMIT_TIMEOUT = "maxRetransmitTimeout";
+
+    private static final String KEY_LOG_LEVEL = "logLevel";
+
+    private static final String KEY_METRICS_PORT = "metricsPort";
+
+    private static final String KEY_LISTENERS = "listeners";
+
+    private static final String KEY_MAX_SESSIONS = "maxSessions";
+
+    private static final String KEY_MAX_SESSIONS_PER_CLIENT = "maxSessionsPerClient";
+
+    private static final String KEY_MAX_PENDING_SESSIONS = "maxPendingSessions";
+
+    private static final String KEY_UPLOAD_WRITER_THREADS = "uploadWriterThreads";
+
+    private static final String KEY_UPLOAD_BUFFER_SIZE = "uploadBufferSize";
+
+    private static final String KEY_FSYNC = "fsync";
+
+    private static final String KEY_MAX_UPLOAD_SIZE = "maxUploadSize";
+
+    private static final String KEY_BLOCK_ROLLOVER = "blockRollover";
+
+    private static final String KEY_STORAGE = "storage";
+
+    private static final String KEY_STORAGE_DIR = "storageDir";
+
+    private static final String KEY_MEMORY_STORE_SIZE = "memoryStoreSize";
+
+    private static final String KEY_MULTICAST_ADDRESS = "multicastAddress";
+
+    private static final String KEY_MULTICAST_PORT = "multicastPort";
+
+    private static final String KEY_MULTICAST_GROUPS = "multicastGroups";
+
+    private static final String KEY_MULTICAST_INTERFACE = "multicastInterface";
+
+    private static final String KEY_MULTICAST_TTL = "multicastTtl";
+
+    private static final String USAGE = "Usage: TftpServerLauncher [--config=<file>] [--port=69] [--listeners=<n>] [--baseDir=<dir>]"
+            + " [--engine=BLOCKING|NIO] [--executor=CACHED_POOL|VIRTUAL_THREAD] [--eventLoops=<n>]"
+            + " [--maxBlockSize=<bytes>] [--maxWindowSize=<n>] [--blockRollover=0|1] [--blockCacheSize=<bytes>] [--pathCacheSize=<n>]"
+            + " [--minRetransmitTimeout=<ms>] [--maxRetransmitTimeout=<ms>] [--logLevel=TRACE|DEBUG|INFO|WARN|ERROR|OFF]"
+            + " [--maxSessions=<n>] [--maxSessionsPerClient=<n>] [--maxPendingSessions=<n>] [--metricsPort=<port>]"
+            + " [--uploadWriterThreads=<n>] [--uploadBufferSize=<bytes>] [--fsync=NONE|DATA|ALL] [--maxUploadSize=<bytes>]"
+            + " [--multicastAddress=<ip>] [--multicastPort=1758] [--multicastGroups=<n>] [--multicastInterface=<name>] [--multicastTtl=<n>]";
+
+    public static void main(String[] args) {
+        Properties config;
+        try {
+            config = loadConfig(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        TftpServer server = new TftpServer(System.out::println);
+        try {
+            configure(server, config);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Config error:" + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "shutdown"));
+        server.start();
+        ProcessHandle.current().info().startInstant().ifPresent(start ->
+                System.out.println(String.format("Started in %sms", Duration.between(start, Instant.now()).toMillis())));
+    }
+
+    /**
+     * load the config file, then override by the command line.
+     * @param args
+     * @return
+     * @throws IOException
+     */
+    static Properties loadConfig(String[] args) throws IOException {
+        Properties cli = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-h".equals(arg) || "--help".equals(arg)) {
+                throw new IllegalArgumentException("");
+            }
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument:" + arg);
+            }
+
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                cli.setProperty(arg.substring(2, index), arg.substring(index + 1));
+            } else if (i + 1 < args.length) {
+                cli.setProperty(arg.substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value of:" + arg);
+            }
+        }
+
+        Properties config = new Properties();
+        String configPath = cli.getProperty(KEY_CONFIG);
+        if (configPath != null) {
+            try (InputStream in = new FileInputStream(configPath)) {
+                config.load(in);
+            }
+        }
+        config.putAll(cli);
+        return config;
+    }
+
+    /**
+     * apply the config to server.
+     * @param server
+     * @param config
+     */
+    static void configure(TftpServer server, Properties config) {
+        for (String key : config.stringPropertyNames()) {
+            String value = config.getProperty(key).trim();
+            switch (key) {
+                case KEY_CONFIG:
+                    break;
+                case KEY_PORT:
+                    server.setPort(parseInt(key, value));
+                    break;
+                case KEY_BASE_DIR:
+                    File baseDir = new File(value);
+                    if (!baseDir.isDirectory()) {
+                        throw new IllegalArgumentException("Base dir not exists:" + value);
+                    }
+                    server.setBaseDir(baseDir.getAbsolutePath());
+                    break;
+                case KEY_ENGINE:
+                    server.setEngineType(TransferEngineType.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case KEY_EXECUTOR:
+                    server.setExecutorType(HandlerExecutorType.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case KEY_EVENT_LOOPS:
+                    server.setEventLoopCount(parseInt(key, value));
+                    break;
+                case KEY_MAX_BLOCK_SIZE:
+                    server.setMaxBlockSize(parseInt(key, value));
+                    break;
+                case KEY_MAX_WINDOW_SIZE:
+                    server.setMaxWindowSize(parseInt(key, value));
+                    break;
+                case KEY_BLOCK_ROLLOVER:
+                    server.setBlockRollover(parseInt(key, value));
+                    break;
+                case KEY_BLOCK_CACHE_SIZE:
+                    server.setBlockCacheSize(parseLong(key, value));
+                    break;
+                case KEY_PATH_CACHE_SIZE:
+                    server.setPathCacheSize(parseInt(key, value));
+                    break;
+                case KEY_MIN_RETRANSMIT_TIMEOUT:
+                case KEY_MAX_RETRANSMIT_TIMEOUT:
+                case KEY_MAX_SESSIONS:
+                case KEY_MAX_SESSIONS_PER_CLIENT:
+                case KEY_MAX_PENDING_SESSIONS:
+                case KEY_UPLOAD_WRITER_THREADS:
+                case KEY_UPLOAD_BUFFER_SIZE:
+                case KEY_FSYNC:
+                case KEY_STORAGE:
+                case KEY_STORAGE_DIR:
+                case KEY_MEMORY_STORE_SIZE:
+                case KEY_MULTICAST_ADDRESS:
+                case KEY_MULTICAST_PORT:
+                case KEY_MULTICAST_GROUPS:
+                case KEY_MULTICAST_INTERFACE:
+                case KEY_MULTICAST_TTL:
+                    break;
+                case KEY_LOG_LEVEL:
+                    server.setLogLevel(LogLevel.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case KEY_LISTENERS:
+                    server.setListenerCount(parseInt(key, value));
+                    break;
+                case KEY_METRICS_PORT:
+                    server.setMetricsPort(parseInt(key, value));
+                    break;
+                case KEY_MAX_UPLOAD_SIZE:
+                    server.setMaxUploadSize(parseLong(key, value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown key:" + key);
+            }
+        }
+
+        if (config.getProperty(KEY_MIN_RETRANSMIT_TIMEOUT) != null || config.getProperty(KEY_MAX_RETRANSMIT_TIMEOUT) != null) {
+            server.setRetransmitTimeout(
+                    parseInt(KEY_MIN_RETRANSMIT_TIMEOUT, config.getProperty(KEY_MIN_RETRANSMIT_TIMEOUT, String.valueOf(TftpServer.MIN_RECEIVE_TIMEOUT)).trim()),
+                    parseInt(KEY_MAX_RETRANSMIT_TIMEOUT, config.getProperty(KEY_MAX_RETRANSMIT_TIMEOUT, String.valueOf(TftpServer.HANDLER_RECEIVE_TIMEOUT)).trim()));
+        }
+
+        if (config.getProperty(KEY_MAX_SESSIONS) != null || config.getProperty(KEY_MAX_SESSIONS_PER_CLIENT) != null
+                || config.getProperty(KEY_MAX_PENDING_SESSIONS) != null) {
+            server.setSessionLimits(
+                    parseInt(KEY_MAX_SESSIONS, config.getProperty(KEY_MAX_SESSIONS, String.valueOf(TftpServer.DEFAULT_MAX_SESSIONS)).trim()),
+                    parseInt(KEY_MAX_SESSIONS_PER_CLIENT, config.getProperty(KEY_MAX_SESSIONS_PER_CLIENT, "0").trim()),
+                    parseInt(KEY_MAX_PENDING_SESSIONS, config.getProperty(KEY_MAX_PENDING_SESSIONS, String.valueOf(TftpServer.DEFAULT_MAX_PENDING_SESSIONS)).trim()));
+        }
+
+        if (config.getProperty(KEY_UPLOAD_WRITER_THREADS) != null || config.getProperty(KEY_UPLOAD_BUFFER_SIZE) != null
+                || config.getProperty(KEY_FSYNC) != null) {
+            server.setUploadWriter(
+                    parseInt(KEY_UPLOAD_WRITER_THREADS, config.getProperty(KEY_UPLOAD_WRITER_THREADS, String.valueOf(TftpServer.DEFAULT_UPLOAD_WRITER_THREADS)).trim()),
+                    parseLong(KEY_UPLOAD_BUFFER_SIZE, config.getProperty(KEY_UPLOAD_BUFFER_SIZE, String.valueOf(TftpServer.DEFAULT_UPLOAD_BUFFER_SIZE)).trim()),
+                    FsyncPolicy.valueOf(config.getProperty(KEY_FSYNC, FsyncPolicy.NONE.name()).trim().toUpperCase(Locale.ROOT)));
+        }
+
+        if (config.getProperty(KEY_STORAGE) != null || config.getProperty(KEY_STORAGE_DIR) != null
+                || config.getProperty(KEY_MEMORY_STORE_SIZE) != null) {
+            String storageDir = config.getProperty(KEY_STORAGE_DIR);
+            server.setStorage(StorageType.valueOf(config.getProperty(KEY_STORAGE, StorageType.FILESYSTEM.name()).trim().toUpperCase(Locale.ROOT)),
+                    storageDir != null ? storageDir.trim() : null,
+                    parseLong(KEY_MEMORY_STORE_SIZE, config.getProperty(KEY_MEMORY_STORE_SIZE, "0").trim()));
+        }
+
+        if (config.getProperty(KEY_MULTICAST_ADDRESS) != null) {
+            server.setMulticast(config.getProperty(KEY_MULTICAST_ADDRESS).trim(),
+                    parseInt(KEY_MULTICAST_PORT, config.getProperty(KEY_MULTICAST_PORT, String.valueOf(MulticastService.DEFAULT_PORT)).trim()),
+                    parseInt(KEY_MULTICAST_GROUPS, config.getProperty(KEY_MULTICAST_GROUPS, String.valueOf(MulticastService.DEFAULT_MAX_GROUPS)).trim()));
+            String multicastInterface = config.getProperty(KEY_MULTICAST_INTERFACE);
+            server.setMulticastInterface(multicastInterface != null ? multicastInterface.trim() : null,
+                    parseInt(KEY_MULTICAST_TTL, config.getProperty(KEY_MULTICAST_TTL, "1").trim()));
+        }
+
+        if (config.getProperty(KEY_BASE_DIR) == null) {
+            throw new IllegalArgumentException("Missing " + KEY_BASE_DIR);
+        }
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Illegal number of %s:%s", key, value));
+        }
+    }
+
+    private static long parseLong(String key, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Illegal number of %s:%s", key, value));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package network;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * limit the concurrent sessions of server and of every client address.
+ * the requests over the limit wait in a bounded queue, and are rejected when the queue is full.
+ */
+public class AdmissionController {
+
+    /**
+     * the max sessions running, 0 means no limit.
+     */
+    private final int maxSessions;
+
+    /**
+     * the max sessions running or waiting of one client address, 0 means no limit.
+     */
+    private final int maxSessionsPerClient;
+
+    /**
+     * the max requests waiting.
+     */
+    private final int maxPending;
+
+    /**
+     * the waiting request is dropped after the time, the client should have retried or given up.
+     */
+    private final long pendingTimeoutNanos;
+
+    private int activeCount;
+
+    private final Map<InetAddress, Integer> clientCounts = new HashMap<>();
+
+    private final Queue<Pending> pendings = new ArrayDeque<>();
+
+    public AdmissionController(int maxSessions, int maxSessionsPerClient, int maxPending, long pendingTimeoutMs) {
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerClient = maxSessionsPerClient;
+        this.maxPending = maxPending;
+        this.pendingTimeoutNanos = pendingTimeoutMs * 1000000L;
+    }
+
+    /**
+     * submit the session of client.
+     * @param client
+     * @param start run now if admitted, or run by the thread releasing a session.
+     * @param discard run if the waiting request is dropped by timeout.
+     * @return false if rejected.
+     */
+    public boolean submit(InetAddress client, Runnable start, Runnable discard) {
+        synchronized (this) {
+            int clientCount = clientCounts.getOrDefault(client, 0);
+            if (maxSessionsPerClient > 0 && clientCount >= maxSessionsPerClient) {
+                return false;
+            }
+
+            if (maxSessions > 0 && activeCount >= maxSessions) {
+                if (pendings.size() >= maxPending) {
+                    return false;
+                }
+                clientCounts.put(client, clientCount + 1);
+                pendings.add(new Pending(client, start, discard, System.nanoTime()));
+                return true;
+            }
+
+            clientCounts.put(client, clientCount + 1);
+            ++activeCount;
+        }
+        start.run();
+        return true;
+    }
+
+    /**
+     * the session of client is ended, start the next waiting one.
+     * @param client
+     */
+    public void release(InetAddress client) {
+        Runnable next = null;
+        List<Runnable> discards = null;
+        synchronized (this) {
+            --activeCount;
+            decrementClient(client);
+
+            long now = System.nanoTime();
+            Pending pending;
+            while ((pending = pendings.poll()) != null) {
+                if (now - pending.submitNanos > pendingTimeoutNanos) {
+                    decrementClient(pending.client);
+                    if (discards == null) {
+                        discards = new ArrayList<>();
+                    }
+                    discards.add(pending.discard);
+                    continue;
+                }
+                ++activeCount;
+                next = pending.start;
+                break;
+            }
+        }
+
+        if (discards != null) {
+            discards.forEach(Runnable::run);
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    private void decrementClient(InetAddress client) {
+        Integer count = clientCounts.get(client);
+        if (count == null || count <= 1) {
+            clientCounts.remove(client);
+        } else {
+            clientCounts.put(client, count - 1);
+        }
+    }
+
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    public synchronized int getPendingCount() {
+        return pendings.size();
+    }
+
+    /**
+     * the request waiting to start.
+     */
+    private static class Pending {
+        private final InetAddress client;
+        private final Runnable start;
+        private final Runnable discard;
+        private final long submitNanos;
+
+        private Pending(InetAddress client, Runnable start, Runnable discard, long submitNanos) {
+            this.client = client;
+            this.start = start;
+            this.discard = discard;
+            this.submitNanos = submitNanos;
+        }
+    }
+}
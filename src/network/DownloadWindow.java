@@ -0,0 +1,128 @@
+package network;
+
+import network.packet.BlockNumber;
+
+/**
+ * the blocks of one download which are sent but not acked.
+ * the window size is 1 without windowsize option, then it works as lock-step.
+ * the blocks are read by position, so only the seq is kept and a roll back just read again.
+ * the seq is 64 bits, it is changed to the 16 bits block number only on the wire.
+ */
+public class DownloadWindow {
+
+    private final int windowSize;
+
+    /**
+     * the block number after 65535.
+     */
+    private final int rollover;
+
+    /**
+     * the seq of the last block, seq start from 1 and never wrap.
+     */
+    private final long lastSeq;
+
+    /**
+     * the seq of first block not acked.
+     */
+    private long baseSeq = 1;
+
+    /**
+     * the roll back is accepted once until the window slide or send again by timeout,
+     * the client may ack the lost block for every block after it, resend for each of them
+     * is the Sorcerer's Apprentice syndrome.
+     */
+    private boolean rollbackAllowed = true;
+
+    /**
+     * @param fileLength
+     * @param blockSize
+     * @param windowSize
+     * @param rollover the block number after 65535, 0 or 1.
+     */
+    public DownloadWindow(long fileLength, int blockSize, int windowSize, int rollover) {
+        this.windowSize = windowSize;
+        this.rollover = rollover;
+        //If the entire data file is dividable by block size, the last packet contains 0 data bytes.
+        this.lastSeq = fileLength / blockSize + 1;
+    }
+
+    /**
+     * check all blocks are acked or not.
+     * @return
+     */
+    public boolean isFinished() {
+        return baseSeq > lastSeq;
+    }
+
+    /**
+     * get the count of blocks in the window.
+     * @return
+     */
+    public int size() {
+        return (int) (getEndSeq() - baseSeq);
+    }
+
+    /**
+     * get the seq of block in the window.
+     * @param index 0 is the first block not acked.
+     * @return
+     */
+    public long getSeq(int index) {
+        return baseSeq + index;
+    }
+
+    /**
+     * ack the block and slide the window to the block after it.
+     * with windowsize, the ack of the block before window means the client lost
+     * the first block, the window roll back and all blocks need to send again.
+     * the duplicate roll back ack is ignored until the window slide or {@link #onTimeout()}.
+     * @param blockNo
+     * @return the count of blocks newly acked, 0 means roll back, -1 means not in the window or duplicate.
+     */
+    public int ack(short blockNo) {
+        long minSeq = windowSize > 1 && rollbackAllowed ? baseSeq - 1 : baseSeq;
+        for (long seq = getEndSeq() - 1; seq >= minSeq; seq--) {
+            if (toBlockNo(seq) == blockNo) {
+                int ackCount = (int) (seq + 1 - baseSeq);
+                baseSeq = seq + 1;
+                //only roll back once for the same lost block.
+                rollbackAllowed = ackCount > 0;
+                return ackCount;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * the window is sent again by timeout, the next roll back is accepted.
+     */
+    public void onTimeout() {
+        rollbackAllowed = true;
+    }
+
+    /**
+     * get the block number of the last block in window.
+     * @return
+     */
+    public short getLastBlockNo() {
+        return toBlockNo(getEndSeq() - 1);
+    }
+
+    /**
+     * the seq after the last block in window.
+     * @return
+     */
+    private long getEndSeq() {
+        return Math.min(baseSeq + windowSize, lastSeq + 1);
+    }
+
+    /**
+     * change the seq to block number, the block number roll over after 65535.
+     * @param seq
+     * @return
+     */
+    public short toBlockNo(long seq) {
+        return BlockNumber.fromSeq(seq, rollover);
+    }
+}
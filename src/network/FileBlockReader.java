@@ -0,0 +1,137 @@
+package network;
+
+import network.cache.BlockCache;
+import network.packet.DATAPacket;
+import network.packet.TftpPacketConsts;
+import network.storage.StoredFile;
+import utils.DataUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * read the blocks of the file by position, the block is read from cache first if cache is enabled.
+ * the file held in memory is never cached.
+ */
+public class FileBlockReader implements Closeable {
+
+    private final StoredFile file;
+
+    /**
+     * the positional read of file, create once for the data packet.
+     */
+    private final DATAPacket.PositionalReader reader;
+
+    private final int blockSize;
+
+    private final long length;
+
+    /**
+     * the cached blocks of the file, null if cache is disabled.
+     */
+    private final BlockCache.FileView cacheView;
+
+    /**
+     * the opcode and block number bytes of the data packet.
+     */
+    private final byte[] header = new byte[4];
+
+    /**
+     * @param file closed with the reader.
+     * @param blockSize
+     * @param cache null if cache is disabled.
+     */
+    public FileBlockReader(StoredFile file, int blockSize, BlockCache cache) {
+        this.file = file;
+        this.reader = file::read;
+        this.blockSize = blockSize;
+        this.length = file.size();
+        this.cacheView = cache != null && !file.isMemoryResident()
+                ? cache.open(file.getKey(), file.lastModified(), length, blockSize) : null;
+        DataUtils.shortToBytes(header, TftpPacketConsts.OP_DATA, 0);
+    }
+
+    /**
+     * get the length of file when open.
+     * @return
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * read the block into the packet.
+     * @param seq the seq of block, start from 1.
+     * @param blockNo the block number of seq on the wire.
+     * @param packet
+     * @return the count of data read.
+     * @throws IOException
+     */
+    public int read(long seq, short blockNo, DATAPacket packet) throws IOException {
+        if (cacheView == null) {
+            return packet.readBlock(reader, getPosition(seq), blockNo);
+        }
+
+        byte[] data = cacheView.get(seq - 1);
+        if (data != null) {
+            return packet.setBlock(data, blockNo);
+        }
+
+        int count = packet.readBlock(reader, getPosition(seq), blockNo);
+        cacheView.put(seq - 1, packet.copyBlockData());
+        return count;
+    }
+
+    /**
+     * read the whole data packet into the buffer, the buffer is ready to send after return.
+     * use the direct buffer, the file data is not copied to heap if cache is disabled and the file is on disk.
+     * @param seq the seq of block, start from 1.
+     * @param blockNo the block number of seq on the wire.
+     * @param target
+     * @return the count of data read.
+     * @throws IOException
+     */
+    public int read(long seq, short blockNo, ByteBuffer target) throws IOException {
+        DataUtils.shortToBytes(header, blockNo, 2);
+        target.clear();
+        target.put(header);
+
+        byte[] data = cacheView != null ? cacheView.get(seq - 1) : null;
+        if (data != null) {
+            target.put(data);
+            target.flip();
+            return data.length;
+        }
+
+        target.limit(4 + blockSize);
+        long position = getPosition(seq);
+        int count = 0;
+        while (target.hasRemaining()) {
+            int readCount = file.read(target, position + count);
+            if (readCount < 0) {
+                break;
+            }
+            count += readCount;
+        }
+        target.flip();
+
+        if (cacheView != null) {
+            data = new byte[count];
+            ByteBuffer dataView = target.duplicate();
+            dataView.position(4);
+            dataView.get(data);
+            cacheView.put(seq - 1, data);
+        }
+        return count;
+    }
+
+    private long getPosition(long seq) {
+        return (seq - 1) * blockSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
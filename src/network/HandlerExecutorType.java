@@ -0,0 +1,16 @@
+package network;
+
+/**
+ * the executor used to run the blocking handlers.
+ */
+public enum HandlerExecutorType {
+    /**
+     * a platform thread per transfer, reused by the cached thread pool.
+     */
+    CACHED_POOL,
+
+    /**
+     * a virtual thread per transfer, need JDK 21+.
+     */
+    VIRTUAL_THREAD
+}
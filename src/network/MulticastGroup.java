@@ -0,0 +1,374 @@
+package network;
+
+import network.metrics.TransferMetrics;
+import network.packet.BlockNumber;
+import network.packet.DATAPacket;
+import network.packet.OACKPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacketConsts;
+import network.packet.WRRQPacket;
+import network.storage.StoredFile;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * one multicast download of RFC 2090, run on its own handler thread.
+ * the DATA is sent to the group address and only the master client acks it in lock-step.
+ * when the master has all blocks, the next client becomes master and acks the last block it has in order,
+ * so the blocks missed by the late joiner are sent again from there.
+ */
+class MulticastGroup implements Runnable {
+
+    /**
+     * the max time to wait the response before accept the new clients.
+     */
+    private static final int JOIN_INTERVAL = 100;
+
+    private static final int BUFFER_MAX_LENGTH = 1024;
+
+    private static final String LOG_PREFIX = "Multicast";
+
+    private final MulticastService service;
+
+    /**
+     * the key of group in service.
+     */
+    private final String key;
+
+    /**
+     * the file of group, closed with the group.
+     */
+    private final StoredFile file;
+
+    private final int blockSize;
+
+    private final InetSocketAddress groupAddress;
+
+    private final TransferMetrics metrics;
+
+    /**
+     * the clients handed over by the listener, accepted by the group thread.
+     */
+    private final Queue<Member> joins = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the clients not finished in join order, only touched by the group thread.
+     */
+    private final Map<InetSocketAddress, Member> members = new LinkedHashMap<>();
+
+    private DatagramSocket socket;
+
+    private FileBlockReader blockReader;
+
+    private DATAPacket dataPacket;
+
+    /**
+     * the seq of the last block.
+     */
+    private long lastSeq;
+
+    /**
+     * the client acks the DATA, null if no client left.
+     */
+    private Member master;
+
+    /**
+     * the master acked the OACK with the master flag, the DATA is sent after it.
+     */
+    private boolean masterAcked;
+
+    /**
+     * the seq of the block waiting the ack of master.
+     */
+    private long sendSeq;
+
+    /**
+     * the retransmit timer of the master.
+     */
+    private RetransmitTimer timer;
+
+    MulticastGroup(MulticastService service, String key, StoredFile file, int blockSize, InetSocketAddress groupAddress) {
+        this.service = service;
+        this.key = key;
+        this.file = file;
+        this.blockSize = blockSize;
+        this.groupAddress = groupAddress;
+        this.metrics = service.getMetrics();
+    }
+
+    /**
+     * hand over the client to the group thread.
+     * @param member
+     */
+    void offer(Member member) {
+        joins.offer(member);
+    }
+
+    boolean hasJoins() {
+        return !joins.isEmpty();
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    InetSocketAddress getGroupAddress() {
+        return groupAddress;
+    }
+
+    @Override
+    public void run() {
+        try (FileBlockReader blockReader = new FileBlockReader(file, blockSize, service.getBlockCache());
+             DatagramSocket socket = service.openSocket()) {
+            this.socket = socket;
+            this.blockReader = blockReader;
+            //If the entire data file is dividable by block size, the last packet contains 0 data bytes.
+            lastSeq = blockReader.length() / blockSize + 1;
+            dataPacket = new DATAPacket(groupAddress, blockSize);
+
+            byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+            DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+            PacketView response = new PacketView();
+            while (service.isRunning()) {
+                acceptJoins();
+                if (master == null && !electMaster()) {
+                    if (service.closeIfIdle(this)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                //wake up in time to accept the late joiner, even if the master is slow.
+                socket.setSoTimeout(Math.min(timer.getRemaining(System.currentTimeMillis()), JOIN_INTERVAL));
+                datagramPacket.setLength(buffer.length);
+                try {
+                    socket.receive(datagramPacket);
+                } catch (SocketTimeoutException e) {
+                    if (timer.getRemaining(System.currentTimeMillis()) <= 1) {
+                        onTimeout();
+                    }
+                    continue;
+                }
+                response.wrap(buffer, datagramPacket.getLength());
+                onResponse((InetSocketAddress) datagramPacket.getSocketAddress(), response);
+            }
+        } catch (Exception e) {
+            if (service.isRunning()) {
+                log(LogLevel.ERROR, e, "Error:%s", e.getMessage());
+            }
+        } finally {
+            service.remove(this);
+            for (Member member : members.values()) {
+                leave(member, false);
+            }
+            members.clear();
+            Member member;
+            while ((member = joins.poll()) != null) {
+                leave(member, false);
+            }
+        }
+    }
+
+    /**
+     * send the OACK to the new clients, the client joins without master flag if there is a master.
+     * @throws IOException
+     */
+    private void acceptJoins() throws IOException {
+        Member member;
+        while ((member = joins.poll()) != null) {
+            member.startNanos = System.nanoTime();
+            metrics.onSessionStart(member.startNanos - member.receiveNanos);
+            member.options.acceptTransferSize(blockReader.length());
+            Member old = members.put(member.address, member);
+            if (old != null) {
+                leave(old, false);
+            }
+            log(LogLevel.INFO, "Join:client<%s> group<%s>", member.address, groupAddress);
+            if (master != null) {
+                sendOack(member, false);
+            }
+        }
+    }
+
+    /**
+     * the first client in join order becomes the master.
+     * @return false if no client left.
+     * @throws IOException
+     */
+    private boolean electMaster() throws IOException {
+        Iterator<Member> iterator = members.values().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        master = iterator.next();
+        masterAcked = false;
+        sendSeq = 0;
+        timer = service.getRetransmitPolicy().newTimer(master.options);
+        log(LogLevel.DEBUG, "Master:client<%s> acked<%s>", master.address, master.ackedSeq);
+        sendOack(master, true);
+        timer.onSend(System.currentTimeMillis(), false);
+        return true;
+    }
+
+    private void onResponse(InetSocketAddress address, PacketView response) throws IOException {
+        Member member = members.get(address);
+        if (member == null) {
+            log(LogLevel.DEBUG, "Ignore packet of %s, not in group.", address);
+            return;
+        }
+
+        short opCode = response.getOpCode();
+        if (opCode == TftpPacketConsts.OP_ERROR) {
+            //the client leave the group.
+            log(LogLevel.INFO, "Client<%s> error:%s", address, response.getErrMsg());
+            members.remove(address);
+            leave(member, false);
+            if (member == master) {
+                master = null;
+            }
+            return;
+        }
+        if (opCode != TftpPacketConsts.OP_ACK || member != master) {
+            //only the master acks.
+            return;
+        }
+
+        long seq = toSeq(member, response.getBlockNo());
+        if (seq < 0 || (masterAcked && seq + 1 == sendSeq)) {
+            //unknown or duplicate ack, wait the timer.
+            return;
+        }
+        masterAcked = true;
+        member.ackedSeq = seq;
+        timer.onAck(System.currentTimeMillis());
+        if (seq >= lastSeq) {
+            //the master has all blocks, hand over to the next client.
+            members.remove(address);
+            leave(member, true);
+            master = null;
+            return;
+        }
+
+        sendSeq = seq + 1;
+        sendData(false);
+    }
+
+    private void onTimeout() throws IOException {
+        long now = System.currentTimeMillis();
+        if (timer.isGiveUp(now)) {
+            log(LogLevel.WARN, "Master<%s> not respond, leave group.", master.address);
+            members.remove(master.address);
+            leave(master, false);
+            master = null;
+            return;
+        }
+
+        timer.onTimeout();
+        if (masterAcked) {
+            sendData(true);
+        } else {
+            sendOack(master, true);
+            timer.onSend(now, true);
+        }
+    }
+
+    /**
+     * send the block of send seq to the group.
+     * @param retransmit
+     * @throws IOException
+     */
+    private void sendData(boolean retransmit) throws IOException {
+        int length = blockReader.read(sendSeq, BlockNumber.fromSeq(sendSeq, service.getBlockRollover()), dataPacket);
+        socket.send(dataPacket.build());
+        metrics.addBytesSent(length);
+        timer.onSend(System.currentTimeMillis(), retransmit);
+    }
+
+    /**
+     * send the OACK with the group address and the master flag to the client.
+     * @param member
+     * @param isMaster
+     * @throws IOException
+     */
+    private void sendOack(Member member, boolean isMaster) throws IOException {
+        member.options.acceptMulticast(groupAddress.getAddress().getHostAddress() + "," + groupAddress.getPort() + "," + (isMaster ? 1 : 0));
+        socket.send(new OACKPacket(member.address, member.options.getAcceptedOptions()).build());
+    }
+
+    /**
+     * change the block number acked by the client to the seq, the client only acks forward.
+     * @param member
+     * @param blockNo
+     * @return -1 if not a block of file.
+     */
+    private long toSeq(Member member, short blockNo) {
+        long seq = BlockNumber.toSeq(member.ackedSeq, blockNo, service.getBlockRollover());
+        return seq <= lastSeq ? seq : -1;
+    }
+
+    private void leave(Member member, boolean finished) {
+        if (member.startNanos != 0) {
+            metrics.onSessionEnd(false, System.nanoTime() - member.startNanos, finished);
+            log(LogLevel.INFO, "Leave:client<%s> finished<%s>", member.address, finished);
+        }
+        member.release.run();
+    }
+
+    private void log(LogLevel level, String format, Object arg0) {
+        service.getLogger().log(level, MulticastService.LOG_CATEGORY, LOG_PREFIX, format, arg0);
+    }
+
+    private void log(LogLevel level, String format, Object arg0, Object arg1) {
+        service.getLogger().log(level, MulticastService.LOG_CATEGORY, LOG_PREFIX, format, arg0, arg1);
+    }
+
+    private void log(LogLevel level, Throwable thrown, String format, Object arg0) {
+        service.getLogger().log(level, MulticastService.LOG_CATEGORY, LOG_PREFIX, thrown, format, arg0);
+    }
+
+    /**
+     * one client of the group.
+     */
+    static final class Member {
+        private final InetSocketAddress address;
+
+        private final TransferOptions options;
+
+        /**
+         * the nano time of the request received by listener.
+         */
+        private final long receiveNanos;
+
+        /**
+         * call when the client leave the group, such as release the admission.
+         */
+        private final Runnable release;
+
+        /**
+         * the nano time of the client accepted by the group, 0 if not accepted.
+         */
+        private long startNanos;
+
+        /**
+         * the seq of the last block the client has in order, 0 before any block.
+         */
+        private long ackedSeq;
+
+        Member(WRRQPacket reqPacket, TransferOptions options, long receiveNanos, Runnable release) {
+            this.address = reqPacket.getAddress();
+            this.options = options;
+            this.receiveNanos = receiveNanos;
+            this.release = release;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package network;
+
+import network.cache.BlockCache;
+import network.metrics.TransferMetrics;
+import network.packet.BlockNumber;
+import network.packet.TftpPacketConsts;
+import network.packet.WRRQPacket;
+import network.storage.FileStore;
+import network.storage.StoredFile;
+import utils.AsyncLogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * the multicast downloads of RFC 2090, the clients ask the same file with the same block size join one group.
+ * every group has its own port from the base port, the request is served by unicast when all ports are in use.
+ */
+public class MulticastService {
+
+    /**
+     * the port of tftp multicast registered by IANA.
+     */
+    public static final int DEFAULT_PORT = 1758;
+
+    /**
+     * the default max groups running.
+     */
+    public static final int DEFAULT_MAX_GROUPS = 16;
+
+    static final String LOG_CATEGORY = "MulticastThread";
+
+    private final InetAddress groupAddress;
+
+    private final int basePort;
+
+    /**
+     * the group of port basePort + i is running.
+     */
+    private final boolean[] usedPorts;
+
+    private final int maxBlockSize;
+
+    private final RetransmitPolicy retransmitPolicy;
+
+    private final TransferMetrics metrics;
+
+    private final AsyncLogger logger;
+
+    /**
+     * run the groups, one thread for each.
+     */
+    private final Executor executor;
+
+    /**
+     * the interface to send the multicast, null to use the default route.
+     */
+    private NetworkInterface networkInterface;
+
+    private int ttl = 1;
+
+    private BlockCache blockCache;
+
+    private int blockRollover = BlockNumber.ROLLOVER_ZERO;
+
+    /**
+     * the running groups keyed by the file path and block size.
+     */
+    private final Map<String, MulticastGroup> groups = new HashMap<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param groupAddress the multicast address of the groups.
+     * @param basePort the port of the first group.
+     * @param maxGroups
+     * @param maxBlockSize the max block size allow to negotiate.
+     * @param retransmitPolicy
+     * @param metrics
+     * @param logger
+     * @param executor
+     */
+    public MulticastService(InetAddress groupAddress, int basePort, int maxGroups, int maxBlockSize,
+                            RetransmitPolicy retransmitPolicy, TransferMetrics metrics, AsyncLogger logger, Executor executor) {
+        if (!groupAddress.isMulticastAddress()) {
+            throw new IllegalArgumentException("Not a multicast address:" + groupAddress.getHostAddress());
+        }
+        this.groupAddress = groupAddress;
+        this.basePort = basePort;
+        this.usedPorts = new boolean[Math.max(1, maxGroups)];
+        this.maxBlockSize = maxBlockSize;
+        this.retransmitPolicy = retransmitPolicy;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.executor = executor;
+    }
+
+    /**
+     * join the client to the group of the file, start the group if none.
+     * @param reqPacket
+     * @param store
+     * @param receiveNanos the time of the request received.
+     * @param release call when the client leave the group.
+     * @return false if the request should be served by unicast, such as no multicast option or the file not found.
+     */
+    public boolean join(WRRQPacket reqPacket, FileStore store, long receiveNanos, Runnable release) {
+        if (!TransferOptions.isMulticastRequested(reqPacket) || !TftpPacketConsts.MODE_OCTET.equals(reqPacket.getMode())) {
+            return false;
+        }
+        StoredFile file;
+        try {
+            file = store.open(reqPacket.getFileName());
+        } catch (IOException e) {
+            return false;
+        }
+        if (file == null) {
+            //the unicast answer the error.
+            return false;
+        }
+
+        TransferOptions options = TransferOptions.negotiate(reqPacket, maxBlockSize, 1);
+        String key = file.getKey() + ':' + options.getBlockSize();
+        MulticastGroup.Member member = new MulticastGroup.Member(reqPacket, options, receiveNanos, release);
+        //the file is closed unless a new group takes it.
+        boolean started = false;
+        try {
+            synchronized (this) {
+                if (!running) {
+                    return false;
+                }
+                MulticastGroup group = groups.get(key);
+                if (group != null) {
+                    group.offer(member);
+                    return true;
+                }
+
+                int index = allocatePort();
+                if (index < 0) {
+                    logger.log(LogLevel.WARN, LOG_CATEGORY, null, "No free multicast port, serve %s by unicast.", reqPacket.getAddress());
+                    return false;
+                }
+                group = new MulticastGroup(this, key, file, options.getBlockSize(), new InetSocketAddress(groupAddress, basePort + index));
+                group.offer(member);
+                try {
+                    executor.execute(group);
+                } catch (RejectedExecutionException e) {
+                    usedPorts[index] = false;
+                    return false;
+                }
+                started = true;
+                groups.put(key, group);
+                logger.log(LogLevel.INFO, LOG_CATEGORY, null, "Start group %s of %s", group.getGroupAddress(), reqPacket.getFileName());
+            }
+            return true;
+        } finally {
+            if (!started) {
+                closeQuietly(file);
+            }
+        }
+    }
+
+    private static void closeQuietly(StoredFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            //nothing read from it.
+        }
+    }
+
+    /**
+     * remove the group if no client is waiting to join, called by the group without members.
+     * @param group
+     * @return true if the group is removed and should stop.
+     */
+    synchronized boolean closeIfIdle(MulticastGroup group) {
+        if (running && group.hasJoins()) {
+            return false;
+        }
+        remove(group);
+        return true;
+    }
+
+    /**
+     * remove the group and free its port, no client can join it after.
+     * @param group
+     */
+    synchronized void remove(MulticastGroup group) {
+        if (groups.get(group.getKey()) == group) {
+            groups.remove(group.getKey());
+            usedPorts[group.getGroupAddress().getPort() - basePort] = false;
+        }
+    }
+
+    private int allocatePort() {
+        for (int i = 0; i < usedPorts.length; i++) {
+            if (!usedPorts[i]) {
+                usedPorts[i] = true;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * open the socket of group, it is the tid of all clients and send the DATA to the group.
+     * @return
+     * @throws IOException
+     */
+    DatagramSocket openSocket() throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+            socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            if (networkInterface != null) {
+                socket.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * stop the groups, the clients are released by the group threads.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * set the interface to send the multicast, such as the loopback for test.
+     * @param networkInterface null to use the default route.
+     */
+    public void setNetworkInterface(NetworkInterface networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    /**
+     * set the ttl of multicast, 1 keeps the DATA in the local network.
+     * @param ttl
+     */
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    public void setBlockRollover(int blockRollover) {
+        this.blockRollover = blockRollover;
+    }
+
+    BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    int getBlockRollover() {
+        return blockRollover;
+    }
+
+    RetransmitPolicy getRetransmitPolicy() {
+        return retransmitPolicy;
+    }
+
+    TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    AsyncLogger getLogger() {
+        return logger;
+    }
+}
@@ -0,0 +1,71 @@
+package network;
+
+import network.metrics.TransferMetrics;
+
+/**
+ * the limits of the retransmit timer, shared by all sessions of the server.
+ */
+public class RetransmitPolicy {
+
+    /**
+     * the timeout before the first rtt sample.
+     */
+    private final int initialTimeout;
+
+    /**
+     * the min timeout, avoid the spurious retransmit when the rtt is very small.
+     */
+    private final int minTimeout;
+
+    /**
+     * the max timeout, the backoff stop at it.
+     */
+    private final int maxTimeout;
+
+    /**
+     * the retry time without progress before give up.
+     */
+    private final int retryTime;
+
+    /**
+     * record the rtt, retransmits and timeouts of all sessions.
+     */
+    private final TransferMetrics metrics;
+
+    public RetransmitPolicy(int initialTimeout, int minTimeout, int maxTimeout, int retryTime, TransferMetrics metrics) {
+        this.minTimeout = Math.max(1, minTimeout);
+        this.maxTimeout = Math.max(this.minTimeout, maxTimeout);
+        this.initialTimeout = Math.max(this.minTimeout, Math.min(initialTimeout, this.maxTimeout));
+        this.retryTime = retryTime;
+        this.metrics = metrics;
+    }
+
+    /**
+     * create the timer of one session.
+     * @param options the timeout option fix the timeout if client send it.
+     * @return
+     */
+    public RetransmitTimer newTimer(TransferOptions options) {
+        return new RetransmitTimer(this, options.getTimeout(), System.currentTimeMillis());
+    }
+
+    public int getInitialTimeout() {
+        return initialTimeout;
+    }
+
+    public int getMinTimeout() {
+        return minTimeout;
+    }
+
+    public int getMaxTimeout() {
+        return maxTimeout;
+    }
+
+    public int getRetryTime() {
+        return retryTime;
+    }
+
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,184 @@
+package network;
+
+/**
+ * the retransmit timer of one session, estimate the timeout by the rtt (RFC 6298).
+ * the rtt is not sampled from the retransmitted packet (Karn's algorithm),
+ * and the timeout doubles on every timeout until the max.
+ */
+public class RetransmitTimer {
+
+    /**
+     * the max times to double the timeout.
+     */
+    private static final int MAX_BACKOFF = 16;
+
+    private final RetransmitPolicy policy;
+
+    /**
+     * the timeout fixed by the timeout option, 0 if adaptive.
+     */
+    private final int fixedTimeout;
+
+    /**
+     * smoothed rtt in ms.
+     */
+    private double srtt;
+
+    /**
+     * rtt variation in ms.
+     */
+    private double rttvar;
+
+    private boolean hasSample;
+
+    /**
+     * the timeout without backoff.
+     */
+    private int rto;
+
+    /**
+     * the count of timeouts since the last progress.
+     */
+    private int backoff;
+
+    /**
+     * the nano time of the first send which is waiting the response, more precise than the ms of the deadline.
+     */
+    private long sentNanos;
+
+    /**
+     * the packet waiting the response is retransmitted, the rtt is ambiguous.
+     */
+    private boolean retransmitted;
+
+    /**
+     * the time to wait the response until.
+     */
+    private long deadline;
+
+    /**
+     * the time of the last progress.
+     */
+    private long progressTime;
+
+    private int retransmitCount;
+
+    RetransmitTimer(RetransmitPolicy policy, int fixedTimeout, long now) {
+        this.policy = policy;
+        this.fixedTimeout = fixedTimeout;
+        this.rto = policy.getInitialTimeout();
+        this.progressTime = now;
+        this.deadline = now + getTimeout();
+    }
+
+    /**
+     * the packet is sent and start wait the response.
+     * @param now
+     * @param retransmit
+     */
+    public void onSend(long now, boolean retransmit) {
+        if (retransmit) {
+            retransmitted = true;
+            ++retransmitCount;
+            policy.getMetrics().onRetransmit();
+        } else {
+            sentNanos = System.nanoTime();
+            retransmitted = false;
+        }
+        deadline = now + getTimeout();
+    }
+
+    /**
+     * the response is received, sample the rtt if the packet is not retransmitted.
+     * @param now
+     */
+    public void onAck(long now) {
+        if (!retransmitted) {
+            long rttNanos = System.nanoTime() - sentNanos;
+            policy.getMetrics().recordRtt(rttNanos);
+            sample(rttNanos / 1_000_000.0);
+            //keep the backoff until a packet is acked without retransmit.
+            backoff = 0;
+        }
+        retransmitted = false;
+        onProgress(now);
+    }
+
+    /**
+     * the transfer has progress without rtt sample, such as the next block of window is received.
+     * @param now
+     */
+    public void onProgress(long now) {
+        progressTime = now;
+        deadline = now + getTimeout();
+    }
+
+    /**
+     * no response in time, double the timeout.
+     */
+    public void onTimeout() {
+        policy.getMetrics().onTimeout();
+        if (backoff < MAX_BACKOFF) {
+            ++backoff;
+        }
+    }
+
+    /**
+     * check need to give up or not, give up if no progress in retry time of max timeout.
+     * @param now
+     * @return
+     */
+    public boolean isGiveUp(long now) {
+        int maxTimeout = fixedTimeout > 0 ? fixedTimeout : policy.getMaxTimeout();
+        return now - progressTime >= (long) maxTimeout * (policy.getRetryTime() + 1);
+    }
+
+    /**
+     * get the current timeout with backoff.
+     * @return
+     */
+    public int getTimeout() {
+        if (fixedTimeout > 0) {
+            return fixedTimeout;
+        }
+        return (int) Math.min((long) rto << backoff, policy.getMaxTimeout());
+    }
+
+    /**
+     * get the time remaining to wait the response.
+     * @param now
+     * @return at least 1 ms.
+     */
+    public int getRemaining(long now) {
+        return (int) Math.max(1, deadline - now);
+    }
+
+    private void sample(double rtt) {
+        if (!hasSample) {
+            srtt = rtt;
+            rttvar = rtt / 2.0;
+            hasSample = true;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+            srtt = 0.875 * srtt + 0.125 * rtt;
+        }
+        long timeout = Math.round(srtt + Math.max(1, 4 * rttvar));
+        rto = (int) Math.max(policy.getMinTimeout(), Math.min(timeout, policy.getMaxTimeout()));
+    }
+
+    /**
+     * get the smoothed rtt.
+     * @return -1 if no sample.
+     */
+    public double getSrtt() {
+        return hasSample ? srtt : -1;
+    }
+
+    public int getRetransmitCount() {
+        return retransmitCount;
+    }
+
+    public int getBackoff() {
+        return backoff;
+    }
+}
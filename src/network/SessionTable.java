@@ -0,0 +1,79 @@
+package network;
+
+import network.packet.WRRQPacket;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the sessions in progress keyed by the client tid and the request.
+ * the client resend the request if the first response is lost or slow,
+ * the duplicate request must not start another transfer of the same file.
+ */
+public class SessionTable {
+
+    private final Map<SessionKey, Boolean> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * register the session of request.
+     * @param reqPacket
+     * @return the key to remove when the session is ended, null if the same request is in progress.
+     */
+    public SessionKey register(WRRQPacket reqPacket) {
+        SessionKey key = new SessionKey(reqPacket);
+        return sessions.putIfAbsent(key, Boolean.TRUE) == null ? key : null;
+    }
+
+    public void remove(SessionKey key) {
+        sessions.remove(key);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * the client address and port with the request, the hash is computed once.
+     */
+    public static final class SessionKey {
+        private final InetSocketAddress client;
+        private final short opCode;
+        private final String fileName;
+        private final String mode;
+        private final Map<String, String> options;
+        private final int hash;
+
+        private SessionKey(WRRQPacket reqPacket) {
+            this.client = reqPacket.getAddress();
+            this.opCode = reqPacket.getOpCode();
+            this.fileName = reqPacket.getFileName();
+            this.mode = reqPacket.getMode();
+            this.options = reqPacket.getOptions();
+            this.hash = Objects.hash(client, opCode, fileName, mode, options);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SessionKey)) {
+                return false;
+            }
+            SessionKey other = (SessionKey) o;
+            return hash == other.hash
+                    && opCode == other.opCode
+                    && client.equals(other.client)
+                    && Objects.equals(fileName, other.fileName)
+                    && Objects.equals(mode, other.mode)
+                    && Objects.equals(options, other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
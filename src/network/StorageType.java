@@ -0,0 +1,21 @@
+package network;
+
+/**
+ * the storage of the served files.
+ */
+public enum StorageType {
+    /**
+     * the files of the base dir.
+     */
+    FILESYSTEM,
+
+    /**
+     * the files of the base dir loaded into memory at start, served without disk io, the uploads are kept in memory.
+     */
+    MEMORY,
+
+    /**
+     * the files stored as deduplicated chunks under the storage dir, the identical uploads share the chunks.
+     */
+    CONTENT_ADDRESSED
+}
@@ -1,14 +1,43 @@
 package network;
 
+import network.cache.BlockCache;
+import network.io.FsyncPolicy;
+import network.io.QuotaExceededException;
+import network.io.UploadWriter;
+import network.metrics.MetricsHttpServer;
+import network.metrics.MetricsRegistry;
+import network.metrics.PrometheusRegistry;
+import network.metrics.TransferMetrics;
+import network.nio.NioTransferEngine;
+import network.storage.ContentAddressedStore;
+import network.storage.FileStore;
+import network.storage.FileSystemStore;
+import network.storage.MemoryStore;
+import network.storage.StoredFile;
+import network.storage.WriteSession;
+import network.transport.DatagramEndpoint;
+import network.transport.DatagramTransport;
+import network.transport.UdpTransport;
 import network.packet.*;
+import utils.AsyncLogger;
+import utils.LogLevel;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.BooleanSupplier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 /**
@@ -17,9 +46,9 @@ import java.util.function.Consumer;
 public class TftpServer {
 
     /**
-     * the port for receive request.
+     * the default port for receive request.
      */
-    private static final int PORT = 69;
+    public static final int PORT = 69;
 
     /**
      * buffer max size.
@@ -27,9 +56,19 @@ public class TftpServer {
     private static final int BUFFER_MAX_LENGTH = 1024;
 
     /**
-     * the time out of handler receive.
+     * the max time out of handler receive, the backoff stop at it.
+     */
+    public static final int HANDLER_RECEIVE_TIMEOUT = 5000;
+
+    /**
+     * the time out of handler receive before the first rtt sample.
      */
-    private static final int HANDLER_RECEIVE_TIMEOUT = 5000;
+    private static final int INITIAL_RECEIVE_TIMEOUT = 1000;
+
+    /**
+     * the min time out of handler receive.
+     */
+    public static final int MIN_RECEIVE_TIMEOUT = 100;
 
     /**
      * the retry time of when meet the error data
@@ -37,11 +76,58 @@ public class TftpServer {
     private static final int RETRY_TIME = 4;
 
     /**
-     * use to log info.
+     * the default max window size allow to negotiate.
+     */
+    private static final int DEFAULT_MAX_WINDOW_SIZE = 64;
+
+    /**
+     * the default max sessions running.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 1024;
+
+    /**
+     * the default max requests waiting for a session.
+     */
+    public static final int DEFAULT_MAX_PENDING_SESSIONS = 1024;
+
+    /**
+     * the default count of the upload writer threads.
+     */
+    public static final int DEFAULT_UPLOAD_WRITER_THREADS = 2;
+
+    /**
+     * the default max bytes of uploads received but not written.
+     */
+    public static final long DEFAULT_UPLOAD_BUFFER_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * the max time to wait the rest data of upload is written, the client has given up long before.
+     */
+    private static final int UPLOAD_FINISH_TIMEOUT = 60 * 1000;
+
+    /**
+     * the capacity of the log ring.
+     */
+    private static final int LOG_CAPACITY = 8192;
+
+    private static final String LISTENER_THREAD = "ListenerThread";
+
+    private static final String HANDLER_THREAD = "HandlerThread";
+
+    /**
+     * the sink of the formatted log msg.
+     */
+    private final Consumer<String> logSink;
+
+    /**
+     * use to log info, format and output the msg on the background thread, closed by stop and recreated by start.
      */
-    private Consumer<String> logger;
+    private volatile AsyncLogger logger;
 
-    private DatagramSocket reqSocket;
+    /**
+     * the channels to receive request, more than one are bound with SO_REUSEPORT.
+     */
+    private DatagramChannel[] reqChannels;
 
     /**
      * the status of server.
@@ -53,75 +139,360 @@ public class TftpServer {
      */
     private ExecutorService threadpool;
 
+    /**
+     * the port for receive request.
+     */
+    private int port = PORT;
+
+    /**
+     * the count of listener threads, each reads its own socket bound with SO_REUSEPORT when more than one.
+     */
+    private int listenerCount = 1;
+
     /**
      * the dir for save file.
      */
     private String baseDir;
 
+    /**
+     * the transport of the listener and the blocking handlers.
+     */
+    private DatagramTransport transport = UdpTransport.INSTANCE;
+
+    /**
+     * the engine to run the transfers.
+     */
+    private TransferEngineType engineType = TransferEngineType.BLOCKING;
+
+    /**
+     * the count of event loop threads for nio engine.
+     */
+    private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * the max block size allow to negotiate.
+     */
+    private int maxBlockSize = TftpPacketConsts.MAX_BLKSIZE;
+
+    /**
+     * the max window size allow to negotiate.
+     */
+    private int maxWindowSize = DEFAULT_MAX_WINDOW_SIZE;
+
+    /**
+     * the memory budget of the block cache, 0 to disable.
+     */
+    private long blockCacheSize;
+
+    /**
+     * the cache of file blocks shared by downloads, create when start, null if disabled.
+     */
+    private volatile BlockCache blockCache;
+
+    /**
+     * the executor to run the listener and blocking handlers.
+     */
+    private HandlerExecutorType executorType = HandlerExecutorType.CACHED_POOL;
+
+    /**
+     * the min time out of retransmit.
+     */
+    private int minReceiveTimeout = MIN_RECEIVE_TIMEOUT;
+
+    /**
+     * the max time out of retransmit.
+     */
+    private int maxReceiveTimeout = HANDLER_RECEIVE_TIMEOUT;
+
+    /**
+     * the limits of the retransmit timer, create when start.
+     */
+    private RetransmitPolicy retransmitPolicy;
+
+    /**
+     * the metrics of listener and transfers.
+     */
+    private TransferMetrics metrics = new TransferMetrics(new PrometheusRegistry());
+
+    /**
+     * the port of the http /metrics endpoint on loopback, 0 to disable.
+     */
+    private int metricsPort;
+
+    private MetricsHttpServer metricsHttpServer;
+
+    /**
+     * the max sessions running, 0 means no limit.
+     */
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+
+    /**
+     * the max sessions of one client address, 0 means no limit.
+     */
+    private int maxSessionsPerClient;
+
+    /**
+     * the max requests waiting when the sessions reach the max.
+     */
+    private int maxPendingSessions = DEFAULT_MAX_PENDING_SESSIONS;
+
+    /**
+     * limit the sessions, create when start.
+     */
+    private volatile AdmissionController admissionController;
+
+    /**
+     * the sessions in progress, drop the duplicate request, create when start.
+     */
+    private volatile SessionTable sessionTable;
+
+    /**
+     * the count of the upload writer threads.
+     */
+    private int uploadWriterThreads = DEFAULT_UPLOAD_WRITER_THREADS;
+
+    /**
+     * the max bytes of uploads received but not written.
+     */
+    private long uploadBufferSize = DEFAULT_UPLOAD_BUFFER_SIZE;
+
+    /**
+     * force the uploaded file to disk before the last ack or not.
+     */
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+
+    /**
+     * the max bytes of one uploaded file, 0 means no limit.
+     */
+    private long maxUploadSize;
+
+    /**
+     * the block number after 65535 of downloads, and of uploads until the client shows its own.
+     */
+    private int blockRollover = BlockNumber.ROLLOVER_ZERO;
+
+    /**
+     * write the uploads behind the ack, create when start.
+     */
+    private UploadWriter uploadWriter;
+
+    /**
+     * the storage of the files.
+     */
+    private StorageType storageType = StorageType.FILESYSTEM;
+
+    /**
+     * the root dir of the content addressed store, null to use the hidden dir under the base dir.
+     */
+    private String storageDir;
+
+    /**
+     * the max bytes of the memory store, 0 to use the default.
+     */
+    private long memoryStoreSize;
+
+    /**
+     * the max files of the cached metadata of the file system store, 0 to disable.
+     */
+    private int pathCacheSize = FileSystemStore.DEFAULT_PATH_CACHE_SIZE;
+
+    /**
+     * the store of the files read and written by the transfers, create when start.
+     */
+    private volatile FileStore store;
+
+    /**
+     * the nio engine, only create when the engine type is nio.
+     */
+    private NioTransferEngine nioEngine;
+
+    /**
+     * the multicast address of RFC 2090 downloads, null to disable.
+     */
+    private String multicastAddress;
+
+    /**
+     * the port of the first multicast group.
+     */
+    private int multicastPort = MulticastService.DEFAULT_PORT;
+
+    /**
+     * the max multicast groups running, each has its own port.
+     */
+    private int multicastGroups = MulticastService.DEFAULT_MAX_GROUPS;
+
+    /**
+     * the interface name to send the multicast, null to use the default route.
+     */
+    private String multicastInterface;
+
+    private int multicastTtl = 1;
+
+    /**
+     * the multicast downloads, only create when the multicast address is set.
+     */
+    private MulticastService multicastService;
+
     public TftpServer(Consumer<String> logger){
-        this.logger = logger;
+        this.logSink = logger;
+        this.logger = new AsyncLogger(logger, LOG_CAPACITY, LogLevel.INFO);
     }
 
     /**
      * receive the request from client.
+     * @param reqSocket the socket of one listener.
      */
-    private void receiveRequest(){
-        try {
-            reqSocket = new DatagramSocket(PORT);
-
-            while (run){
-                byte[] buffer = new byte[BUFFER_MAX_LENGTH];
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    private void receiveRequest(DatagramEndpoint reqSocket){
+        //the request packet is parsed into the new WRRQPacket, so the buffer can be reused.
+        byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (run){
+            try {
+                packet.setLength(buffer.length);
                 reqSocket.receive(packet);
+            } catch (IOException e) {
+                //if the server is stop, then do not log.
+                if(!run){
+                    break;
+                }
+                logByListenerThread(LogLevel.ERROR, "Receive request error:%s", e.getMessage());
+                continue;
+            }
+
+            try {
                 TftpPacket tftpPacket = TftpPacketFactory.buildTftpPacket(packet);
                 short opCode = tftpPacket.getOpCode();
-                logByListenerThread("Receive a packet, opcode:" + opCode);
-                //upload
-                if(opCode == TftpPacketConsts.OP_WRQ){
-                    doUpload(tftpPacket);
-                }else if(opCode == TftpPacketConsts.OP_RRQ){
-                    doDownload(tftpPacket);
+                logByListenerThread(LogLevel.DEBUG, "Receive a packet, opcode:%s", opCode);
+                metrics.onRequest(opCode);
+                if(opCode == TftpPacketConsts.OP_WRQ || opCode == TftpPacketConsts.OP_RRQ){
+                    admit(reqSocket, tftpPacket);
                 }else{
                     sendAndLogErrPacket(reqSocket, tftpPacket, TftpPacketConsts.ERRCODE_ILLOP, "Illegal Opcode.");
                 }
-
+            } catch (IllegalArgumentException e) {
+                //the bad packet only fails itself, the listener keeps serving.
+                metrics.onMalformedRequest();
+                logByListenerThread(LogLevel.WARN, "Malformed request of %s:%s", packet.getSocketAddress(), e.getMessage());
+                sendMalformedErrPacket(reqSocket, packet);
+            } catch (Exception e) {
+                if(run){
+                    logByListenerThread(LogLevel.ERROR, "Deal request error:%s", e.getMessage());
+                }
             }
+        }
+    }
 
-        } catch (Exception e) {
-            //if the server is stop, then do not log.
-            if(run){
-                e.printStackTrace();
-                logByListenerThread("Receive request error:" + e.getMessage());
-            }
+    /**
+     * answer the packet can not be parsed with the illegal operation error.
+     * @param reqSocket
+     * @param packet
+     */
+    private void sendMalformedErrPacket(DatagramEndpoint reqSocket, DatagramPacket packet){
+        ERRORPacket errPacket = new ERRORPacket((InetSocketAddress) packet.getSocketAddress(), TftpPacketConsts.ERRCODE_ILLOP, "Malformed request.");
+        metrics.onErrorSent(TftpPacketConsts.ERRCODE_ILLOP);
+        try{
+            reqSocket.send(errPacket.build());
+        }catch (IOException e){
+            logByListenerThread(LogLevel.WARN, "Send error packet error:%s", e.getMessage());
+        }
+    }
+
+    /**
+     * start the session if admitted, or reject it with the err packet.
+     * @param reqSocket the socket of listener.
+     * @param reqPacket
+     * @throws IOException
+     */
+    private void admit(DatagramEndpoint reqSocket, TftpPacket reqPacket) throws IOException {
+        long receiveNanos = System.nanoTime();
+        //the sessions of the last run release the table of their own.
+        SessionTable table = sessionTable;
+        SessionTable.SessionKey sessionKey = table.register((WRRQPacket) reqPacket);
+        if(sessionKey == null){
+            //the client resend the request, the session is running or waiting.
+            logByListenerThread(LogLevel.DEBUG, "Ignore duplicate request of %s", reqPacket.getAddress());
+            metrics.onDuplicateRequest();
+            return;
         }
 
+        AdmissionController controller = admissionController;
+        InetAddress client = reqPacket.getAddress().getAddress();
+        Runnable release = () -> {
+            table.remove(sessionKey);
+            controller.release(client);
+        };
+        boolean upload = reqPacket.getOpCode() == TftpPacketConsts.OP_WRQ;
+        boolean admitted = controller.submit(client, () -> {
+            //the waiting session may start after stop, give back the slot.
+            if(!run){
+                release.run();
+                return;
+            }
+            if(upload){
+                doUpload(reqPacket, receiveNanos, release);
+            }else{
+                doDownload(reqPacket, receiveNanos, release);
+            }
+        }, () -> table.remove(sessionKey));
+
+        if(!admitted){
+            table.remove(sessionKey);
+            logByListenerThread(LogLevel.WARN, "Reject request of %s, too many sessions.", client);
+            metrics.onAdmissionRejected();
+            sendAndLogErrPacket(reqSocket, reqPacket, TftpPacketConsts.ERRCODE_UNDEF, "Server busy, try later.");
+        }
     }
 
     /**
      * deal download.
      * @param reqPacket
+     * @param receiveNanos the time of the request received.
+     * @param release call when the session is ended.
      */
-    private void doDownload(TftpPacket reqPacket) {
+    private void doDownload(TftpPacket reqPacket, long receiveNanos, Runnable release) {
+        //the client ask multicast joins the group of the file, or fall back to unicast.
+        if(multicastService != null && multicastService.join((WRRQPacket) reqPacket, store, receiveNanos, release)){
+            return;
+        }
+        if(nioEngine != null){
+            nioEngine.submitDownload((WRRQPacket) reqPacket, receiveNanos, release);
+            return;
+        }
+
         threadpool.execute(()->{
-            try (DatagramSocket socket = new DatagramSocket()) {
-                logByHandlerThread(String.format("Download-Create another socket on port:<%s>", socket.getLocalPort()));
-                socket.setSoTimeout(HANDLER_RECEIVE_TIMEOUT);
+            long startNanos = System.nanoTime();
+            metrics.onSessionStart(startNanos - receiveNanos);
+            boolean finished = false;
+            try (DatagramEndpoint socket = transport.open()) {
+                logByHandlerThread(LogLevel.DEBUG, "Download-Create another socket on port:<%s>", socket.getLocalPort());
 
                 WRRQPacket wrrqPacket = (WRRQPacket)reqPacket;
                 String fileName = wrrqPacket.getFileName();
                 String mode = wrrqPacket.getMode();
-                logByHandlerThread(String.format("Download-WRQ-Receive:fileName<%s> mode<%s>", fileName, mode));
+                logByHandlerThread(LogLevel.INFO, "Download-WRQ-Receive:fileName<%s> mode<%s>", fileName, mode);
                 if(!TftpPacketConsts.MODE_OCTET.equals(mode)){
                     //only allow OCTET
                     sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_UNDEF, "Only allow octet.");
                     return;
                 }
+                TransferOptions options = TransferOptions.negotiate(wrrqPacket, maxBlockSize, maxWindowSize);
+                RetransmitTimer timer = retransmitPolicy.newTimer(options);
 
 
-                String targetPath = this.baseDir + File.separator + fileName;
-                logByHandlerThread(String.format("Download-Open file:%s", targetPath));
-                File file = new File(targetPath);
-                if(!file.exists()){
+                logByHandlerThread(LogLevel.DEBUG, "Download-Open file:%s", fileName);
+                StoredFile file;
+                try{
+                    file = store.open(fileName);
+                }catch (AccessDeniedException e){
+                    //the name is out of the base dir.
+                    logByHandlerThread(LogLevel.WARN, "Download-Access denied:%s", fileName);
+                    sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_ACCESS, "Access violation.");
+                    return;
+                }catch (IOException e){
+                    sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_ACCESS, "File open error.");
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+                if(file == null){
                     //File not found
                     sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_NOTFD, "File not found.");
                     return;
@@ -129,218 +500,496 @@ public class TftpServer {
 
                 byte[] buffer = new byte[BUFFER_MAX_LENGTH];
                 DatagramPacket responseDatagramPacket = new DatagramPacket(buffer, buffer.length);
+                PacketView responseView = new PacketView();
+
+                try(FileBlockReader blockReader = new FileBlockReader(file, options.getBlockSize(), blockCache)){
+                    options.acceptTransferSize(blockReader.length());
+                    if(options.hasAcceptedOptions()){
+                        //the client ack the OACK with block 0.
+                        OACKPacket oackPacket = TftpPacketFactory.buildOACKPacket(reqPacket, options.getAcceptedOptions());
+                        sendUntilAcked(socket, oackPacket, (short) 0, responseDatagramPacket, responseView, timer,
+                                String.format("Download-OACK-Send:options<%s>", oackPacket.getOptions()));
+                    }
 
-                try(BufferedInputStream bi = new BufferedInputStream(new FileInputStream(file))){
-                    DATAPacket dataPacket = TftpPacketFactory.buildDatapacket(reqPacket);
                     //start read the data from file.
-                    BooleanSupplier dataReader = dataPacket.readBlockData(bi);
-                    while(dataReader.getAsBoolean() && run){
-                        int retryCount = 0;
-                        while(true){
-                            //send data to client.
-                            logByHandlerThread(String.format("Download-DATA-Send:block<%s>", dataPacket.getBlockNum()));
+                    DATAPacket dataPacket = TftpPacketFactory.buildDatapacket(reqPacket, options.getBlockSize());
+                    DownloadWindow window = new DownloadWindow(blockReader.length(), options.getBlockSize(), options.getWindowSize(), blockRollover);
+                    boolean retransmit = false;
+                    while(!window.isFinished() && run){
+                        //send the blocks not acked to client, read by position so roll back is cheap.
+                        for (int i = 0; i < window.size(); i++) {
+                            long seq = window.getSeq(i);
+                            int length = blockReader.read(seq, window.toBlockNo(seq), dataPacket);
+                            if(isTraceEnabled()){
+                                logByHandlerThread(LogLevel.TRACE, "Download-DATA-Send:block<%s>", BlockNumber.toUnsigned(dataPacket.getBlockNum()));
+                            }
                             socket.send(dataPacket.build());
-                            //getResponse.
-                            try{
-                                while (true){
-                                    socket.receive(responseDatagramPacket);
-
-                                    TftpPacket response = TftpPacketFactory.buildTftpPacket(responseDatagramPacket);
-                                    if(response.getOpCode() != TftpPacketConsts.OP_ACK){
-                                        logByHandlerThread(String.format("Download-opcode error, cur:%s, expect:%s", response.getOpCode(), TftpPacketConsts.OP_ACK));
-                                        logByHandlerThread("Ignore err packet...");
-                                        continue;
-                                    }
-
-                                    short responseBlockNo = ((ACKPacket) response).getBlockNo();
-                                    logByHandlerThread(String.format("Download-ACK-Receive:blockNo<%s>", responseBlockNo));
-                                    if(responseBlockNo != dataPacket.getBlockNum()){
-                                        logByHandlerThread(String.format("Download-ACK error, cur:%s, expect:%s", responseBlockNo, dataPacket.getBlockNum()));
-                                        logByHandlerThread("Ignore err packet...");
-                                        continue;
-                                    }
-
-                                    break;
-                                }
+                            metrics.addBytesSent(length);
+                        }
+                        timer.onSend(System.currentTimeMillis(), retransmit);
 
-                            } catch (SocketTimeoutException e) {
-                                e.printStackTrace();
-                                retryCount = checkCanRetryBusinessErr(retryCount,"Download-Receive:timeout");
-                                continue;
+                        try{
+                            if(receiveWindowAck(socket, window, responseDatagramPacket, responseView, timer) > 0){
+                                timer.onAck(System.currentTimeMillis());
                             }
-
-                            //if no error happen, then do next
-                            break;
+                            retransmit = false;
+                        } catch (SocketTimeoutException e) {
+                            logByHandlerThread(LogLevel.TRACE, e, "Download-Receive:timeout");
+                            //roll back to the last acked block.
+                            checkCanRetryBusinessErr(timer,"Download-Receive:timeout");
+                            window.onTimeout();
+                            retransmit = true;
                         }
                     }
-                    logByHandlerThread("Download-Finish");
+                    finished = true;
+                    logByHandlerThread(LogLevel.INFO, "Download-Finish:srtt<%.1fms> rto<%sms> retransmit<%s>", timer.getSrtt(), timer.getTimeout(), timer.getRetransmitCount());
 
                 } catch (IOException e) {
-                    e.printStackTrace();
                     sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_ACCESS, "File open error.");
-                    throw new RuntimeException(e.getMessage());
+                    throw new RuntimeException(e.getMessage(), e);
                 }
             } catch (Exception e) {
                 if(run){
-                    e.printStackTrace();
-                    logByHandlerThread("Download-Error:" + e.getMessage());
+                    logByHandlerThread(LogLevel.ERROR, e, "Download-Error:%s", e.getMessage());
                 }
+            } finally {
+                metrics.onSessionEnd(false, System.nanoTime() - startNanos, finished);
+                release.run();
             }
         });
     }
 
+    /**
+     * send the packet to client until the client ack the block number.
+     * @param socket
+     * @param packet
+     * @param blockNo the block number expect to ack.
+     * @param responseDatagramPacket use to receive the response.
+     * @param responseView the view of the response.
+     * @param timer the retransmit timer of the session.
+     * @param sendLogMsg
+     * @throws IOException
+     */
+    private void sendUntilAcked(DatagramEndpoint socket, TftpPacket packet, short blockNo, DatagramPacket responseDatagramPacket, PacketView responseView, RetransmitTimer timer, String sendLogMsg) throws IOException {
+        boolean retransmit = false;
+        while(true){
+            logByHandlerThread(LogLevel.INFO, "%s", sendLogMsg);
+            socket.send(packet.build());
+            timer.onSend(System.currentTimeMillis(), retransmit);
+            //getResponse.
+            try{
+                while (true){
+                    PacketView response = receiveResponse(socket, responseDatagramPacket, responseView, timer);
+                    if(response.getOpCode() != TftpPacketConsts.OP_ACK){
+                        logByHandlerThread(LogLevel.DEBUG, "Download-opcode error, cur:%s, expect:%s", response.getOpCode(), TftpPacketConsts.OP_ACK);
+                        logByHandlerThread(LogLevel.DEBUG, "Ignore err packet...");
+                        continue;
+                    }
+
+                    short responseBlockNo = response.getBlockNo();
+                    logByHandlerThread(LogLevel.DEBUG, "Download-ACK-Receive:blockNo<%s>", BlockNumber.toUnsigned(responseBlockNo));
+                    if(responseBlockNo != blockNo){
+                        logByHandlerThread(LogLevel.DEBUG, "Download-ACK error, cur:%s, expect:%s", BlockNumber.toUnsigned(responseBlockNo), BlockNumber.toUnsigned(blockNo));
+                        logByHandlerThread(LogLevel.DEBUG, "Ignore err packet...");
+                        continue;
+                    }
+
+                    //if no error happen, then do next
+                    timer.onAck(System.currentTimeMillis());
+                    return;
+                }
+
+            } catch (SocketTimeoutException e) {
+                logByHandlerThread(LogLevel.TRACE, e, "Download-Receive:timeout");
+                checkCanRetryBusinessErr(timer,"Download-Receive:timeout");
+                retransmit = true;
+            }
+        }
+    }
+
+    /**
+     * receive the response from client and view it in place.
+     * the view and its buffer are reused by the next receive.
+     * @param socket
+     * @param responseDatagramPacket
+     * @param response the view of the session.
+     * @param timer only wait the remaining time of the retransmit timer.
+     * @return
+     * @throws IOException
+     */
+    private PacketView receiveResponse(DatagramEndpoint socket, DatagramPacket responseDatagramPacket, PacketView response, RetransmitTimer timer) throws IOException {
+        byte[] buffer = responseDatagramPacket.getData();
+        responseDatagramPacket.setLength(buffer.length);
+        socket.setSoTimeout(timer.getRemaining(System.currentTimeMillis()));
+        socket.receive(responseDatagramPacket);
+        response.wrap(buffer, responseDatagramPacket.getLength());
+
+        if(response.getOpCode() == TftpPacketConsts.OP_ERROR){
+            //the client stop the transfer, such as refuse the options.
+            throw new RuntimeException("Client error:" + response.getErrMsg());
+        }
+        return response;
+    }
+
+    /**
+     * receive the ack of the blocks in window.
+     * @param socket
+     * @param window
+     * @param responseDatagramPacket use to receive the response.
+     * @param responseView the view of the response.
+     * @param timer the retransmit timer of the session.
+     * @return the count of blocks newly acked, 0 means roll back.
+     * @throws IOException
+     */
+    private int receiveWindowAck(DatagramEndpoint socket, DownloadWindow window, DatagramPacket responseDatagramPacket, PacketView responseView, RetransmitTimer timer) throws IOException {
+        while (true){
+            PacketView response = receiveResponse(socket, responseDatagramPacket, responseView, timer);
+            if(response.getOpCode() != TftpPacketConsts.OP_ACK){
+                logByHandlerThread(LogLevel.DEBUG, "Download-opcode error, cur:%s, expect:%s", response.getOpCode(), TftpPacketConsts.OP_ACK);
+                logByHandlerThread(LogLevel.DEBUG, "Ignore err packet...");
+                continue;
+            }
+
+            short responseBlockNo = response.getBlockNo();
+            if(isTraceEnabled()){
+                logByHandlerThread(LogLevel.TRACE, "Download-ACK-Receive:blockNo<%s>", BlockNumber.toUnsigned(responseBlockNo));
+            }
+            int ackCount = window.ack(responseBlockNo);
+            if(ackCount < 0){
+                logByHandlerThread(LogLevel.DEBUG, "Download-ACK error, cur:%s, expect:%s", BlockNumber.toUnsigned(responseBlockNo), BlockNumber.toUnsigned(window.getLastBlockNo()));
+                logByHandlerThread(LogLevel.DEBUG, "Ignore err packet...");
+                continue;
+            }
+
+            if(ackCount == 0){
+                logByHandlerThread(LogLevel.DEBUG, "Download-Window roll back to block<%s>", BlockNumber.toUnsigned(responseBlockNo));
+            }
+            return ackCount;
+        }
+    }
+
     /**
      * Listener thread log
-     * @param msg
+     * @param level
+     * @param format
+     * @param arg0
+     */
+    private void logByListenerThread(LogLevel level, String format, Object arg0){
+        logger.log(level, LISTENER_THREAD, null, format, arg0);
+    }
+
+    private void logByListenerThread(LogLevel level, String format, Object arg0, Object arg1){
+        logger.log(level, LISTENER_THREAD, null, format, arg0, arg1);
+    }
+
+    /**
+     * handler thread log, the msg is formatted by the log thread.
+     * @param level
+     * @param format
      */
-    private void logByListenerThread(String msg){
-        logWithThreadInfo("ListenerThread", msg);
+    private void logByHandlerThread(LogLevel level, String format){
+        logger.log(level, HANDLER_THREAD, null, format);
+    }
+
+    private void logByHandlerThread(LogLevel level, String format, Object arg0){
+        logger.log(level, HANDLER_THREAD, null, format, arg0);
+    }
+
+    private void logByHandlerThread(LogLevel level, String format, Object arg0, Object arg1){
+        logger.log(level, HANDLER_THREAD, null, format, arg0, arg1);
+    }
+
+    private void logByHandlerThread(LogLevel level, String format, Object arg0, Object arg1, Object arg2){
+        logger.log(level, HANDLER_THREAD, null, format, arg0, arg1, arg2);
     }
 
     /**
-     * handler thread log
-     * @param msg
+     * handler thread log with the stack trace of the throwable.
+     * @param level
+     * @param thrown
+     * @param format
      */
-    private void logByHandlerThread(String msg){
-        logWithThreadInfo("HandlerThread", msg);
+    private void logByHandlerThread(LogLevel level, Throwable thrown, String format){
+        logger.log(level, HANDLER_THREAD, null, thrown, format);
+    }
+
+    private void logByHandlerThread(LogLevel level, Throwable thrown, String format, Object arg0){
+        logger.log(level, HANDLER_THREAD, null, thrown, format, arg0);
     }
 
     /**
-     * log msg with thread info
-     * @param threadName
+     * check the per block log is enabled, avoid box the block number if not.
+     * @return
+     */
+    private boolean isTraceEnabled(){
+        return logger.isEnabled(LogLevel.TRACE);
+    }
+
+    /**
+     * log the msg of server, without thread info.
+     * @param level
      * @param msg
      */
-    private void logWithThreadInfo(String threadName, String msg){
-        logger.accept(String.format("%s(%s): %s", threadName, Thread.currentThread().getName(), msg));
+    private void logByServer(LogLevel level, String msg){
+        logger.log(level, null, null, "%s", msg);
+    }
+
+    private void logByServer(LogLevel level, Throwable thrown, String msg){
+        logger.log(level, null, null, thrown, "%s", msg);
     }
 
     /**
      * deal upload.
      * @param reqPacket
+     * @param receiveNanos the time of the request received.
+     * @param release call when the session is ended.
      */
-    private void doUpload(TftpPacket reqPacket) {
+    private void doUpload(TftpPacket reqPacket, long receiveNanos, Runnable release) {
+        if(nioEngine != null){
+            nioEngine.submitUpload((WRRQPacket) reqPacket, receiveNanos, release);
+            return;
+        }
+
         threadpool.execute(()->{
-            try (DatagramSocket socket = new DatagramSocket()) {
-                logByHandlerThread(String.format("Upload-Create another socket on port:<%s>", socket.getLocalPort()));
-                socket.setSoTimeout(HANDLER_RECEIVE_TIMEOUT);
+            long startNanos = System.nanoTime();
+            metrics.onSessionStart(startNanos - receiveNanos);
+            boolean finished = false;
+            try (DatagramEndpoint socket = transport.open()) {
+                logByHandlerThread(LogLevel.DEBUG, "Upload-Create another socket on port:<%s>", socket.getLocalPort());
 
                 WRRQPacket wrrqPacket = (WRRQPacket)reqPacket;
                 String fileName = wrrqPacket.getFileName();
                 String mode = wrrqPacket.getMode();
-                logByHandlerThread(String.format("Upload-WRQ-Receive:fileName<%s> mode<%s>", fileName, mode));
+                logByHandlerThread(LogLevel.INFO, "Upload-WRQ-Receive:fileName<%s> mode<%s>", fileName, mode);
                 if(!TftpPacketConsts.MODE_OCTET.equals(mode)){
                     //only allow OCTET
                     sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_UNDEF, "Only allow octet.");
                     return;
                 }
+                TransferOptions options = TransferOptions.negotiate(wrrqPacket, maxBlockSize, maxWindowSize);
+                RetransmitTimer timer = retransmitPolicy.newTimer(options);
 
                 //save the file data.
-                String savePath = this.baseDir + File.separator + fileName;
-                logByHandlerThread(String.format("Upload-Start save file:%s", savePath));
+                logByHandlerThread(LogLevel.DEBUG, "Upload-Start save file:%s", fileName);
 
 
-                byte[] buffer = new byte[BUFFER_MAX_LENGTH];
+                //the data packet size is decided by the negotiated block size.
+                byte[] buffer = new byte[options.getBlockSize() + 4];
                 DatagramPacket responseDatagramPacket = new DatagramPacket(buffer, buffer.length);
+                PacketView responseView = new PacketView();
 
-                File saveFile = new File(savePath);
-                try(BufferedOutputStream bo = new BufferedOutputStream(new FileOutputStream(saveFile))){
-                    short blockNum = 1;
+                try(WriteSession sink = store.create(fileName, options.getTransferSize())){
+                    //the seq of block expect to receive, changed to the block number by the rollover of client.
+                    long seq = 1;
+                    int rollover = blockRollover;
                     ACKPacket ackPacket = TftpPacketFactory.buildACKPacket(wrrqPacket, (short) 0);
+                    //if accept options, answer the OACK instead of ACK 0.
+                    TftpPacket replyPacket = ackPacket;
+                    if(options.hasAcceptedOptions()){
+                        replyPacket = TftpPacketFactory.buildOACKPacket(wrrqPacket, options.getAcceptedOptions());
+                    }
 
                     boolean isFinish = false;
+                    //the count of blocks received since last ack.
+                    int windowCount = 0;
+                    //the roll back ack is sent for the lost block.
+                    boolean rollbackAcked = false;
 
-                    int retryCounter = 0;
+                    boolean retransmit = false;
                     while (run){
                         //send ack to client
-                        logByHandlerThread(String.format("Upload-ACK-Send:blockNo<%s>", ackPacket.getBlockNo()));
-                        socket.send(ackPacket.build());
+                        if(replyPacket == ackPacket){
+                            if(isTraceEnabled()){
+                                logByHandlerThread(LogLevel.TRACE, "Upload-ACK-Send:blockNo<%s>", BlockNumber.toUnsigned(ackPacket.getBlockNo()));
+                            }
+                        }else{
+                            logByHandlerThread(LogLevel.INFO, "Upload-OACK-Send:options<%s>", options.getAcceptedOptions());
+                        }
                         if(isFinish){
+                            //ack the last block after the file is written and replaced.
+                            awaitFinish(sink);
+                            invalidateCache(sink);
+                            socket.send(replyPacket.build());
+                            dally(socket, ackPacket, responseDatagramPacket, responseView, timer.getTimeout());
                             break;
                         }
+                        socket.send(replyPacket.build());
+                        timer.onSend(System.currentTimeMillis(), retransmit);
+                        retransmit = false;
 
 
                         try{
                             while(run){
                                 //receive file data form client.
-                                socket.receive(responseDatagramPacket);
-                                TftpPacket reponsePacket = TftpPacketFactory.buildTftpPacket(responseDatagramPacket);
+                                PacketView dataPacket = receiveResponse(socket, responseDatagramPacket, responseView, timer);
                                 //op err.
-                                if(reponsePacket.getOpCode() != TftpPacketConsts.OP_DATA){
-                                    logByHandlerThread(String.format("Upload-opcode error, cur:%s, expect:%s", reponsePacket.getOpCode(), TftpPacketConsts.OP_DATA));
-                                    logByHandlerThread("Ignore err packet...");
+                                if(dataPacket.getOpCode() != TftpPacketConsts.OP_DATA){
+                                    logByHandlerThread(LogLevel.DEBUG, "Upload-opcode error, cur:%s, expect:%s", dataPacket.getOpCode(), TftpPacketConsts.OP_DATA);
+                                    logByHandlerThread(LogLevel.DEBUG, "Ignore err packet...");
                                     continue;
                                 }
 
-                                DATAPacket dataPacket = (DATAPacket)reponsePacket;
-                                logByHandlerThread(String.format("Upload-DATA-Receive:blockNo<%s>", dataPacket.getBlockNum()));
-                                if(blockNum != dataPacket.getBlockNum()){
-                                    logByHandlerThread(String.format("Upload-blockNo error, cur:%s, expect:%s", dataPacket.getBlockNum(), blockNum));
-                                    logByHandlerThread("Ignore err packet...");
+                                short receiveBlockNo = dataPacket.getBlockNo();
+                                if(isTraceEnabled()){
+                                    logByHandlerThread(LogLevel.TRACE, "Upload-DATA-Receive:blockNo<%s>", BlockNumber.toUnsigned(receiveBlockNo));
+                                }
+                                rollover = BlockNumber.detectRollover(seq, receiveBlockNo, rollover);
+                                short blockNum = BlockNumber.fromSeq(seq, rollover);
+                                if(blockNum != receiveBlockNo){
+                                    logByHandlerThread(LogLevel.DEBUG, "Upload-blockNo error, cur:%s, expect:%s", BlockNumber.toUnsigned(receiveBlockNo), BlockNumber.toUnsigned(blockNum));
+                                    if(options.getWindowSize() > 1 && !rollbackAcked){
+                                        //with windowsize, ack the last good block once to let client roll back.
+                                        rollbackAcked = true;
+                                        windowCount = 0;
+                                        break;
+                                    }
+                                    logByHandlerThread(LogLevel.DEBUG, "Ignore err packet...");
                                     continue;
                                 }
 
-                                //save data to file.
-                                dataPacket.writeBlockData(bo);
-                                if(dataPacket.isLast()){
+                                //hand the data to the writer, wait the buffer until the client may retransmit.
+                                if(!sink.write(dataPacket.getData(), timer.getRemaining(System.currentTimeMillis()))){
+                                    logByHandlerThread(LogLevel.DEBUG, "Upload-Writer busy, drop block<%s>", BlockNumber.toUnsigned(receiveBlockNo));
+                                    continue;
+                                }
+                                metrics.addBytesReceived(dataPacket.getDataLength());
+                                if(dataPacket.isLast(options.getBlockSize())){
                                     isFinish = true;
                                 }
 
-                                break;
+                                rollbackAcked = false;
+                                if(windowCount == 0){
+                                    //the first block after ack, sample the rtt.
+                                    timer.onAck(System.currentTimeMillis());
+                                }else{
+                                    timer.onProgress(System.currentTimeMillis());
+                                }
+                                //reset the block number.
+                                ackPacket.resetBlockNo(blockNum);
+                                replyPacket = ackPacket;
+                                ++seq;
+
+                                //only ack every window or the last block.
+                                ++windowCount;
+                                if(isFinish || windowCount >= options.getWindowSize()){
+                                    windowCount = 0;
+                                    break;
+                                }
                             }
                         }catch (SocketTimeoutException e){
-                            retryCounter = checkCanRetryBusinessErr(retryCounter,"Upload-Receive:timeout");
-                            continue;
+                            windowCount = 0;
+                            checkCanRetryBusinessErr(timer,"Upload-Receive:timeout");
+                            retransmit = true;
                         }
-
-                        retryCounter = 0;
-                        //reset the block number.
-                        ackPacket.resetBlockNo(blockNum);
-
-                        ++blockNum;
-                        if(blockNum >= Short.MAX_VALUE){
-                            blockNum = 1;
-                        }
-
                     }
 
-                    bo.flush();
-                    logByHandlerThread("Upload-Finish");
+                    finished = true;
+                    logByHandlerThread(LogLevel.INFO, "Upload-Finish:srtt<%.1fms> rto<%sms> retransmit<%s>", timer.getSrtt(), timer.getTimeout(), timer.getRetransmitCount());
+                } catch (QuotaExceededException e) {
+                    //the announced size or the data received is over the quota.
+                    sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_DISKFULL, "Disk full or allocation exceeded.");
+                    throw new RuntimeException(e.getMessage());
+                } catch (AccessDeniedException e) {
+                    //the name is out of the base dir.
+                    logByHandlerThread(LogLevel.WARN, "Upload-Access denied:%s", fileName);
+                    sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_ACCESS, "Access violation.");
                 } catch (IOException e) {
-                    e.printStackTrace();
                     sendAndLogErrPacket(socket, reqPacket, TftpPacketConsts.ERRCODE_ACCESS, "File open error.");
-                    throw new RuntimeException(e.getMessage());
+                    throw new RuntimeException(e.getMessage(), e);
                 }
             } catch (Exception e) {
                 if(run){
-                    e.printStackTrace();
-                    logByHandlerThread("Upload-Error:" + e.getMessage());
+                    logByHandlerThread(LogLevel.ERROR, e, "Upload-Error:%s", e.getMessage());
                 }
+            } finally {
+                metrics.onSessionEnd(true, System.nanoTime() - startNanos, finished);
+                release.run();
             }
         });
 
     }
 
     /**
-     * check retry count and log.
-     * @param retryCounter
+     * keep the session one retransmit period after the last ack,
+     * the client resend the last block if the ack is lost, answer it by the ack again.
+     * @param socket
+     * @param ackPacket the ack of the last block.
+     * @param responseDatagramPacket
+     * @param responseView
+     * @param period ms.
+     */
+    private void dally(DatagramEndpoint socket, ACKPacket ackPacket, DatagramPacket responseDatagramPacket, PacketView responseView, int period){
+        byte[] buffer = responseDatagramPacket.getData();
+        long deadline = System.currentTimeMillis() + period;
+        try{
+            long remaining;
+            while (run && (remaining = deadline - System.currentTimeMillis()) > 0){
+                responseDatagramPacket.setLength(buffer.length);
+                socket.setSoTimeout((int) remaining);
+                socket.receive(responseDatagramPacket);
+                responseView.wrap(buffer, responseDatagramPacket.getLength());
+                if(responseView.getOpCode() == TftpPacketConsts.OP_DATA && responseView.getBlockNo() == ackPacket.getBlockNo()){
+                    logByHandlerThread(LogLevel.DEBUG, "Upload-Last block again, ack<%s>", BlockNumber.toUnsigned(ackPacket.getBlockNo()));
+                    socket.send(ackPacket.build());
+                }
+            }
+        }catch (SocketTimeoutException e){
+            //the client has the last ack.
+        }catch (IOException e){
+            logByHandlerThread(LogLevel.DEBUG, "Upload-Dally error:%s", e.getMessage());
+        }
+    }
+
+    /**
+     * wait the rest data of upload is written and forced.
+     * @param sink
+     * @throws IOException
+     */
+    private void awaitFinish(WriteSession sink) throws IOException {
+        try{
+            sink.commit().get(UPLOAD_FINISH_TIMEOUT, TimeUnit.MILLISECONDS);
+        }catch (ExecutionException e){
+            throw new IOException("Write file error:" + e.getCause().getMessage(), e.getCause());
+        }catch (TimeoutException e){
+            throw new IOException("Write file timeout.", e);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Write file interrupted.");
+        }
+    }
+
+    /**
+     * drop the cached blocks of the file replaced by upload.
+     * @param sink
+     */
+    private void invalidateCache(WriteSession sink) {
+        BlockCache cache = blockCache;
+        if(cache != null && sink.getKey() != null){
+            cache.invalidate(sink.getKey());
+        }
+    }
+
+    /**
+     * check the timer can retry or not, back off the timeout and log.
+     * @param timer
      * @param errMsg
-     * @return
      * @throws IOException
      */
-    private int checkCanRetryBusinessErr(int retryCounter, String errMsg) throws IOException {
-        if(retryCounter >= RETRY_TIME){
+    private void checkCanRetryBusinessErr(RetransmitTimer timer, String errMsg) throws IOException {
+        if(timer.isGiveUp(System.currentTimeMillis())){
             throw new RuntimeException(errMsg);
         }
 
-        logByHandlerThread(errMsg);
-        ++retryCounter;
-        logByHandlerThread(String.format("Retrying:retry count:%s...", retryCounter));
-        return retryCounter;
+        logByHandlerThread(LogLevel.DEBUG, "%s", errMsg);
+        timer.onTimeout();
+        logByHandlerThread(LogLevel.DEBUG, "Retrying:retry count:%s timeout:%sms...", timer.getBackoff(), timer.getTimeout());
     }
 
-    private ERRORPacket sendAndLogErrPacket(DatagramSocket socket, TftpPacket reponsePacket, short errCode, String errMsg) throws IOException {
+
+    private ERRORPacket sendAndLogErrPacket(DatagramEndpoint socket, TftpPacket reponsePacket, short errCode, String errMsg) throws IOException {
         ERRORPacket errPacket = TftpPacketFactory.buildERRORpacket(reponsePacket, errCode, errMsg);
-        logByHandlerThread(String.format("ERROR-Send:ErrCode<%s> ErrMsg<%s>", errPacket.getErrCode(), errPacket.getErrMsg()));
+        metrics.onErrorSent(errCode);
+        logByHandlerThread(LogLevel.WARN, "ERROR-Send:ErrCode<%s> ErrMsg<%s>", errPacket.getErrCode(), errPacket.getErrMsg());
         socket.send(errPacket.build());
         return errPacket;
     }
@@ -350,11 +999,163 @@ public class TftpServer {
      * start the server.
      */
     public void start(){
+        if(logger.isClosed()){
+            logger = new AsyncLogger(logSink, LOG_CAPACITY, logger.getLevel());
+        }
         run = true;
-        threadpool = Executors.newCachedThreadPool();
+        sessionTable = new SessionTable();
+        admissionController = new AdmissionController(maxSessions, maxSessionsPerClient, maxPendingSessions, maxReceiveTimeout);
+        retransmitPolicy = new RetransmitPolicy(INITIAL_RECEIVE_TIMEOUT, minReceiveTimeout, maxReceiveTimeout, RETRY_TIME, metrics);
+        uploadWriter = new UploadWriter(uploadWriterThreads, uploadBufferSize, fsyncPolicy, maxUploadSize, logger);
+        store = createStore();
+        blockCache = blockCacheSize > 0 ? new BlockCache(blockCacheSize) : null;
+        if(metricsPort > 0){
+            try{
+                metricsHttpServer = new MetricsHttpServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), metricsPort), metrics.getRegistry());
+                metricsHttpServer.start();
+            }catch (IOException e){
+                logByServer(LogLevel.ERROR, e, "Start metrics server error:" + e.getMessage());
+            }
+        }
+        if(engineType == TransferEngineType.NIO){
+            try{
+                nioEngine = new NioTransferEngine(eventLoopCount, maxBlockSize, maxWindowSize, retransmitPolicy, metrics, logger);
+                nioEngine.setBlockCache(blockCache);
+                nioEngine.setStore(store);
+                nioEngine.setBlockRollover(blockRollover);
+                nioEngine.start();
+            }catch (IOException e){
+                logByServer(LogLevel.ERROR, e, "Start nio engine error:" + e.getMessage());
+                nioEngine = null;
+            }
+        }
+        threadpool = createThreadpool();
+        if(multicastAddress != null){
+            try{
+                multicastService = createMulticastService();
+            }catch (IOException | IllegalArgumentException e){
+                logByServer(LogLevel.ERROR, e, "Start multicast error:" + e.getMessage());
+            }
+        }
         //start receive the request.
-        threadpool.execute(this::receiveRequest);
-        logger.accept("Server started");
+        try{
+            reqChannels = openListenerChannels();
+            for (DatagramChannel channel : reqChannels) {
+                threadpool.execute(() -> receiveRequest(transport.wrap(channel.socket())));
+            }
+        }catch (IOException e){
+            logByServer(LogLevel.ERROR, e, "Receive request error:" + e.getMessage());
+        }
+        logByServer(LogLevel.INFO, "Server started");
+    }
+
+    /**
+     * open the channels of listeners on the port.
+     * more than one are bound with SO_REUSEPORT, so the kernel spread the requests by the client address.
+     * @return
+     * @throws IOException
+     */
+    private DatagramChannel[] openListenerChannels() throws IOException {
+        int count = Math.max(1, listenerCount);
+        if(count > 1){
+            try (DatagramChannel probe = DatagramChannel.open()) {
+                if(!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)){
+                    logByServer(LogLevel.WARN, "SO_REUSEPORT is not supported, use one listener.");
+                    count = 1;
+                }
+            }
+        }
+
+        DatagramChannel[] channels = new DatagramChannel[count];
+        try{
+            for (int i = 0; i < count; i++) {
+                channels[i] = DatagramChannel.open();
+                if(count > 1){
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channels[i].bind(new InetSocketAddress(port));
+            }
+        }catch (IOException e){
+            closeChannels(channels);
+            throw e;
+        }
+        return channels;
+    }
+
+    private void closeChannels(DatagramChannel[] channels){
+        for (DatagramChannel channel : channels) {
+            if(channel == null){
+                continue;
+            }
+            try{
+                channel.close();
+            }catch (IOException e){
+                logByServer(LogLevel.ERROR, e, "Stop error:" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * create the store of the storage type, serve the base dir if the store can not open.
+     * @return
+     */
+    private FileStore createStore(){
+        try{
+            switch (storageType){
+                case MEMORY:
+                    //never unlimited, the uploads over the budget are rejected by disk full.
+                    MemoryStore memoryStore = new MemoryStore(memoryStoreSize > 0 ? memoryStoreSize : MemoryStore.defaultMaxBytes(), maxUploadSize);
+                    int count = memoryStore.load(Paths.get(baseDir));
+                    logByServer(LogLevel.INFO, String.format("Load %s files into memory, %s bytes", count, memoryStore.getUsedBytes()));
+                    return memoryStore;
+                case CONTENT_ADDRESSED:
+                    return new ContentAddressedStore(storageDir != null ? Paths.get(storageDir)
+                            : Paths.get(baseDir, ContentAddressedStore.DEFAULT_DIR_NAME), uploadWriter);
+                default:
+                    break;
+            }
+        }catch (IOException e){
+            logByServer(LogLevel.ERROR, e, "Open storage error:" + e.getMessage() + ", serve the base dir.");
+        }
+        return new FileSystemStore(baseDir, uploadWriter, pathCacheSize);
+    }
+
+    /**
+     * create the multicast service, the groups run on the threadpool.
+     * @return
+     * @throws IOException
+     */
+    private MulticastService createMulticastService() throws IOException {
+        MulticastService service = new MulticastService(InetAddress.getByName(multicastAddress), multicastPort, multicastGroups,
+                maxBlockSize, retransmitPolicy, metrics, logger, threadpool);
+        if(multicastInterface != null){
+            NetworkInterface networkInterface = NetworkInterface.getByName(multicastInterface);
+            if(networkInterface == null){
+                throw new IOException("Network interface not found:" + multicastInterface);
+            }
+            service.setNetworkInterface(networkInterface);
+        }
+        service.setTtl(multicastTtl);
+        service.setBlockCache(blockCache);
+        service.setBlockRollover(blockRollover);
+        return service;
+    }
+
+    /**
+     * create the threadpool by the executor type.
+     * @return
+     */
+    private ExecutorService createThreadpool(){
+        if(executorType == HandlerExecutorType.VIRTUAL_THREAD){
+            try{
+                //look up by reflection, so the server still runs on the JDK without virtual thread.
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            }catch (ReflectiveOperationException e){
+                logByServer(LogLevel.WARN, "Virtual thread is not supported, use cached thread pool.");
+            }
+        }
+        return Executors.newCachedThreadPool();
     }
 
     /**
@@ -371,29 +1172,53 @@ public class TftpServer {
     public void stop(){
         run = false;
 
+        //the group threads release the clients and exit.
+        if(multicastService != null){
+            multicastService.stop();
+            multicastService = null;
+        }
+
         //stop the threadpool.
         if(threadpool != null){
             try{
                 threadpool.shutdownNow();
                 threadpool = null;
             }catch (Exception e){
-                e.printStackTrace();
-                logger.accept("Stop error:" + e.getMessage());
+                logByServer(LogLevel.ERROR, e, "Stop error:" + e.getMessage());
             }
         }
 
-        //close the reqsocket.
-        if(reqSocket != null){
-            try{
-                reqSocket.close();
-                reqSocket = null;
-            }catch (Exception e){
-                e.printStackTrace();
-                logger.accept("Stop error:" + e.getMessage());
-            }
+        //stop the event loops.
+        if(nioEngine != null){
+            nioEngine.stop();
+            nioEngine = null;
+        }
+
+        if(metricsHttpServer != null){
+            metricsHttpServer.stop();
+            metricsHttpServer = null;
+        }
+
+        //close the req channels.
+        if(reqChannels != null){
+            closeChannels(reqChannels);
+            reqChannels = null;
         }
 
-        logger.accept("Server stop");
+        //stop watching the files.
+        if(store != null){
+            store.close();
+        }
+
+        //write the rest data of uploads.
+        if(uploadWriter != null){
+            uploadWriter.stop();
+            uploadWriter = null;
+        }
+
+        logByServer(LogLevel.INFO, "Server stop");
+        //write the rest log and stop the log thread.
+        logger.close();
     }
 
     /**
@@ -404,4 +1229,234 @@ public class TftpServer {
         this.baseDir = baseDir;
     }
 
+    /**
+     * set the engine to run the transfers, take effect on next start.
+     * @param engineType
+     */
+    public void setEngineType(TransferEngineType engineType) {
+        this.engineType = engineType;
+    }
+
+    /**
+     * set the transport of the listener and the blocking handlers, take effect on next start.
+     * the nio sessions and the multicast groups use their own channels and sockets.
+     * @param transport
+     */
+    public void setTransport(DatagramTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * set the executor to run the blocking handlers, take effect on next start.
+     * @param executorType
+     */
+    public void setExecutorType(HandlerExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    /**
+     * set the port for receive request, take effect on next start.
+     * @param port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * set the count of listeners, more than one are bound with SO_REUSEPORT, take effect on next start.
+     * note other process of the same user can bind the port too when SO_REUSEPORT is used.
+     * @param listenerCount
+     */
+    public void setListenerCount(int listenerCount) {
+        this.listenerCount = listenerCount;
+    }
+
+    /**
+     * set the limits of sessions, 0 means no limit, take effect on next start.
+     * the requests over the max sessions wait in the queue, and are rejected with the err packet when it is full.
+     * @param maxSessions the max sessions running.
+     * @param maxSessionsPerClient the max sessions running or waiting of one client address.
+     * @param maxPendingSessions the max requests waiting.
+     */
+    public void setSessionLimits(int maxSessions, int maxSessionsPerClient, int maxPendingSessions) {
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerClient = maxSessionsPerClient;
+        this.maxPendingSessions = maxPendingSessions;
+    }
+
+    /**
+     * set the max block size allow to negotiate by blksize option.
+     * @param maxBlockSize
+     */
+    public void setMaxBlockSize(int maxBlockSize) {
+        this.maxBlockSize = Math.max(TftpPacketConsts.MIN_BLKSIZE, Math.min(maxBlockSize, TftpPacketConsts.MAX_BLKSIZE));
+    }
+
+    /**
+     * set the max window size allow to negotiate by windowsize option.
+     * @param maxWindowSize
+     */
+    public void setMaxWindowSize(int maxWindowSize) {
+        this.maxWindowSize = Math.max(1, Math.min(maxWindowSize, TftpPacketConsts.MAX_WINDOWSIZE));
+    }
+
+    /**
+     * set the bounds of the adaptive retransmit timeout, take effect on next start.
+     * @param minReceiveTimeout ms
+     * @param maxReceiveTimeout ms
+     */
+    public void setRetransmitTimeout(int minReceiveTimeout, int maxReceiveTimeout) {
+        this.minReceiveTimeout = minReceiveTimeout;
+        this.maxReceiveTimeout = maxReceiveTimeout;
+    }
+
+    /**
+     * set the write-behind stage of uploads, take effect on next start.
+     * the block is acked when it is buffered, the last block is acked after the file is written and forced by the policy.
+     * @param writerThreads the count of writer threads.
+     * @param bufferSize the max bytes received but not written of all uploads.
+     * @param fsyncPolicy
+     */
+    public void setUploadWriter(int writerThreads, long bufferSize, FsyncPolicy fsyncPolicy) {
+        this.uploadWriterThreads = writerThreads;
+        this.uploadBufferSize = bufferSize;
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * set the max bytes of one uploaded file, 0 means no limit, take effect on next start.
+     * the upload is rejected with the disk full error if the tsize option or the data received is over it.
+     * @param maxUploadSize
+     */
+    public void setMaxUploadSize(long maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+    }
+
+    /**
+     * set the block number after 65535, take effect on next start.
+     * the uploads follow the client if it rolls over to the other number.
+     * @param blockRollover 0 or 1.
+     */
+    public void setBlockRollover(int blockRollover) {
+        if(!BlockNumber.isValidRollover(blockRollover)){
+            throw new IllegalArgumentException("Block rollover must be 0 or 1:" + blockRollover);
+        }
+        this.blockRollover = blockRollover;
+    }
+
+    /**
+     * enable the multicast download of RFC 2090, take effect on next start.
+     * the clients ask the same file with the multicast option share one group, each group use its own port.
+     * @param address the multicast address, null to disable.
+     * @param basePort the port of the first group.
+     * @param maxGroups the max groups running, the request over it is served by unicast.
+     */
+    public void setMulticast(String address, int basePort, int maxGroups) {
+        this.multicastAddress = address;
+        this.multicastPort = basePort;
+        this.multicastGroups = maxGroups;
+    }
+
+    /**
+     * set the interface and ttl to send the multicast, take effect on next start.
+     * @param interfaceName such as "lo" for test on loopback, null to use the default route.
+     * @param ttl 1 keeps the DATA in the local network.
+     */
+    public void setMulticastInterface(String interfaceName, int ttl) {
+        this.multicastInterface = interfaceName;
+        this.multicastTtl = ttl;
+    }
+
+    /**
+     * set the storage of the files, take effect on next start.
+     * @param storageType
+     * @param storageDir the root dir of the content addressed store, null to use the hidden dir under the base dir.
+     * @param memoryStoreSize the max bytes of the memory store, 0 to use a quarter of the max heap.
+     */
+    public void setStorage(StorageType storageType, String storageDir, long memoryStoreSize) {
+        this.storageType = storageType;
+        this.storageDir = storageDir;
+        this.memoryStoreSize = memoryStoreSize;
+    }
+
+    /**
+     * set the max files of the cached metadata of the file system store, take effect on next start.
+     * @param pathCacheSize 0 to read the metadata by every request.
+     */
+    public void setPathCacheSize(int pathCacheSize) {
+        this.pathCacheSize = pathCacheSize;
+    }
+
+    /**
+     * get the store of the files, such as to preload the memory store or read the dedup counters.
+     * @return null if not started.
+     */
+    public FileStore getStore() {
+        return store;
+    }
+
+    /**
+     * set the memory budget of the block cache, 0 to disable, take effect on next start.
+     * @param maxBytes
+     */
+    public void setBlockCacheSize(long maxBytes) {
+        this.blockCacheSize = maxBytes;
+    }
+
+    /**
+     * get the block cache, use to read the hit/miss/eviction counters.
+     * @return null if disabled or not started.
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * set the registry of metrics, take effect on next start.
+     * @param registry
+     */
+    public void setMetricsRegistry(MetricsRegistry registry) {
+        this.metrics = new TransferMetrics(registry);
+    }
+
+    /**
+     * get the metrics of listener and transfers.
+     * @return
+     */
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * set the port of the http /metrics endpoint on loopback, 0 to disable, take effect on next start.
+     * @param metricsPort
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * set the level of log, the per block events are logged at TRACE.
+     * @param level
+     */
+    public void setLogLevel(LogLevel level) {
+        logger.setLevel(level);
+    }
+
+    /**
+     * get the count of log events dropped because the log thread can not keep up.
+     * @return
+     */
+    public long getLogDropCount() {
+        return logger.getDropCount();
+    }
+
+    /**
+     * set the count of event loop threads for nio engine.
+     * @param eventLoopCount
+     */
+    public void setEventLoopCount(int eventLoopCount) {
+        this.eventLoopCount = eventLoopCount;
+    }
+
 }
@@ -0,0 +1,16 @@
+package network;
+
+/**
+ * the engine used to run the transfers.
+ */
+public enum TransferEngineType {
+    /**
+     * every transfer runs on its own thread with a blocking socket.
+     */
+    BLOCKING,
+
+    /**
+     * all transfers are multiplexed by a few nio event loop threads.
+     */
+    NIO
+}
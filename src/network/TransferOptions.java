@@ -0,0 +1,186 @@
+package network;
+
+import network.packet.TftpPacketConsts;
+import network.packet.WRRQPacket;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * the options negotiated for one transfer.
+ */
+public class TransferOptions {
+
+    /**
+     * the byte count of data block.
+     */
+    private int blockSize = TftpPacketConsts.DEFAULT_BLKSIZE;
+
+    /**
+     * the count of blocks sent before wait the ack.
+     */
+    private int windowSize = 1;
+
+    /**
+     * the timeout in ms asked by client, 0 means adaptive.
+     */
+    private int timeout;
+
+    /**
+     * the byte count of file, announced by client on WRQ or the file length on RRQ, -1 if unknown.
+     */
+    private long transferSize = -1;
+
+    /**
+     * the client ask the size of file on RRQ.
+     */
+    private boolean transferSizeRequested;
+
+    /**
+     * the options accepted by server, need to send back with OACK.
+     */
+    private final Map<String, String> acceptedOptions = new LinkedHashMap<>();
+
+    private TransferOptions() {
+    }
+
+    /**
+     * negotiate the options requested by client, unknown or invalid options are ignored.
+     * @param reqPacket
+     * @param maxBlockSize the max block size server allow.
+     * @param maxWindowSize the max window size server allow.
+     * @return
+     */
+    public static TransferOptions negotiate(WRRQPacket reqPacket, int maxBlockSize, int maxWindowSize) {
+        TransferOptions transferOptions = new TransferOptions();
+        Map<String, String> options = reqPacket.getOptions();
+
+        Integer blockSize = parseInt(options.get(TftpPacketConsts.OPTION_BLKSIZE));
+        if(blockSize != null && blockSize >= TftpPacketConsts.MIN_BLKSIZE){
+            //the server may answer a smaller size than requested.
+            transferOptions.blockSize = Math.min(blockSize, maxBlockSize);
+            transferOptions.acceptedOptions.put(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(transferOptions.blockSize));
+        }
+
+        Integer windowSize = parseInt(options.get(TftpPacketConsts.OPTION_WINDOWSIZE));
+        if(windowSize != null && windowSize >= 1 && windowSize <= TftpPacketConsts.MAX_WINDOWSIZE){
+            transferOptions.windowSize = Math.min(windowSize, maxWindowSize);
+            transferOptions.acceptedOptions.put(TftpPacketConsts.OPTION_WINDOWSIZE, String.valueOf(transferOptions.windowSize));
+        }
+
+        Integer timeout = parseInt(options.get(TftpPacketConsts.OPTION_TIMEOUT));
+        if(timeout != null && timeout >= 1 && timeout <= TftpPacketConsts.MAX_TIMEOUT){
+            transferOptions.timeout = timeout * 1000;
+            transferOptions.acceptedOptions.put(TftpPacketConsts.OPTION_TIMEOUT, String.valueOf(timeout));
+        }
+
+        String tsize = options.get(TftpPacketConsts.OPTION_TSIZE);
+        if(tsize != null){
+            if(reqPacket.getOpCode() == TftpPacketConsts.OP_RRQ){
+                //answer the file length after the file is opened.
+                transferOptions.transferSizeRequested = true;
+            }else{
+                Long transferSize = parseLong(tsize);
+                if(transferSize != null && transferSize >= 0){
+                    transferOptions.transferSize = transferSize;
+                    transferOptions.acceptedOptions.put(TftpPacketConsts.OPTION_TSIZE, String.valueOf(transferSize));
+                }
+            }
+        }
+
+        return transferOptions;
+    }
+
+    /**
+     * answer the file length of download if the client ask tsize.
+     * @param fileLength
+     */
+    public void acceptTransferSize(long fileLength) {
+        if(transferSizeRequested){
+            transferSize = fileLength;
+            acceptedOptions.put(TftpPacketConsts.OPTION_TSIZE, String.valueOf(fileLength));
+        }
+    }
+
+    /**
+     * check the client ask the multicast download of RFC 2090.
+     * @param reqPacket
+     * @return
+     */
+    public static boolean isMulticastRequested(WRRQPacket reqPacket) {
+        return reqPacket.getOpCode() == TftpPacketConsts.OP_RRQ
+                && reqPacket.getOptions().containsKey(TftpPacketConsts.OPTION_MULTICAST);
+    }
+
+    /**
+     * answer the multicast option, the window size is not accepted because only the master client acks.
+     * @param value the group address, port and master flag, such as "239.255.0.1,1758,1".
+     */
+    public void acceptMulticast(String value) {
+        windowSize = 1;
+        acceptedOptions.remove(TftpPacketConsts.OPTION_WINDOWSIZE);
+        acceptedOptions.put(TftpPacketConsts.OPTION_MULTICAST, value);
+    }
+
+    /**
+     * parse the option value.
+     * @param value
+     * @return null if value is not a number.
+     */
+    private static Integer parseInt(String value) {
+        if(value == null){
+            return null;
+        }
+
+        try{
+            return Integer.valueOf(value.trim());
+        }catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    private static Long parseLong(String value) {
+        try{
+            return Long.valueOf(value.trim());
+        }catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * get the timeout asked by client.
+     * @return ms, 0 means adaptive.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * get the byte count of file.
+     * @return -1 if unknown.
+     */
+    public long getTransferSize() {
+        return transferSize;
+    }
+
+    /**
+     * check need to send OACK or not.
+     * @return
+     */
+    public boolean hasAcceptedOptions() {
+        return !acceptedOptions.isEmpty();
+    }
+
+    public Map<String, String> getAcceptedOptions() {
+        return Collections.unmodifiableMap(acceptedOptions);
+    }
+}
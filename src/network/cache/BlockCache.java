@@ -0,0 +1,291 @@
+package network.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the server wide cache of file blocks, shared by all the downloads.
+ * the blocks are evicted by LRU when the memory budget is used up.
+ */
+public class BlockCache {
+
+    /**
+     * the count of segments, each segment has its own lock and LRU list.
+     */
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * the max files whose version is kept, the versions are dropped at once beyond it.
+     * the blocks of a changed file are still never hit by the new version, only evicted later by LRU.
+     */
+    private static final int MAX_FILE_VERSIONS = 64 * 1024;
+
+    private final Segment[] segments;
+
+    /**
+     * the version of file last seen, use to find the file is changed.
+     */
+    private final Map<String, FileVersion> fileVersions = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * @param maxBytes the memory budget of the block datas.
+     */
+    public BlockCache(long maxBytes) {
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENT_COUNT);
+        }
+    }
+
+    /**
+     * open the view of file blocks, the blocks of old version are dropped if the file is changed.
+     * @param path the key of the file in its store, such as the canonical path.
+     * @param lastModified
+     * @param length
+     * @param blockSize
+     * @return
+     */
+    public FileView open(String path, long lastModified, long length, int blockSize) {
+        FileVersion version = new FileVersion(path, lastModified, length);
+        if (fileVersions.size() >= MAX_FILE_VERSIONS) {
+            fileVersions.clear();
+        }
+        FileVersion oldVersion = fileVersions.put(version.path, version);
+        if (oldVersion != null && !oldVersion.equals(version)) {
+            removeBlocks(version.path);
+        }
+        return new FileView(version, blockSize);
+    }
+
+    /**
+     * drop all the blocks of the file.
+     * @param path the key of the file in its store.
+     */
+    public void invalidate(String path) {
+        fileVersions.remove(path);
+        removeBlocks(path);
+    }
+
+    private void removeBlocks(String path) {
+        for (Segment segment : segments) {
+            invalidationCount.add(segment.removeByPath(path));
+        }
+    }
+
+    private Segment segmentFor(BlockKey key) {
+        return segments[(key.hashCode() & 0x7fffffff) % segments.length];
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    /**
+     * get the bytes used by the cached blocks.
+     * @return
+     */
+    public long getUsedBytes() {
+        long usedBytes = 0;
+        for (Segment segment : segments) {
+            usedBytes += segment.getUsedBytes();
+        }
+        return usedBytes;
+    }
+
+    /**
+     * the blocks of one file version with one block size.
+     */
+    public class FileView {
+        private final FileVersion version;
+
+        private final int blockSize;
+
+        private FileView(FileVersion version, int blockSize) {
+            this.version = version;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * get the block data.
+         * @param blockIndex start from 0.
+         * @return null if not cached.
+         */
+        public byte[] get(long blockIndex) {
+            BlockKey key = new BlockKey(version, blockSize, blockIndex);
+            byte[] data = segmentFor(key).get(key);
+            if (data == null) {
+                missCount.increment();
+            } else {
+                hitCount.increment();
+            }
+            return data;
+        }
+
+        /**
+         * cache the block data.
+         * @param blockIndex start from 0.
+         * @param data
+         */
+        public void put(long blockIndex, byte[] data) {
+            BlockKey key = new BlockKey(version, blockSize, blockIndex);
+            evictionCount.add(segmentFor(key).put(key, data));
+        }
+    }
+
+    /**
+     * the path with the modified time and length, a changed file has a new version.
+     */
+    private static class FileVersion {
+        private final String path;
+
+        private final long lastModified;
+
+        private final long length;
+
+        private FileVersion(String path, long lastModified, long length) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileVersion)) {
+                return false;
+            }
+            FileVersion that = (FileVersion) o;
+            return lastModified == that.lastModified && length == that.length && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, length);
+        }
+    }
+
+    private static class BlockKey {
+        private final FileVersion version;
+
+        private final int blockSize;
+
+        private final long blockIndex;
+
+        private final int hash;
+
+        private BlockKey(FileVersion version, int blockSize, long blockIndex) {
+            this.version = version;
+            this.blockSize = blockSize;
+            this.blockIndex = blockIndex;
+            this.hash = Objects.hash(version, blockSize, blockIndex);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey that = (BlockKey) o;
+            return blockSize == that.blockSize && blockIndex == that.blockIndex && version.equals(that.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * one part of the cache with its own budget.
+     */
+    private static class Segment {
+        private final long maxBytes;
+
+        private long usedBytes;
+
+        /**
+         * access order, the eldest is the least recently used.
+         */
+        private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(BlockKey key) {
+            return blocks.get(key);
+        }
+
+        /**
+         * put the block and evict the least recently used blocks.
+         * @return the count of evicted blocks.
+         */
+        synchronized int put(BlockKey key, byte[] data) {
+            if (data.length > maxBytes) {
+                return 0;
+            }
+
+            byte[] old = blocks.put(key, data);
+            if (old != null) {
+                usedBytes -= old.length;
+            }
+            usedBytes += data.length;
+
+            int evicted = 0;
+            Iterator<byte[]> iterator = blocks.values().iterator();
+            while (usedBytes > maxBytes && iterator.hasNext()) {
+                usedBytes -= iterator.next().length;
+                iterator.remove();
+                ++evicted;
+            }
+            return evicted;
+        }
+
+        synchronized int removeByPath(String path) {
+            int removed = 0;
+            Iterator<Map.Entry<BlockKey, byte[]>> iterator = blocks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<BlockKey, byte[]> entry = iterator.next();
+                if (entry.getKey().version.path.equals(path)) {
+                    usedBytes -= entry.getValue().length;
+                    iterator.remove();
+                    ++removed;
+                }
+            }
+            return removed;
+        }
+
+        synchronized long getUsedBytes() {
+            return usedBytes;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package network.client;
+
+import network.packet.ACKPacket;
+import network.packet.BlockNumber;
+import network.packet.DATAPacket;
+import network.packet.ERRORPacket;
+import network.packet.OACKPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+import network.packet.WRRQPacket;
+import network.transport.DatagramEndpoint;
+import network.transport.DatagramTransport;
+import network.transport.UdpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * the tftp client, every transfer has its own socket, so one client can run many transfers on many threads.
+ * the options are asked by the request, the transfer follows the options answered by the server.
+ */
+public class TftpClient {
+
+    /**
+     * the default time to wait the response before send again.
+     */
+    public static final int DEFAULT_TIMEOUT = 1000;
+
+    /**
+     * the default times to send again without progress before give up.
+     */
+    public static final int DEFAULT_RETRIES = 5;
+
+    private final InetSocketAddress server;
+
+    /**
+     * the block size to ask.
+     */
+    private int blockSize = TftpPacketConsts.DEFAULT_BLKSIZE;
+
+    /**
+     * the window size to ask.
+     */
+    private int windowSize = 1;
+
+    private int timeout = DEFAULT_TIMEOUT;
+
+    private int retries = DEFAULT_RETRIES;
+
+    private DatagramTransport transport = UdpTransport.INSTANCE;
+
+    public TftpClient(InetSocketAddress server) {
+        this.server = server;
+    }
+
+    /**
+     * download the file.
+     * @param fileName
+     * @param outputStream the data is written in order.
+     * @return
+     * @throws TftpErrorException if the server answer the ERROR.
+     * @throws SocketTimeoutException if the server not respond after the retries.
+     * @throws IOException
+     */
+    public TransferResult download(String fileName, OutputStream outputStream) throws IOException {
+        try (Session session = new Session()) {
+            return session.download(fileName, outputStream);
+        }
+    }
+
+    /**
+     * upload the file.
+     * @param fileName
+     * @param inputStream read until the end.
+     * @param size the byte count to announce by tsize, -1 if unknown.
+     * @return
+     * @throws TftpErrorException if the server answer the ERROR.
+     * @throws SocketTimeoutException if the server not respond after the retries.
+     * @throws IOException
+     */
+    public TransferResult upload(String fileName, InputStream inputStream, long size) throws IOException {
+        try (Session session = new Session()) {
+            return session.upload(fileName, inputStream, size);
+        }
+    }
+
+    /**
+     * set the block size to ask by blksize option.
+     * @param blockSize
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(TftpPacketConsts.MIN_BLKSIZE, Math.min(blockSize, TftpPacketConsts.MAX_BLKSIZE));
+    }
+
+    /**
+     * set the window size to ask by windowsize option.
+     * @param windowSize
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(1, Math.min(windowSize, TftpPacketConsts.MAX_WINDOWSIZE));
+    }
+
+    /**
+     * set the time to wait the response before send again.
+     * @param timeout ms
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * set the times to send again without progress before give up.
+     * @param retries
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * set the transport of the transfers, the simulated one to test on a faulty link.
+     * @param transport
+     */
+    public void setTransport(DatagramTransport transport) {
+        this.transport = transport;
+    }
+
+    public InetSocketAddress getServer() {
+        return server;
+    }
+
+    /**
+     * one transfer, only used by the calling thread.
+     */
+    private class Session implements AutoCloseable {
+
+        private final DatagramEndpoint socket;
+
+        /**
+         * the address and port of the server session, known from the first response.
+         */
+        private InetSocketAddress tid;
+
+        /**
+         * the block size and window size answered by the server, the default if no OACK.
+         */
+        private int sessionBlockSize = TftpPacketConsts.DEFAULT_BLKSIZE;
+
+        private int sessionWindowSize = 1;
+
+        private final long startNanos = System.nanoTime();
+
+        private long packetsSent;
+
+        private long retransmits;
+
+        private long timeouts;
+
+        private long duplicates;
+
+        /**
+         * the timeouts since the last progress.
+         */
+        private int attempts;
+
+        private final byte[] buffer = new byte[blockSize + 4];
+
+        private final DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+
+        private final PacketView view = new PacketView();
+
+        Session() throws IOException {
+            this.socket = transport.open();
+            try {
+                socket.setSoTimeout(timeout);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        TransferResult download(String fileName, OutputStream outputStream) throws IOException {
+            WRRQPacket request = new WRRQPacket(server.getAddress().getHostAddress(), server.getPort(),
+                    TftpPacketConsts.OP_RRQ, fileName, TftpPacketConsts.MODE_OCTET, requestOptions(-1));
+            send(request, false);
+            TftpPacket lastSent = request;
+            ACKPacket ackPacket = null;
+            //the seq of block expect to receive.
+            long seq = 1;
+            long bytes = 0;
+            int windowCount = 0;
+            //the roll back ack is sent for the lost block.
+            boolean rollbackAcked = false;
+            try {
+                while (true) {
+                    try {
+                        receive();
+                    } catch (SocketTimeoutException e) {
+                        onTimeout();
+                        send(lastSent, true);
+                        windowCount = 0;
+                        continue;
+                    }
+
+                    short opCode = view.getOpCode();
+                    if (opCode == TftpPacketConsts.OP_OACK && seq == 1) {
+                        boolean again = ackPacket != null;
+                        acceptOptions();
+                        ackPacket = new ACKPacket(tid, (short) 0);
+                        lastSent = ackPacket;
+                        send(ackPacket, again);
+                        continue;
+                    }
+                    if (opCode != TftpPacketConsts.OP_DATA) {
+                        continue;
+                    }
+                    if (ackPacket == null) {
+                        //no OACK, the server use the default options.
+                        ackPacket = new ACKPacket(tid, (short) 0);
+                    }
+
+                    short blockNo = view.getBlockNo();
+                    if (blockNo != BlockNumber.fromSeq(seq, BlockNumber.ROLLOVER_ZERO)) {
+                        ++duplicates;
+                        if (sessionWindowSize == 1 || !rollbackAcked) {
+                            //ack the last block in order, the server send again from the next.
+                            rollbackAcked = true;
+                            windowCount = 0;
+                            ackPacket.resetBlockNo(BlockNumber.fromSeq(seq - 1, BlockNumber.ROLLOVER_ZERO));
+                            lastSent = ackPacket;
+                            send(ackPacket, true);
+                        }
+                        continue;
+                    }
+
+                    view.writeData(outputStream);
+                    bytes += view.getDataLength();
+                    attempts = 0;
+                    rollbackAcked = false;
+                    boolean last = view.isLast(sessionBlockSize);
+                    if (last || ++windowCount >= sessionWindowSize) {
+                        windowCount = 0;
+                        ackPacket.resetBlockNo(blockNo);
+                        lastSent = ackPacket;
+                        send(ackPacket, false);
+                    }
+                    ++seq;
+                    if (last) {
+                        return result(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                abort(e);
+                throw e;
+            }
+        }
+
+        TransferResult upload(String fileName, InputStream inputStream, long size) throws IOException {
+            WRRQPacket request = new WRRQPacket(server.getAddress().getHostAddress(), server.getPort(),
+                    TftpPacketConsts.OP_WRQ, fileName, TftpPacketConsts.MODE_OCTET, requestOptions(size));
+            send(request, false);
+            try {
+                //wait the ACK 0 or the OACK.
+                while (true) {
+                    try {
+                        receive();
+                    } catch (SocketTimeoutException e) {
+                        onTimeout();
+                        send(request, true);
+                        continue;
+                    }
+                    if (view.getOpCode() == TftpPacketConsts.OP_OACK) {
+                        acceptOptions();
+                        break;
+                    }
+                    if (view.getOpCode() == TftpPacketConsts.OP_ACK && view.getBlockNo() == 0) {
+                        break;
+                    }
+                }
+                attempts = 0;
+
+                //the blocks of window are kept until acked, send again on timeout or roll back.
+                DATAPacket[] window = new DATAPacket[sessionWindowSize];
+                for (int i = 0; i < window.length; i++) {
+                    window[i] = new DATAPacket(tid, sessionBlockSize);
+                }
+                //the first block not acked, the next block to send, the last block read.
+                long baseSeq = 1;
+                long nextSeq = 1;
+                long readSeq = 0;
+                long lastSeq = Long.MAX_VALUE;
+                long bytes = 0;
+                while (true) {
+                    while (nextSeq <= lastSeq && nextSeq < baseSeq + sessionWindowSize) {
+                        DATAPacket dataPacket = window[(int) ((nextSeq - 1) % sessionWindowSize)];
+                        boolean retransmit = nextSeq <= readSeq;
+                        if (!retransmit) {
+                            int count = dataPacket.readBlock(inputStream, BlockNumber.fromSeq(nextSeq, BlockNumber.ROLLOVER_ZERO));
+                            bytes += count;
+                            readSeq = nextSeq;
+                            if (count < sessionBlockSize) {
+                                lastSeq = nextSeq;
+                            }
+                        }
+                        send(dataPacket, retransmit);
+                        ++nextSeq;
+                    }
+
+                    try {
+                        receive();
+                    } catch (SocketTimeoutException e) {
+                        onTimeout();
+                        nextSeq = baseSeq;
+                        continue;
+                    }
+                    if (view.getOpCode() != TftpPacketConsts.OP_ACK) {
+                        continue;
+                    }
+
+                    long ackSeq = findSeq(view.getBlockNo(), baseSeq - 1, nextSeq - 1);
+                    if (ackSeq < baseSeq) {
+                        ++duplicates;
+                        if (ackSeq == baseSeq - 1) {
+                            //the server lost the block after it, send the window again.
+                            nextSeq = baseSeq;
+                        }
+                        continue;
+                    }
+                    baseSeq = ackSeq + 1;
+                    attempts = 0;
+                    if (baseSeq > lastSeq) {
+                        return result(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                abort(e);
+                throw e;
+            }
+        }
+
+        private Map<String, String> requestOptions(long size) {
+            Map<String, String> options = new LinkedHashMap<>();
+            if (blockSize != TftpPacketConsts.DEFAULT_BLKSIZE) {
+                options.put(TftpPacketConsts.OPTION_BLKSIZE, String.valueOf(blockSize));
+            }
+            if (windowSize > 1) {
+                options.put(TftpPacketConsts.OPTION_WINDOWSIZE, String.valueOf(windowSize));
+            }
+            if (size >= 0) {
+                options.put(TftpPacketConsts.OPTION_TSIZE, String.valueOf(size));
+            }
+            return options;
+        }
+
+        /**
+         * follow the options answered by the OACK in the buffer.
+         */
+        private void acceptOptions() {
+            Map<String, String> options = new OACKPacket(datagramPacket).getOptions();
+            String answeredBlockSize = options.get(TftpPacketConsts.OPTION_BLKSIZE);
+            if (answeredBlockSize != null) {
+                sessionBlockSize = Integer.parseInt(answeredBlockSize.trim());
+            }
+            String answeredWindowSize = options.get(TftpPacketConsts.OPTION_WINDOWSIZE);
+            if (answeredWindowSize != null) {
+                sessionWindowSize = Integer.parseInt(answeredWindowSize.trim());
+            }
+        }
+
+        /**
+         * find the seq of the block number acked by the server.
+         * @param blockNo
+         * @param from
+         * @param to
+         * @return the seq, or from - 1 if not found.
+         */
+        private long findSeq(short blockNo, long from, long to) {
+            for (long seq = to; seq >= from; seq--) {
+                if (BlockNumber.fromSeq(seq, BlockNumber.ROLLOVER_ZERO) == blockNo) {
+                    return seq;
+                }
+            }
+            return from - 1;
+        }
+
+        private void send(TftpPacket packet, boolean retransmit) throws IOException {
+            socket.send(packet.build());
+            ++packetsSent;
+            if (retransmit) {
+                ++retransmits;
+            }
+        }
+
+        /**
+         * receive the packet of the server session into the view, the packets of other ports are ignored.
+         * @throws TftpErrorException if the server answer the ERROR.
+         * @throws IOException
+         */
+        private void receive() throws IOException {
+            while (true) {
+                datagramPacket.setLength(buffer.length);
+                socket.receive(datagramPacket);
+                InetSocketAddress from = (InetSocketAddress) datagramPacket.getSocketAddress();
+                if (tid == null) {
+                    tid = from;
+                } else if (!tid.equals(from)) {
+                    continue;
+                }
+                view.wrap(buffer, datagramPacket.getLength());
+                if (view.getOpCode() == TftpPacketConsts.OP_ERROR) {
+                    throw new TftpErrorException(view.getErrCode(), view.getErrMsg());
+                }
+                return;
+            }
+        }
+
+        private void onTimeout() throws SocketTimeoutException {
+            ++timeouts;
+            if (++attempts > retries) {
+                throw new SocketTimeoutException("No response after " + retries + " retries");
+            }
+        }
+
+        /**
+         * tell the server the transfer is stopped by client, unless the server stopped it.
+         * @param e
+         */
+        private void abort(IOException e) {
+            if (tid == null || e instanceof TftpErrorException) {
+                return;
+            }
+            try {
+                socket.send(new ERRORPacket(tid, TftpPacketConsts.ERRCODE_UNDEF, "Client abort.").build());
+            } catch (IOException ignored) {
+                //the server will give up by timeout.
+            }
+        }
+
+        private TransferResult result(long bytes) {
+            return new TransferResult(bytes, System.nanoTime() - startNanos, packetsSent, retransmits, timeouts, duplicates);
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
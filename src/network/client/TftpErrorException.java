@@ -0,0 +1,22 @@
+package network.client;
+
+import java.io.IOException;
+
+/**
+ * the server stop the transfer by the ERROR packet.
+ */
+public class TftpErrorException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final short errCode;
+
+    public TftpErrorException(short errCode, String errMsg) {
+        super("Server error " + errCode + ":" + errMsg);
+        this.errCode = errCode;
+    }
+
+    public short getErrCode() {
+        return errCode;
+    }
+}
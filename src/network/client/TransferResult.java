@@ -0,0 +1,72 @@
+package network.client;
+
+/**
+ * the result of one transfer of client.
+ */
+public class TransferResult {
+
+    private final long bytes;
+
+    private final long durationNanos;
+
+    private final long packetsSent;
+
+    private final long retransmits;
+
+    private final long timeouts;
+
+    private final long duplicates;
+
+    TransferResult(long bytes, long durationNanos, long packetsSent, long retransmits, long timeouts, long duplicates) {
+        this.bytes = bytes;
+        this.durationNanos = durationNanos;
+        this.packetsSent = packetsSent;
+        this.retransmits = retransmits;
+        this.timeouts = timeouts;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * get the byte count of file transferred.
+     * @return
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * get the time from the request sent to the last block.
+     * @return
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * get the count of packets sent by client, include the retransmits.
+     * @return
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * get the count of packets sent again by client, after timeout or for the roll back of window.
+     * @return
+     */
+    public long getRetransmits() {
+        return retransmits;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * get the count of packets received twice or out of order, mostly the retransmits of server.
+     * @return
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+}
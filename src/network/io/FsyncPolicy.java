@@ -0,0 +1,19 @@
+package network.io;
+
+/**
+ * how the uploaded file is forced to the disk before the last ack.
+ */
+public enum FsyncPolicy {
+    /**
+     * leave the data in the page cache, the fastest but may lost on power failure.
+     */
+    NONE,
+    /**
+     * force the file content, like fdatasync.
+     */
+    DATA,
+    /**
+     * force the file content and metadata, like fsync.
+     */
+    ALL
+}
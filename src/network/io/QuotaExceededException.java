@@ -0,0 +1,15 @@
+package network.io;
+
+import java.io.IOException;
+
+/**
+ * the upload is larger than the quota or the free space, answered with the disk full error.
+ */
+public class QuotaExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,485 @@
+package network.io;
+
+import network.storage.WriteSession;
+import utils.AsyncLogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * the write-behind stage of uploads, shared by all the engines.
+ * the session thread copy the received data into buffer chunks and ack at once,
+ * the writer threads write the full chunks of a file by one gathering write.
+ * the chunks of all uploads are limited, the session wait or drop the block when they are used up.
+ * the data is written to a temp file in the same dir and moved to the target when finished,
+ * so the readers never see a half written file and a failed upload keep the old one.
+ */
+public class UploadWriter {
+
+    /**
+     * the size of one buffer chunk.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * the max chunks of one gathering write.
+     */
+    private static final int MAX_BATCH = 16;
+
+    /**
+     * the time to wait the ready file before check stop.
+     */
+    private static final long IDLE_POLL_MS = 100;
+
+    private static final String LOG_CATEGORY = "UploadWriter";
+
+    private final FsyncPolicy fsyncPolicy;
+
+    /**
+     * the max bytes of one uploaded file, 0 means no limit.
+     */
+    private final long maxFileSize;
+
+    /**
+     * the count of chunks can be taken, limit the bytes buffered of all uploads.
+     */
+    private final Semaphore chunkPermits;
+
+    /**
+     * the direct chunks returned by the written files, reused by the next.
+     */
+    private final Queue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the files have chunks to write or wait to finish.
+     */
+    private final BlockingQueue<FileSink> readySinks = new LinkedBlockingQueue<>();
+
+    private final AsyncLogger logger;
+
+    private volatile boolean run = true;
+
+    /**
+     * @param threadCount the count of writer threads.
+     * @param maxBufferedBytes the max bytes received but not written of all uploads.
+     * @param fsyncPolicy
+     * @param maxFileSize the max bytes of one uploaded file, 0 means no limit.
+     * @param logger
+     */
+    public UploadWriter(int threadCount, long maxBufferedBytes, FsyncPolicy fsyncPolicy, long maxFileSize, AsyncLogger logger) {
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxFileSize = maxFileSize;
+        this.logger = logger;
+        this.chunkPermits = new Semaphore((int) Math.min(Integer.MAX_VALUE, Math.max(2, maxBufferedBytes / CHUNK_SIZE)));
+        for (int i = 0; i < Math.max(1, threadCount); i++) {
+            Thread thread = new Thread(this::runWriter, "upload-writer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * open the temp file to write, the target is replaced when finished.
+     * @param target
+     * @param expectedSize the size of file if known, such as the tsize option, -1 if not.
+     * @return
+     * @throws QuotaExceededException the expected size is over the quota or the free space.
+     * @throws IOException
+     */
+    public FileSink open(Path target, long expectedSize) throws IOException {
+        if (Files.isDirectory(target)) {
+            throw new IOException("Is a directory:" + target);
+        }
+        Path dir = target.toAbsolutePath().getParent();
+        if (maxFileSize > 0 && expectedSize > maxFileSize) {
+            throw new QuotaExceededException(String.format("File size %s over the quota %s", expectedSize, maxFileSize));
+        }
+        if (expectedSize > 0 && expectedSize > Files.getFileStore(dir).getUsableSpace()) {
+            throw new QuotaExceededException(String.format("File size %s over the free space", expectedSize));
+        }
+
+        Path temp = dir.resolve(String.format(".%s.%s.part", target.getFileName(), Long.toHexString(ThreadLocalRandom.current().nextLong())));
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        try {
+            if (expectedSize > 0) {
+                //the jdk has no fallocate, extend the file once so the size is not changed by every write.
+                channel.write(ByteBuffer.allocate(1), expectedSize - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return new FileSink(target, temp, channel);
+    }
+
+    /**
+     * stop the writer threads, the files still ready are written by the caller,
+     * the files ready later are written by the session thread.
+     */
+    public void stop() {
+        run = false;
+        FileSink sink;
+        while ((sink = readySinks.poll()) != null) {
+            sink.drain();
+        }
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    private void runWriter() {
+        while (run || !readySinks.isEmpty()) {
+            FileSink sink;
+            try {
+                sink = readySinks.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (sink != null) {
+                sink.drain();
+            }
+        }
+    }
+
+    private static int chunkCount(int bytes) {
+        return (bytes + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private boolean acquireChunks(int count, long timeoutMs) {
+        if (timeoutMs <= 0) {
+            return chunkPermits.tryAcquire(count);
+        }
+        try {
+            return chunkPermits.tryAcquire(count, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * take a chunk, the permit is acquired before.
+     * @return
+     */
+    private ByteBuffer takeChunk() {
+        ByteBuffer chunk = freeChunks.poll();
+        return chunk != null ? chunk : ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    private void recycleChunk(ByteBuffer chunk) {
+        chunk.clear();
+        freeChunks.add(chunk);
+        chunkPermits.release();
+    }
+
+    /**
+     * the file of one upload, written by one session thread and drained by one writer thread at a time.
+     */
+    public class FileSink implements WriteSession {
+        private final Path target;
+
+        private final Path temp;
+
+        private final FileChannel channel;
+
+        /**
+         * the chunk filling, only touched by the session thread.
+         */
+        private ByteBuffer current;
+
+        /**
+         * the bytes accepted, only touched by the session thread.
+         */
+        private long size;
+
+        /**
+         * the full chunks wait to write.
+         */
+        private final Queue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * the sink is in the ready queue or drained now, so only one thread drain it.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * the chunks of one gathering write, only touched by the draining thread.
+         */
+        private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+
+        private final CompletableFuture<Void> finishFuture = new CompletableFuture<>();
+
+        private volatile boolean finishing;
+
+        private volatile boolean aborted;
+
+        /**
+         * the first error of write, the later writes are refused.
+         */
+        private volatile IOException error;
+
+        private FileSink(Path target, Path temp, FileChannel channel) {
+            this.target = target;
+            this.temp = temp;
+            this.channel = channel;
+        }
+
+        /**
+         * copy the data into the chunks, it is written by the writer thread later.
+         * @param src the remaining bytes are consumed if return true.
+         * @param timeoutMs the time to wait the free chunk, 0 to return at once.
+         * @return false if the chunks are used up, nothing is consumed.
+         * @throws QuotaExceededException the file is over the quota.
+         * @throws IOException the former write is failed.
+         */
+        @Override
+        public boolean write(ByteBuffer src, long timeoutMs) throws IOException {
+            IOException e = error;
+            if (e != null) {
+                throw new IOException("Write file error:" + e.getMessage(), e);
+            }
+            if (maxFileSize > 0 && size + src.remaining() > maxFileSize) {
+                throw new QuotaExceededException(String.format("File size over the quota %s", maxFileSize));
+            }
+
+            int length = src.remaining();
+            int free = current == null ? 0 : current.remaining();
+            if (src.remaining() > free && !chunkPermits.tryAcquire(chunkCount(src.remaining() - free))) {
+                //write the chunk filling before wait, or the sessions waiting with their own chunks never get more.
+                submitCurrent();
+                if (!acquireChunks(chunkCount(src.remaining()), timeoutMs)) {
+                    return false;
+                }
+            }
+
+            while (src.hasRemaining()) {
+                if (current == null) {
+                    current = takeChunk();
+                }
+                int limit = src.limit();
+                src.limit(src.position() + Math.min(src.remaining(), current.remaining()));
+                current.put(src);
+                src.limit(limit);
+                if (!current.hasRemaining()) {
+                    submitCurrent();
+                }
+            }
+            size += length;
+            return true;
+        }
+
+        /**
+         * write the rest data and force it by the policy, then move the temp file to the target.
+         * @return complete when the target is replaced, or exceptionally if any write is failed.
+         */
+        @Override
+        public CompletableFuture<Void> commit() {
+            if (!finishing && !aborted) {
+                finishing = true;
+                if (current != null && current.position() == 0) {
+                    recycleChunk(current);
+                    current = null;
+                }
+                submitCurrent();
+                schedule();
+            }
+            return finishFuture;
+        }
+
+        /**
+         * drop the data not written and delete the temp file, the target is not changed.
+         */
+        @Override
+        public void abort() {
+            if (finishing || aborted) {
+                return;
+            }
+            aborted = true;
+            if (current != null) {
+                recycleChunk(current);
+                current = null;
+            }
+            schedule();
+        }
+
+        /**
+         * abort if not finished.
+         */
+        @Override
+        public void close() {
+            abort();
+        }
+
+        private void submitCurrent() {
+            if (current == null) {
+                return;
+            }
+            current.flip();
+            chunks.add(current);
+            current = null;
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                if (!run) {
+                    drain();
+                    return;
+                }
+                readySinks.add(this);
+                //the writers may stop after the check, take it back if no one has.
+                if (!run && readySinks.remove(this)) {
+                    drain();
+                }
+            }
+        }
+
+        private void drain() {
+            writeChunks();
+            scheduled.set(false);
+            if (!chunks.isEmpty()) {
+                schedule();
+                return;
+            }
+            //the sink is never scheduled again after complete.
+            if ((finishing || aborted) && scheduled.compareAndSet(false, true)) {
+                complete();
+            }
+        }
+
+        private void writeChunks() {
+            while (true) {
+                int count = 0;
+                ByteBuffer chunk;
+                while (count < batch.length && (chunk = chunks.poll()) != null) {
+                    batch[count++] = chunk;
+                }
+                if (count == 0) {
+                    return;
+                }
+
+                try {
+                    if (error == null && !aborted) {
+                        //the gathering write consume the chunks in order.
+                        while (batch[count - 1].hasRemaining()) {
+                            channel.write(batch, 0, count);
+                        }
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    for (int i = 0; i < count; i++) {
+                        recycleChunk(batch[i]);
+                        batch[i] = null;
+                    }
+                }
+            }
+        }
+
+        private void complete() {
+            try {
+                if (error == null && !aborted) {
+                    //cut the preallocated bytes not written.
+                    channel.truncate(channel.position());
+                    if (fsyncPolicy != FsyncPolicy.NONE) {
+                        channel.force(fsyncPolicy == FsyncPolicy.ALL);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+
+            if (error == null && !aborted) {
+                try {
+                    moveToTarget();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null || aborted) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    logger.log(LogLevel.WARN, LOG_CATEGORY, null, e, "Delete temp file error:%s", temp);
+                }
+            }
+
+            if (error != null && !aborted) {
+                finishFuture.completeExceptionally(error);
+            } else {
+                finishFuture.complete(null);
+            }
+        }
+
+        /**
+         * replace the target by the temp file, the readers opened before keep the old content.
+         * @throws IOException
+         */
+        private void moveToTarget() throws IOException {
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (fsyncPolicy == FsyncPolicy.ALL) {
+                //persist the rename, not all platforms can open the dir to force.
+                try (FileChannel dir = FileChannel.open(temp.getParent(), StandardOpenOption.READ)) {
+                    dir.force(true);
+                } catch (IOException e) {
+                    //ignore.
+                }
+            }
+        }
+
+        /**
+         * get the file replaced when finished.
+         * @return
+         */
+        public Path getTarget() {
+            return target;
+        }
+
+        /**
+         * get the canonical path of the target, the key of its cached blocks.
+         * @return
+         */
+        @Override
+        public String getKey() {
+            try {
+                return target.toFile().getCanonicalPath();
+            } catch (IOException e) {
+                return target.toAbsolutePath().normalize().toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package network.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the monotonic counter, striped to avoid contention between transfer threads.
+ */
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
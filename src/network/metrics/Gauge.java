@@ -0,0 +1,27 @@
+package network.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the value can go up and down, such as the active sessions.
+ */
+public class Gauge {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void decrement() {
+        value.decrement();
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
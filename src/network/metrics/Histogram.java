@@ -0,0 +1,110 @@
+package network.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the histogram of non-negative long values with log-linear buckets like HdrHistogram.
+ * every power of 2 is split into 8 sub buckets, so the error of percentile is within 12.5%.
+ */
+public class Histogram {
+
+    /**
+     * the bits of sub buckets in every power of 2.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * record the value, the negative value is recorded as 0.
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[bucketIndex(value)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * get the count of values not greater than the bound.
+     * @param bound must be the upper bound of a bucket, such as 2^n - 1.
+     * @return
+     */
+    public long getCountAtOrBelow(long bound) {
+        long total = 0;
+        int last = bucketIndex(bound);
+        for (int i = 0; i <= last; i++) {
+            total += buckets[i].sum();
+        }
+        return total;
+    }
+
+    /**
+     * get the value at the percentile.
+     * @param percentile 0..100
+     * @return the upper bound of the bucket, 0 if empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i].sum();
+            if (seen >= target) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int exp = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKET_COUNT;
+        long width = 1L << (exp - SUB_BUCKET_BITS);
+        long lower = (long) (SUB_BUCKET_COUNT + sub) << (exp - SUB_BUCKET_BITS);
+        return lower + (width - 1);
+    }
+}
@@ -0,0 +1,20 @@
+package network.metrics;
+
+/**
+ * create and hold the metrics, implement it to export the metrics to other system.
+ * the labels are pairs of name and value, the same name and labels return the same metric.
+ */
+public interface MetricsRegistry {
+
+    Counter counter(String name, String help, String... labels);
+
+    Gauge gauge(String name, String help, String... labels);
+
+    Histogram histogram(String name, String help, String... labels);
+
+    /**
+     * get the text exposition of all the metrics.
+     * @return empty if the registry export the metrics by itself.
+     */
+    String scrape();
+}
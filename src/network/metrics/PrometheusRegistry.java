@@ -0,0 +1,142 @@
+package network.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * the registry keep the metrics in memory and write them in the prometheus text format.
+ */
+public class PrometheusRegistry implements MetricsRegistry {
+
+    /**
+     * the max exponent of the buckets in exposition, the buckets are "le" 2^n - 1.
+     */
+    private static final int MAX_BUCKET_EXP = 40;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    @Override
+    public Counter counter(String name, String help, String... labels) {
+        return family(name, help, "counter").get(labels, Counter::new);
+    }
+
+    @Override
+    public Gauge gauge(String name, String help, String... labels) {
+        return family(name, help, "gauge").get(labels, Gauge::new);
+    }
+
+    @Override
+    public Histogram histogram(String name, String help, String... labels) {
+        return family(name, help, "histogram").get(labels, Histogram::new);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(String.format("Metric %s is %s, not %s", name, family.type, type));
+        }
+        return family;
+    }
+
+    @Override
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            sb.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Counter) {
+                    appendSample(sb, name, labels, null, ((Counter) value).get());
+                } else if (value instanceof Gauge) {
+                    appendSample(sb, name, labels, null, ((Gauge) value).get());
+                } else {
+                    appendHistogram(sb, name, labels, (Histogram) value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private void appendHistogram(StringBuilder sb, String name, String labels, Histogram histogram) {
+        //read the count first, so the +Inf bucket is never less than the others.
+        long count = histogram.getCount();
+        for (int exp = 0; exp <= MAX_BUCKET_EXP; exp++) {
+            long bound = (1L << exp) - 1;
+            appendSample(sb, name + "_bucket", labels, "le=\"" + bound + "\"", Math.min(count, histogram.getCountAtOrBelow(bound)));
+        }
+        appendSample(sb, name + "_bucket", labels, "le=\"+Inf\"", count);
+        appendSample(sb, name + "_sum", labels, null, histogram.getSum());
+        appendSample(sb, name + "_count", labels, null, count);
+    }
+
+    private void appendSample(StringBuilder sb, String name, String labels, String extraLabel, long value) {
+        sb.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            sb.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    sb.append(',');
+                }
+                sb.append(extraLabel);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * the metrics with the same name and different labels.
+     */
+    private static class Family {
+        private final String help;
+
+        private final String type;
+
+        /**
+         * key is the formatted labels.
+         */
+        private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T get(String[] labels, Supplier<T> creator) {
+            return (T) metrics.computeIfAbsent(formatLabels(labels), key -> creator.get());
+        }
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of name and value");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+}
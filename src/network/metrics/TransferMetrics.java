@@ -0,0 +1,188 @@
+package network.metrics;
+
+import network.packet.TftpPacketConsts;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the metrics of the listener and the transfers, shared by all the engines.
+ */
+public class TransferMetrics {
+
+    /**
+     * the max error code defined, the others are counted as undefined.
+     */
+    private static final int MAX_ERRCODE = TftpPacketConsts.ERRCODE_OPTION;
+
+    private final MetricsRegistry registry;
+
+    private final Counter rrqCount;
+
+    private final Counter wrqCount;
+
+    private final Counter illegalRequestCount;
+
+    private final Counter malformedRequestCount;
+
+    /**
+     * index is the error code.
+     */
+    private final Counter[] errorCounts = new Counter[MAX_ERRCODE + 1];
+
+    private final Counter bytesSent;
+
+    private final Counter bytesReceived;
+
+    private final Counter retransmits;
+
+    private final Counter timeouts;
+
+    private final Counter failedDownloads;
+
+    private final Counter failedUploads;
+
+    private final Counter rejectedRequests;
+
+    private final Counter duplicateRequests;
+
+    private final Gauge activeSessions;
+
+    private final Histogram downloadDuration;
+
+    private final Histogram uploadDuration;
+
+    private final Histogram blockRtt;
+
+    private final Histogram queueLatency;
+
+    public TransferMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        String requests = "tftp_requests_total";
+        String requestsHelp = "Requests received by the listener.";
+        rrqCount = registry.counter(requests, requestsHelp, "op", "rrq");
+        wrqCount = registry.counter(requests, requestsHelp, "op", "wrq");
+        illegalRequestCount = registry.counter(requests, requestsHelp, "op", "illegal");
+        malformedRequestCount = registry.counter(requests, requestsHelp, "op", "malformed");
+        for (int i = 0; i < errorCounts.length; i++) {
+            errorCounts[i] = registry.counter("tftp_errors_sent_total", "ERROR packets sent by code.", "code", String.valueOf(i));
+        }
+        bytesSent = registry.counter("tftp_bytes_sent_total", "File bytes sent in DATA packets.");
+        bytesReceived = registry.counter("tftp_bytes_received_total", "File bytes received in DATA packets.");
+        retransmits = registry.counter("tftp_retransmits_total", "Packets or windows sent again after timeout.");
+        timeouts = registry.counter("tftp_timeouts_total", "Expiries of the retransmit timer.");
+        String failed = "tftp_transfers_failed_total";
+        String failedHelp = "Transfers stopped before finish.";
+        failedDownloads = registry.counter(failed, failedHelp, "op", "rrq");
+        failedUploads = registry.counter(failed, failedHelp, "op", "wrq");
+        rejectedRequests = registry.counter("tftp_admission_rejected_total", "Requests rejected because too many sessions.");
+        duplicateRequests = registry.counter("tftp_duplicate_requests_total", "Requests dropped because the same request of client is in progress.");
+        activeSessions = registry.gauge("tftp_active_sessions", "Transfers in progress.");
+        String duration = "tftp_transfer_duration_milliseconds";
+        String durationHelp = "Duration of the finished transfers.";
+        downloadDuration = registry.histogram(duration, durationHelp, "op", "rrq");
+        uploadDuration = registry.histogram(duration, durationHelp, "op", "wrq");
+        blockRtt = registry.histogram("tftp_block_rtt_microseconds", "Round trip time of the packets not retransmitted.");
+        queueLatency = registry.histogram("tftp_listener_queue_latency_microseconds", "Time from the request received to the transfer started.");
+    }
+
+    /**
+     * the listener receive a request.
+     * @param opCode
+     */
+    public void onRequest(short opCode) {
+        if (opCode == TftpPacketConsts.OP_RRQ) {
+            rrqCount.increment();
+        } else if (opCode == TftpPacketConsts.OP_WRQ) {
+            wrqCount.increment();
+        } else {
+            illegalRequestCount.increment();
+        }
+    }
+
+    /**
+     * the listener receive a packet can not be parsed.
+     */
+    public void onMalformedRequest() {
+        malformedRequestCount.increment();
+    }
+
+    public void onAdmissionRejected() {
+        rejectedRequests.increment();
+    }
+
+    public void onDuplicateRequest() {
+        duplicateRequests.increment();
+    }
+
+    public void onErrorSent(short errCode) {
+        errorCounts[errCode >= 0 && errCode <= MAX_ERRCODE ? errCode : TftpPacketConsts.ERRCODE_UNDEF].increment();
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void addBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void onRetransmit() {
+        retransmits.increment();
+    }
+
+    public void onTimeout() {
+        timeouts.increment();
+    }
+
+    public void recordRtt(long rttNanos) {
+        blockRtt.record(TimeUnit.NANOSECONDS.toMicros(rttNanos));
+    }
+
+    /**
+     * the transfer is started.
+     * @param queueNanos the time from the request received.
+     */
+    public void onSessionStart(long queueNanos) {
+        activeSessions.increment();
+        queueLatency.record(TimeUnit.NANOSECONDS.toMicros(queueNanos));
+    }
+
+    /**
+     * the transfer is ended.
+     * @param upload
+     * @param durationNanos
+     * @param finished false if stopped by error.
+     */
+    public void onSessionEnd(boolean upload, long durationNanos, boolean finished) {
+        activeSessions.decrement();
+        if (!finished) {
+            (upload ? failedUploads : failedDownloads).increment();
+            return;
+        }
+        (upload ? uploadDuration : downloadDuration).record(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getRetransmits() {
+        return retransmits.get();
+    }
+
+    public long getMalformedRequests() {
+        return malformedRequestCount.get();
+    }
+
+    public long getActiveSessions() {
+        return activeSessions.get();
+    }
+}
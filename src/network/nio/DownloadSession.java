@@ -0,0 +1,172 @@
+package network.nio;
+
+import network.DownloadWindow;
+import network.FileBlockReader;
+import network.packet.BlockNumber;
+import network.packet.OACKPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import network.packet.WRRQPacket;
+import network.storage.StoredFile;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AccessDeniedException;
+
+/**
+ * download state machine: send the DATA window, wait ACK, slide and send the next window.
+ */
+class DownloadSession extends TransferSession {
+
+    private FileBlockReader blockReader;
+
+    private DownloadWindow window;
+
+    /**
+     * the OACK is sent, wait the ACK of block 0.
+     */
+    private OACKPacket oackPacket;
+
+    DownloadSession(EventLoop loop, WRRQPacket reqPacket, long receiveNanos, Runnable release) {
+        super(loop, reqPacket, receiveNanos, release);
+    }
+
+    @Override
+    protected String getName() {
+        return "Download";
+    }
+
+    @Override
+    protected boolean isUpload() {
+        return false;
+    }
+
+    @Override
+    protected void onStart() throws IOException {
+        log(LogLevel.INFO, "RRQ-Receive:fileName<%s> mode<%s>", reqPacket.getFileName(), reqPacket.getMode());
+        if (!checkMode()) {
+            return;
+        }
+
+        log(LogLevel.DEBUG, "Open file:%s", reqPacket.getFileName());
+        StoredFile file;
+        try {
+            file = loop.getStore().open(reqPacket.getFileName());
+        } catch (AccessDeniedException e) {
+            //the name is out of the base dir.
+            log(LogLevel.WARN, "Access denied:%s", reqPacket.getFileName());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_ACCESS, "Access violation.");
+            return;
+        } catch (IOException e) {
+            log(LogLevel.ERROR, e, "Open file error:%s", e.getMessage());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_ACCESS, "File open error.");
+            return;
+        }
+        if (file == null) {
+            //File not found
+            sendErrAndClose(TftpPacketConsts.ERRCODE_NOTFD, "File not found.");
+            return;
+        }
+        blockReader = new FileBlockReader(file, options.getBlockSize(), loop.getBlockCache());
+
+        //start read the data from file.
+        options.acceptTransferSize(blockReader.length());
+        window = new DownloadWindow(blockReader.length(), options.getBlockSize(), options.getWindowSize(), loop.getBlockRollover());
+        if (options.hasAcceptedOptions()) {
+            oackPacket = TftpPacketFactory.buildOACKPacket(reqPacket, options.getAcceptedOptions());
+            onRetransmit();
+            return;
+        }
+        sendWindow();
+    }
+
+    @Override
+    protected void onPacket(PacketView packet) throws IOException {
+        if (packet.getOpCode() != TftpPacketConsts.OP_ACK) {
+            log(LogLevel.DEBUG, "opcode error, cur:%s, expect:%s", packet.getOpCode(), TftpPacketConsts.OP_ACK);
+            log(LogLevel.DEBUG, "Ignore err packet...");
+            return;
+        }
+
+        short responseBlockNo = packet.getBlockNo();
+        if (isTraceEnabled()) {
+            log(LogLevel.TRACE, "ACK-Receive:blockNo<%s>", BlockNumber.toUnsigned(responseBlockNo));
+        }
+        if (oackPacket != null) {
+            //the OACK is acked by block 0.
+            if (responseBlockNo != 0) {
+                log(LogLevel.DEBUG, "ACK error, cur:%s, expect:%s", BlockNumber.toUnsigned(responseBlockNo), 0);
+                log(LogLevel.DEBUG, "Ignore err packet...");
+                return;
+            }
+
+            oackPacket = null;
+            resetRetry();
+            sendWindow();
+            return;
+        }
+
+        int ackCount = window.ack(responseBlockNo);
+        if (ackCount < 0) {
+            log(LogLevel.DEBUG, "ACK error, cur:%s, expect:%s", BlockNumber.toUnsigned(responseBlockNo), BlockNumber.toUnsigned(window.getLastBlockNo()));
+            log(LogLevel.DEBUG, "Ignore err packet...");
+            return;
+        }
+
+        if (ackCount > 0) {
+            resetRetry();
+        } else {
+            log(LogLevel.DEBUG, "Window roll back to block<%s>", BlockNumber.toUnsigned(responseBlockNo));
+        }
+        sendWindow();
+    }
+
+    /**
+     * send the blocks not acked, finish if all blocks are acked.
+     * the blocks are read by position into the direct buffer of loop and sent from it.
+     * @throws IOException
+     */
+    private void sendWindow() throws IOException {
+        if (window.isFinished()) {
+            finish();
+            return;
+        }
+
+        ByteBuffer sendBuffer = loop.getSendBuffer();
+        int size = window.size();
+        for (int i = 0; i < size; i++) {
+            long seq = window.getSeq(i);
+            short blockNo = window.toBlockNo(seq);
+            int length = blockReader.read(seq, blockNo, sendBuffer);
+            if (isTraceEnabled()) {
+                log(LogLevel.TRACE, "DATA-Send:block<%s>", BlockNumber.toUnsigned(blockNo));
+            }
+            send(sendBuffer);
+            metrics.addBytesSent(length);
+        }
+        //wait the ack after the last block of window.
+        startTimeout();
+    }
+
+    @Override
+    protected void onRetransmit() throws IOException {
+        if (oackPacket != null) {
+            log(LogLevel.INFO, "OACK-Send:options<%s>", oackPacket.getOptions());
+            sendAndWait(oackPacket);
+            return;
+        }
+
+        //roll back to the last acked block.
+        window.onTimeout();
+        sendWindow();
+    }
+
+    @Override
+    protected void onClose() throws IOException {
+        if (blockReader != null) {
+            blockReader.close();
+        }
+    }
+}
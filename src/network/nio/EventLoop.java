@@ -0,0 +1,240 @@
+package network.nio;
+
+import network.RetransmitPolicy;
+import network.cache.BlockCache;
+import network.storage.FileStore;
+import network.metrics.TransferMetrics;
+import network.packet.PacketView;
+import utils.AsyncLogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * one selector thread which drives the sessions registered on it.
+ */
+class EventLoop implements Runnable {
+
+    /**
+     * the category of the logs on loop thread.
+     */
+    static final String LOG_CATEGORY = "EventLoop";
+
+    private final NioTransferEngine engine;
+
+    private final Selector selector;
+
+    private final TimerWheel timerWheel;
+
+    /**
+     * the sessions submitted by listener thread, wait to open on loop thread.
+     */
+    private final Queue<TransferSession> pendingSessions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the tasks submitted by other thread, such as the callback of upload writer.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * receive buffer shared by all sessions of the loop.
+     */
+    private final ByteBuffer receiveBuffer;
+
+    /**
+     * direct send buffer shared by all sessions of the loop, the file data is read into it without heap copy.
+     */
+    private final ByteBuffer sendBuffer;
+
+    /**
+     * the view of the packet in receive buffer, shared by all sessions of the loop.
+     */
+    private final PacketView packetView = new PacketView();
+
+    private Thread thread;
+
+    EventLoop(NioTransferEngine engine, int bufferSize, long tickMs) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.timerWheel = new TimerWheel(tickMs, 512, System.currentTimeMillis());
+        this.receiveBuffer = ByteBuffer.allocate(bufferSize);
+        this.sendBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * start the loop thread.
+     * @param name
+     */
+    void start(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * submit the session from other thread.
+     * @param session
+     */
+    void submit(TransferSession session) {
+        pendingSessions.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * run the task on loop thread.
+     * @param task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (engine.isRunning()) {
+                selector.select(timerWheel.getTickMs());
+                openPendingSessions();
+                runTasks();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        TransferSession session = (TransferSession) key.attachment();
+                        try {
+                            session.onReadable(receiveBuffer, packetView);
+                        } catch (Throwable e) {
+                            closeOnError(session, e);
+                        }
+                    }
+                }
+
+                timerWheel.advance(System.currentTimeMillis());
+            }
+        } catch (Exception e) {
+            if (engine.isRunning()) {
+                getLogger().log(LogLevel.ERROR, LOG_CATEGORY, null, e, "Loop error:%s", e.getMessage());
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void openPendingSessions() {
+        TransferSession session;
+        while ((session = pendingSessions.poll()) != null) {
+            try {
+                session.open();
+            } catch (Throwable e) {
+                closeOnError(session, e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                getLogger().log(LogLevel.ERROR, LOG_CATEGORY, null, e, "Task error:%s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * close the session failed out of its own handling, the other sessions of loop keep running.
+     * @param session
+     * @param e
+     */
+    private void closeOnError(TransferSession session, Throwable e) {
+        getLogger().log(LogLevel.ERROR, LOG_CATEGORY, null, e, "Session error:%s", e.getMessage());
+        try {
+            session.close();
+        } catch (Throwable closeError) {
+            getLogger().log(LogLevel.ERROR, LOG_CATEGORY, null, closeError, "Close session error:%s", closeError.getMessage());
+        }
+    }
+
+    /**
+     * release all the sessions and the selector.
+     */
+    private void closeAll() {
+        TransferSession session;
+        while ((session = pendingSessions.poll()) != null) {
+            session.close();
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((TransferSession) key.attachment()).close();
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            getLogger().log(LogLevel.WARN, LOG_CATEGORY, null, e, "Close selector error:%s", e.getMessage());
+        }
+    }
+
+    /**
+     * stop the loop thread.
+     */
+    void stop() {
+        selector.wakeup();
+    }
+
+    TimerWheel.Timeout schedule(Runnable task, long delayMs) {
+        return timerWheel.schedule(task, delayMs, System.currentTimeMillis());
+    }
+
+    ByteBuffer getSendBuffer() {
+        return sendBuffer;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    int getMaxBlockSize() {
+        return engine.getMaxBlockSize();
+    }
+
+    int getMaxWindowSize() {
+        return engine.getMaxWindowSize();
+    }
+
+    BlockCache getBlockCache() {
+        return engine.getBlockCache();
+    }
+
+    FileStore getStore() {
+        return engine.getStore();
+    }
+
+    int getBlockRollover() {
+        return engine.getBlockRollover();
+    }
+
+    RetransmitPolicy getRetransmitPolicy() {
+        return engine.getRetransmitPolicy();
+    }
+
+    boolean isRunning() {
+        return engine.isRunning();
+    }
+
+    TransferMetrics getMetrics() {
+        return engine.getMetrics();
+    }
+
+    AsyncLogger getLogger() {
+        return engine.getLogger();
+    }
+}
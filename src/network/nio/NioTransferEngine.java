@@ -0,0 +1,184 @@
+package network.nio;
+
+import network.RetransmitPolicy;
+import network.cache.BlockCache;
+import network.metrics.TransferMetrics;
+import network.packet.WRRQPacket;
+import network.storage.FileStore;
+import utils.AsyncLogger;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the transfer engine which multiplex all the transfer sockets on a few event loop threads.
+ */
+public class NioTransferEngine {
+
+    /**
+     * the time of one timer wheel tick.
+     */
+    private static final long TICK_MS = 100;
+
+    private final EventLoop[] loops;
+
+    /**
+     * use to choose the loop for next session.
+     */
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * the max block size allow to negotiate.
+     */
+    private final int maxBlockSize;
+
+    /**
+     * the max window size allow to negotiate.
+     */
+    private final int maxWindowSize;
+
+    /**
+     * the limits of the retransmit timer of session.
+     */
+    private final RetransmitPolicy retransmitPolicy;
+
+    private final TransferMetrics metrics;
+
+    private final AsyncLogger logger;
+
+    /**
+     * the cache of file blocks shared by downloads, null if disabled.
+     */
+    private volatile BlockCache blockCache;
+
+    /**
+     * the storage of the files.
+     */
+    private volatile FileStore store;
+
+    /**
+     * the block number after 65535.
+     */
+    private volatile int blockRollover;
+
+    private volatile boolean run;
+
+    public NioTransferEngine(int loopCount, int maxBlockSize, int maxWindowSize, RetransmitPolicy retransmitPolicy, TransferMetrics metrics, AsyncLogger logger) throws IOException {
+        this.maxBlockSize = maxBlockSize;
+        this.maxWindowSize = maxWindowSize;
+        this.retransmitPolicy = retransmitPolicy;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            //the receive buffer must hold the largest data packet.
+            loops[i] = new EventLoop(this, maxBlockSize + 4, TICK_MS);
+        }
+    }
+
+    /**
+     * start all the event loops.
+     */
+    public void start() {
+        run = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].start("nio-event-loop-" + i);
+        }
+    }
+
+    /**
+     * stop all the event loops, the running sessions are closed.
+     */
+    public void stop() {
+        run = false;
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+    }
+
+    /**
+     * deal download.
+     * @param reqPacket
+     * @param receiveNanos the time of the request received.
+     * @param release call when the session is closed.
+     */
+    public void submitDownload(WRRQPacket reqPacket, long receiveNanos, Runnable release) {
+        EventLoop loop = chooseLoop();
+        loop.submit(new DownloadSession(loop, reqPacket, receiveNanos, release));
+    }
+
+    /**
+     * deal upload.
+     * @param reqPacket
+     * @param receiveNanos the time of the request received.
+     * @param release call when the session is closed.
+     */
+    public void submitUpload(WRRQPacket reqPacket, long receiveNanos, Runnable release) {
+        EventLoop loop = chooseLoop();
+        loop.submit(new UploadSession(loop, reqPacket, receiveNanos, release));
+    }
+
+    /**
+     * set the cache of file blocks shared by downloads.
+     * @param blockCache null to disable.
+     */
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * set the storage of the files read and written by the sessions.
+     * @param store
+     */
+    public void setStore(FileStore store) {
+        this.store = store;
+    }
+
+    FileStore getStore() {
+        return store;
+    }
+
+    /**
+     * set the block number after 65535.
+     * @param blockRollover 0 or 1.
+     */
+    public void setBlockRollover(int blockRollover) {
+        this.blockRollover = blockRollover;
+    }
+
+    int getBlockRollover() {
+        return blockRollover;
+    }
+
+    private EventLoop chooseLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    boolean isRunning() {
+        return run;
+    }
+
+    int getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    int getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+    RetransmitPolicy getRetransmitPolicy() {
+        return retransmitPolicy;
+    }
+
+    TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    AsyncLogger getLogger() {
+        return logger;
+    }
+}
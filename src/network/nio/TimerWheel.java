@@ -0,0 +1,130 @@
+package network.nio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * hashed timer wheel, only used by the event loop thread which owns it.
+ */
+class TimerWheel {
+
+    /**
+     * the time of one tick.
+     */
+    private final long tickMs;
+
+    /**
+     * slot mask, the slot count is power of two.
+     */
+    private final int mask;
+
+    private final List<Timeout>[] slots;
+
+    /**
+     * the last tick which is processed.
+     */
+    private long curTick;
+
+    private final long startTime;
+
+    TimerWheel(long tickMs, int slotCount, long nowMs) {
+        int size = Integer.highestOneBit(Math.max(slotCount, 2) - 1) << 1;
+        this.tickMs = tickMs;
+        this.mask = size - 1;
+        this.slots = newSlots(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.startTime = nowMs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Timeout>[] newSlots(int size) {
+        return (List<Timeout>[]) new List<?>[size];
+    }
+
+    /**
+     * schedule the task after delay.
+     * @param task
+     * @param delayMs
+     * @param nowMs
+     * @return
+     */
+    Timeout schedule(Runnable task, long delayMs, long nowMs) {
+        long deadlineTick = Math.max(curTick + 1, (nowMs - startTime + delayMs + tickMs - 1) / tickMs);
+        Timeout timeout = new Timeout(task, deadlineTick);
+        slots[(int) (deadlineTick & mask)].add(timeout);
+        return timeout;
+    }
+
+    /**
+     * run all the expired tasks.
+     * @param nowMs
+     */
+    void advance(long nowMs) {
+        long targetTick = (nowMs - startTime) / tickMs;
+        List<Timeout> expired = null;
+        while (curTick < targetTick) {
+            ++curTick;
+            List<Timeout> slot = slots[(int) (curTick & mask)];
+            //remove the expired and cancelled timeouts in place.
+            int keep = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                Timeout timeout = slot.get(i);
+                if (timeout.cancelled) {
+                    continue;
+                }
+
+                if (timeout.deadlineTick <= curTick) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(timeout);
+                    continue;
+                }
+
+                slot.set(keep++, timeout);
+            }
+            slot.subList(keep, slot.size()).clear();
+        }
+
+        if (expired == null) {
+            return;
+        }
+
+        //run after the wheel is updated, the task may schedule again.
+        for (Timeout timeout : expired) {
+            if (!timeout.cancelled) {
+                timeout.task.run();
+            }
+        }
+    }
+
+    /**
+     * get the time of one tick.
+     * @return
+     */
+    long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * the handle of scheduled task.
+     */
+    static class Timeout {
+        private final Runnable task;
+
+        private final long deadlineTick;
+
+        private boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package network.nio;
+
+import network.RetransmitTimer;
+import network.TransferOptions;
+import network.metrics.TransferMetrics;
+import network.packet.ERRORPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import network.packet.WRRQPacket;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * the state of one transfer, only touched by its event loop thread.
+ */
+abstract class TransferSession {
+
+    protected final EventLoop loop;
+
+    protected final WRRQPacket reqPacket;
+
+    protected final TransferOptions options;
+
+    protected DatagramChannel channel;
+
+    private SelectionKey key;
+
+    /**
+     * the retransmit timer.
+     */
+    private TimerWheel.Timeout timeout;
+
+    /**
+     * estimate the retransmit timeout by the rtt.
+     */
+    protected final RetransmitTimer retransmitTimer;
+
+    /**
+     * the packets are sent by retransmit, not sample the rtt of them.
+     */
+    private boolean retransmitting;
+
+    private boolean closed;
+
+    protected final TransferMetrics metrics;
+
+    /**
+     * the nano time of the request received by listener.
+     */
+    private final long receiveNanos;
+
+    /**
+     * call when the session is closed, such as release the admission.
+     */
+    private final Runnable release;
+
+    /**
+     * the nano time of the session opened, 0 if not opened.
+     */
+    private long startNanos;
+
+    /**
+     * the transfer is finished without error.
+     */
+    private boolean finished;
+
+    TransferSession(EventLoop loop, WRRQPacket reqPacket, long receiveNanos, Runnable release) {
+        this.loop = loop;
+        this.reqPacket = reqPacket;
+        this.options = TransferOptions.negotiate(reqPacket, loop.getMaxBlockSize(), loop.getMaxWindowSize());
+        this.retransmitTimer = loop.getRetransmitPolicy().newTimer(options);
+        this.metrics = loop.getMetrics();
+        this.receiveNanos = receiveNanos;
+        this.release = release;
+    }
+
+    /**
+     * open the channel for the transfer id and start the transfer.
+     */
+    void open() {
+        startNanos = System.nanoTime();
+        metrics.onSessionStart(startNanos - receiveNanos);
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(null);
+            //only receive the packets from the client tid.
+            channel.connect(reqPacket.getAddress());
+            channel.configureBlocking(false);
+            key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+            log(LogLevel.DEBUG, "Create another channel on port:<%s>", channel.socket().getLocalPort());
+            onStart();
+        } catch (Exception | Error e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * the channel is readable.
+     * @param buffer the receive buffer of loop.
+     * @param packetView the view of loop, decode the packet in buffer without allocation.
+     */
+    void onReadable(ByteBuffer buffer, PacketView packetView) {
+        try {
+            while (!closed) {
+                buffer.clear();
+                int length = channel.read(buffer);
+                if (length <= 0) {
+                    return;
+                }
+
+                buffer.flip();
+                PacketView packet = packetView.wrap(buffer);
+                if (packet.getOpCode() == TftpPacketConsts.OP_ERROR) {
+                    //the client stop the transfer, such as refuse the options.
+                    fail(new RuntimeException("Client error:" + packet.getErrMsg()));
+                    return;
+                }
+                onPacket(packet);
+            }
+        } catch (Exception | Error e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * send the packet and start the retransmit timer.
+     * @param packet
+     * @throws IOException
+     */
+    protected void sendAndWait(TftpPacket packet) throws IOException {
+        send(packet);
+        startTimeout();
+    }
+
+    /**
+     * the packets are sent, start the retransmit timer and record the send time.
+     */
+    protected void startTimeout() {
+        retransmitTimer.onSend(System.currentTimeMillis(), retransmitting);
+        restartTimeout();
+    }
+
+    /**
+     * restart the retransmit timer without send, such as wait the next block of window.
+     */
+    protected void restartTimeout() {
+        cancelTimeout();
+        timeout = loop.schedule(this::onTimeout, retransmitTimer.getRemaining(System.currentTimeMillis()));
+    }
+
+    /**
+     * send the packet to client.
+     * @param packet
+     * @throws IOException
+     */
+    protected void send(TftpPacket packet) throws IOException {
+        DatagramPacket datagramPacket = packet.build();
+        channel.write(ByteBuffer.wrap(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength()));
+    }
+
+    /**
+     * send the bytes ready in buffer to client.
+     * @param buffer
+     * @throws IOException
+     */
+    protected void send(ByteBuffer buffer) throws IOException {
+        channel.write(buffer);
+    }
+
+    /**
+     * the packet is acked, sample the rtt and reset the backoff.
+     */
+    protected void resetRetry() {
+        retransmitTimer.onAck(System.currentTimeMillis());
+        cancelTimeout();
+    }
+
+    /**
+     * the transfer has progress without ack of the sent packet.
+     */
+    protected void onProgress() {
+        retransmitTimer.onProgress(System.currentTimeMillis());
+    }
+
+    private void onTimeout() {
+        timeout = null;
+        if (closed) {
+            return;
+        }
+
+        if (retransmitTimer.isGiveUp(System.currentTimeMillis())) {
+            fail(new RuntimeException(getName() + "-Receive:timeout"));
+            return;
+        }
+
+        retransmitTimer.onTimeout();
+        log(LogLevel.DEBUG, "Receive:timeout, Retrying:retry count:%s timeout:%sms...", retransmitTimer.getBackoff(), retransmitTimer.getTimeout());
+        retransmitting = true;
+        try {
+            onRetransmit();
+        } catch (Exception | Error e) {
+            fail(e);
+        } finally {
+            retransmitting = false;
+        }
+    }
+
+    /**
+     * log the finish with the rtt and retransmit count of session, and close it.
+     */
+    protected void finish() {
+        finished = true;
+        log(LogLevel.INFO, "Finish:srtt<%.1fms> rto<%sms> retransmit<%s>", retransmitTimer.getSrtt(), retransmitTimer.getTimeout(), retransmitTimer.getRetransmitCount());
+        close();
+    }
+
+    /**
+     * send the err packet and close the session.
+     * @param errCode
+     * @param errMsg
+     */
+    protected void sendErrAndClose(short errCode, String errMsg) {
+        ERRORPacket errPacket = TftpPacketFactory.buildERRORpacket(reqPacket, errCode, errMsg);
+        metrics.onErrorSent(errCode);
+        log(LogLevel.WARN, "ERROR-Send:ErrCode<%s> ErrMsg<%s>", errPacket.getErrCode(), errPacket.getErrMsg());
+        try {
+            send(errPacket);
+        } catch (IOException e) {
+            log(LogLevel.WARN, e, "Send error packet error:%s", e.getMessage());
+        }
+        close();
+    }
+
+    /**
+     * check the transfer mode.
+     * @return
+     */
+    protected boolean checkMode() {
+        String mode = reqPacket.getMode();
+        if (!TftpPacketConsts.MODE_OCTET.equals(mode)) {
+            //only allow OCTET
+            sendErrAndClose(TftpPacketConsts.ERRCODE_UNDEF, "Only allow octet.");
+            return false;
+        }
+        return true;
+    }
+
+    protected boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * log the error and close the session, the error of one session never stops the loop.
+     * @param e
+     */
+    protected void fail(Throwable e) {
+        if (closed) {
+            return;
+        }
+
+        if (loop.isRunning()) {
+            log(LogLevel.ERROR, e, "Error:%s", e.getMessage());
+        }
+        close();
+    }
+
+    /**
+     * release the resources of session.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        if (startNanos != 0) {
+            metrics.onSessionEnd(isUpload(), System.nanoTime() - startNanos, finished);
+        }
+        cancelTimeout();
+        if (key != null) {
+            key.cancel();
+        }
+
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log(LogLevel.WARN, e, "Close channel error:%s", e.getMessage());
+        }
+
+        try {
+            onClose();
+        } catch (Exception e) {
+            log(LogLevel.ERROR, e, "Close error:%s", e.getMessage());
+        }
+        release.run();
+    }
+
+    protected void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    protected void log(LogLevel level, String format) {
+        loop.getLogger().log(level, EventLoop.LOG_CATEGORY, getName(), format);
+    }
+
+    protected void log(LogLevel level, String format, Object arg0) {
+        loop.getLogger().log(level, EventLoop.LOG_CATEGORY, getName(), format, arg0);
+    }
+
+    protected void log(LogLevel level, String format, Object arg0, Object arg1) {
+        loop.getLogger().log(level, EventLoop.LOG_CATEGORY, getName(), format, arg0, arg1);
+    }
+
+    protected void log(LogLevel level, String format, Object arg0, Object arg1, Object arg2) {
+        loop.getLogger().log(level, EventLoop.LOG_CATEGORY, getName(), format, arg0, arg1, arg2);
+    }
+
+    protected void log(LogLevel level, Throwable thrown, String format, Object arg0) {
+        loop.getLogger().log(level, EventLoop.LOG_CATEGORY, getName(), thrown, format, arg0);
+    }
+
+    /**
+     * check the per block log is enabled, avoid box the block number if not.
+     * @return
+     */
+    protected boolean isTraceEnabled() {
+        return loop.getLogger().isEnabled(LogLevel.TRACE);
+    }
+
+    /**
+     * the name for log.
+     * @return
+     */
+    protected abstract String getName();
+
+    /**
+     * the kind of transfer for metrics.
+     * @return
+     */
+    protected abstract boolean isUpload();
+
+    /**
+     * the channel is ready, start transfer.
+     * @throws IOException
+     */
+    protected abstract void onStart() throws IOException;
+
+    /**
+     * receive the packet from client.
+     * @param packet the view is only valid in this call.
+     * @throws IOException
+     */
+    protected abstract void onPacket(PacketView packet) throws IOException;
+
+    /**
+     * no response from client in time, send the last packet again.
+     * @throws IOException
+     */
+    protected abstract void onRetransmit() throws IOException;
+
+    /**
+     * release the resources of subclass.
+     * @throws IOException
+     */
+    protected abstract void onClose() throws IOException;
+}
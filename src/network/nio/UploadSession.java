@@ -0,0 +1,234 @@
+package network.nio;
+
+import network.io.QuotaExceededException;
+import network.packet.BlockNumber;
+import network.packet.PacketView;
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import network.packet.WRRQPacket;
+import network.storage.WriteSession;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+
+/**
+ * upload state machine: send ACK, wait DATA, save and send next ACK.
+ */
+class UploadSession extends TransferSession {
+
+    private WriteSession sink;
+
+    /**
+     * the block number of the last ack.
+     */
+    private short ackBlockNo;
+
+    /**
+     * answer the OACK instead of ACK 0 until the first block arrive.
+     */
+    private TftpPacket oackPacket;
+
+    /**
+     * the seq of block expect to receive, changed to the block number by the rollover.
+     */
+    private long seq = 1;
+
+    /**
+     * the block number after 65535, follow the client if it rolls over to the other.
+     */
+    private int rollover;
+
+    /**
+     * the count of blocks received since last ack.
+     */
+    private int windowCount;
+
+    /**
+     * the roll back ack is sent for the lost block.
+     */
+    private boolean rollbackAcked;
+
+    /**
+     * the last block is received, wait the writer to finish the file.
+     */
+    private boolean committing;
+
+    UploadSession(EventLoop loop, WRRQPacket reqPacket, long receiveNanos, Runnable release) {
+        super(loop, reqPacket, receiveNanos, release);
+        this.rollover = loop.getBlockRollover();
+    }
+
+    @Override
+    protected String getName() {
+        return "Upload";
+    }
+
+    @Override
+    protected boolean isUpload() {
+        return true;
+    }
+
+    @Override
+    protected void onStart() throws IOException {
+        log(LogLevel.INFO, "WRQ-Receive:fileName<%s> mode<%s>", reqPacket.getFileName(), reqPacket.getMode());
+        if (!checkMode()) {
+            return;
+        }
+
+        //save the file data.
+        log(LogLevel.DEBUG, "Start save file:%s", reqPacket.getFileName());
+        try {
+            sink = loop.getStore().create(reqPacket.getFileName(), options.getTransferSize());
+        } catch (QuotaExceededException e) {
+            log(LogLevel.WARN, "Reject upload:%s", e.getMessage());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_DISKFULL, "Disk full or allocation exceeded.");
+            return;
+        } catch (AccessDeniedException e) {
+            //the name is out of the base dir.
+            log(LogLevel.WARN, "Access denied:%s", reqPacket.getFileName());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_ACCESS, "Access violation.");
+            return;
+        } catch (IOException e) {
+            log(LogLevel.ERROR, e, "Open file error:%s", e.getMessage());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_ACCESS, "File open error.");
+            return;
+        }
+
+        if (options.hasAcceptedOptions()) {
+            oackPacket = TftpPacketFactory.buildOACKPacket(reqPacket, options.getAcceptedOptions());
+        }
+        onRetransmit();
+    }
+
+    @Override
+    protected void onPacket(PacketView packet) throws IOException {
+        if (committing) {
+            log(LogLevel.DEBUG, "Ignore packet while writing file...");
+            return;
+        }
+
+        //op err.
+        if (packet.getOpCode() != TftpPacketConsts.OP_DATA) {
+            log(LogLevel.DEBUG, "opcode error, cur:%s, expect:%s", packet.getOpCode(), TftpPacketConsts.OP_DATA);
+            log(LogLevel.DEBUG, "Ignore err packet...");
+            return;
+        }
+
+        short receiveBlockNo = packet.getBlockNo();
+        if (isTraceEnabled()) {
+            log(LogLevel.TRACE, "DATA-Receive:blockNo<%s>", BlockNumber.toUnsigned(receiveBlockNo));
+        }
+        rollover = BlockNumber.detectRollover(seq, receiveBlockNo, rollover);
+        short blockNum = BlockNumber.fromSeq(seq, rollover);
+        if (blockNum != receiveBlockNo) {
+            log(LogLevel.DEBUG, "blockNo error, cur:%s, expect:%s", BlockNumber.toUnsigned(receiveBlockNo), BlockNumber.toUnsigned(blockNum));
+            if (options.getWindowSize() > 1 && !rollbackAcked) {
+                //with windowsize, ack the last good block once to let client roll back.
+                rollbackAcked = true;
+                windowCount = 0;
+                onRetransmit();
+                return;
+            }
+            log(LogLevel.DEBUG, "Ignore err packet...");
+            return;
+        }
+
+        //hand the data to the writer, the loop never wait, drop the block and let the client retransmit.
+        try {
+            if (!sink.write(packet.getData(), 0)) {
+                log(LogLevel.DEBUG, "Writer busy, drop block<%s>", BlockNumber.toUnsigned(receiveBlockNo));
+                return;
+            }
+        } catch (QuotaExceededException e) {
+            log(LogLevel.WARN, "Stop upload:%s", e.getMessage());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_DISKFULL, "Disk full or allocation exceeded.");
+            return;
+        }
+
+        if (windowCount == 0) {
+            //the first block after ack, sample the rtt.
+            resetRetry();
+        } else {
+            onProgress();
+        }
+        rollbackAcked = false;
+        oackPacket = null;
+        metrics.addBytesReceived(packet.getDataLength());
+        //reset the block number.
+        ackBlockNo = blockNum;
+        ++seq;
+
+        if (packet.isLast(options.getBlockSize())) {
+            //ack the last block after the file is written.
+            committing = true;
+            cancelTimeout();
+            sink.commit().whenComplete((v, e) -> loop.execute(() -> onWritten(e)));
+            return;
+        }
+
+        //only ack every window, keep the timer to ack again if the window is not complete.
+        ++windowCount;
+        if (windowCount >= options.getWindowSize()) {
+            onRetransmit();
+        } else {
+            restartTimeout();
+        }
+    }
+
+    /**
+     * the file is written by the writer, send the last ack.
+     * @param error null if success.
+     */
+    private void onWritten(Throwable error) {
+        if (isClosed()) {
+            return;
+        }
+
+        if (error != null) {
+            log(LogLevel.ERROR, "Write file error:%s", error.getMessage());
+            sendErrAndClose(TftpPacketConsts.ERRCODE_UNDEF, "Write file error.");
+            return;
+        }
+
+        try {
+            if (loop.getBlockCache() != null && sink.getKey() != null) {
+                //drop the cached blocks of the replaced file.
+                loop.getBlockCache().invalidate(sink.getKey());
+            }
+            if (isTraceEnabled()) {
+                log(LogLevel.TRACE, "ACK-Send:blockNo<%s>", BlockNumber.toUnsigned(ackBlockNo));
+            }
+            send(PacketView.putAck(loop.getSendBuffer(), ackBlockNo));
+            finish();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    protected void onRetransmit() throws IOException {
+        windowCount = 0;
+        if (oackPacket != null) {
+            log(LogLevel.INFO, "OACK-Send:options<%s>", options.getAcceptedOptions());
+            sendAndWait(oackPacket);
+            return;
+        }
+
+        //encode the ack in the send buffer of loop.
+        if (isTraceEnabled()) {
+            log(LogLevel.TRACE, "ACK-Send:blockNo<%s>", BlockNumber.toUnsigned(ackBlockNo));
+        }
+        send(PacketView.putAck(loop.getSendBuffer(), ackBlockNo));
+        startTimeout();
+    }
+
+    @Override
+    protected void onClose() throws IOException {
+        if (sink != null) {
+            //drop the data if not finished.
+            sink.close();
+        }
+    }
+}
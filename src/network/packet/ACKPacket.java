@@ -3,6 +3,7 @@ package network.packet;
 import utils.DataUtils;
 
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
 
 /**
  * ACK packet
@@ -25,9 +26,18 @@ public class ACKPacket extends TftpPacket{
         initBuffer();
     }
 
+    public ACKPacket(InetSocketAddress address, short blockNo){
+        super(address, TftpPacketConsts.OP_ACK);
+        this.blockNo = blockNo;
+        initBuffer();
+    }
+
     public ACKPacket(DatagramPacket datagramPacket) {
         super(datagramPacket);
-        this.blockNo = DataUtils.bytesToShort(datagramPacket.getData(), 2);
+        if (datagramPacket.getLength() < 4) {
+            throw new IllegalArgumentException("Malformed ACK, length " + datagramPacket.getLength());
+        }
+        this.blockNo = DataUtils.bytesToShort(datagramPacket.getData(), datagramPacket.getOffset() + 2);
         initBuffer();
     }
 
@@ -0,0 +1,95 @@
+package network.packet;
+
+/**
+ * the block number of DATA and ACK is unsigned 16 bits, it rolls over after 65535.
+ * the transfers count the blocks by the 64 bits seq and only change it to the block number on the wire.
+ */
+public final class BlockNumber {
+
+    /**
+     * the max block number.
+     */
+    public static final int MAX = 0xFFFF;
+
+    /**
+     * roll over to 0 after 65535, as most clients do.
+     */
+    public static final int ROLLOVER_ZERO = 0;
+
+    /**
+     * roll over to 1 after 65535.
+     */
+    public static final int ROLLOVER_ONE = 1;
+
+    private BlockNumber() {
+    }
+
+    /**
+     * change the seq to block number.
+     * @param seq the seq of block start from 1, 0 is the ack of the request or OACK.
+     * @param rollover the block number after 65535, {@link #ROLLOVER_ZERO} or {@link #ROLLOVER_ONE}.
+     * @return
+     */
+    public static short fromSeq(long seq, int rollover) {
+        if (seq <= MAX) {
+            return (short) Math.max(0, seq);
+        }
+        if (rollover == ROLLOVER_ZERO) {
+            return (short) seq;
+        }
+        return (short) ((seq - 1) % MAX + 1);
+    }
+
+    /**
+     * change the block number back to the seq, the first one from the given seq.
+     * @param fromSeq the least seq, such as the last acked.
+     * @param blockNo
+     * @param rollover
+     * @return the seq not less than fromSeq, -1 if the block number never comes again, such as 0 rolled over to 1.
+     */
+    public static long toSeq(long fromSeq, short blockNo, int rollover) {
+        int target = toUnsigned(blockNo);
+        if (rollover == ROLLOVER_ZERO) {
+            return fromSeq + ((target - toUnsigned(fromSeq(fromSeq, rollover))) & MAX);
+        }
+        //the block numbers repeat 1 to 65535 from seq 1.
+        if (target == 0) {
+            return fromSeq <= 0 ? 0 : -1;
+        }
+        long start = Math.max(1, fromSeq);
+        return start + Math.floorMod(target - toUnsigned(fromSeq(start, rollover)), MAX);
+    }
+
+    /**
+     * the client may roll over to the other number, find it by the first block after 65535.
+     * @param seq the seq of block expect to receive.
+     * @param blockNo the block number received.
+     * @param rollover the rollover used now.
+     * @return the rollover of client.
+     */
+    public static int detectRollover(long seq, short blockNo, int rollover) {
+        int other = rollover == ROLLOVER_ZERO ? ROLLOVER_ONE : ROLLOVER_ZERO;
+        if (seq == MAX + 1 && blockNo == fromSeq(seq, other)) {
+            return other;
+        }
+        return rollover;
+    }
+
+    /**
+     * get the block number without sign, such as for log.
+     * @param blockNo
+     * @return 0 to 65535.
+     */
+    public static int toUnsigned(short blockNo) {
+        return blockNo & MAX;
+    }
+
+    /**
+     * check the rollover is valid.
+     * @param rollover
+     * @return
+     */
+    public static boolean isValidRollover(int rollover) {
+        return rollover == ROLLOVER_ZERO || rollover == ROLLOVER_ONE;
+    }
+}
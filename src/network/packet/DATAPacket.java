@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.function.BooleanSupplier;
 
@@ -14,25 +16,55 @@ public class DATAPacket extends TftpPacket{
     /**
      * byte count of data
      */
-    private final static int DATA_SIZE = 512;
+    private final int blockSize;
 
 
     private byte[] buffer;
 
+    /**
+     * the view of the block data, use to read from file channel.
+     */
+    private ByteBuffer blockView;
+
     /**
      * the count of data read from inputstream.
      */
     private int readSize = 0;
 
+    /**
+     * the source read by position, such as FileChannel::read.
+     */
+    public interface PositionalReader {
+        /**
+         * @param target
+         * @param position
+         * @return the count of bytes read, -1 if the position is at the end.
+         * @throws IOException
+         */
+        int read(ByteBuffer target, long position) throws IOException;
+    }
+
     public DATAPacket(String ip, int port) {
+        this(ip, port, TftpPacketConsts.DEFAULT_BLKSIZE);
+    }
+
+    public DATAPacket(String ip, int port, int blockSize) {
         super(ip, port, TftpPacketConsts.OP_DATA);
-        buffer = new byte[DATA_SIZE + 4];
+        this.blockSize = blockSize;
+        buffer = new byte[blockSize + 4];
+    }
+
+    public DATAPacket(InetSocketAddress address, int blockSize) {
+        super(address, TftpPacketConsts.OP_DATA);
+        this.blockSize = blockSize;
+        buffer = new byte[blockSize + 4];
     }
 
     public DATAPacket(DatagramPacket datagramPacket) {
         super(datagramPacket);
+        blockSize = TftpPacketConsts.DEFAULT_BLKSIZE;
         buffer = new byte[datagramPacket.getLength()];
-        System.arraycopy(datagramPacket.getData(), 0, buffer, 0, buffer.length);
+        System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), buffer, 0, buffer.length);
     }
 
 
@@ -45,7 +77,7 @@ public class DATAPacket extends TftpPacket{
      */
     public BooleanSupplier readBlockData(InputStream inputStream){
         DataUtils.shortToBytes(buffer, getOpCode(), 0);
-        short[] block = {1};
+        long[] seq = {1};
         boolean[] isFinish = {false};
         return () -> {
             try {
@@ -54,25 +86,22 @@ public class DATAPacket extends TftpPacket{
                 }
 
                 //write block number.
-                DataUtils.shortToBytes(buffer, block[0], 2);
+                DataUtils.shortToBytes(buffer, BlockNumber.fromSeq(seq[0], BlockNumber.ROLLOVER_ZERO), 2);
                 //read data from inputstream.
-                int count = inputStream.read(buffer, 4, DATA_SIZE);
+                int count = inputStream.read(buffer, 4, blockSize);
                 if(count < 0){
-                    if(readSize != DATA_SIZE){
+                    if(readSize != blockSize){
                         return false;
                     }
 
-                    //If the entire data file to be transferred is dividable by 512,
+                    //If the entire data file to be transferred is dividable by block size,
                     //the last packet contains 0 data bytes (an empty packet)
                     count = 0;
                     isFinish[0] = true;
                 }
 
                 readSize = count;
-                ++block[0];
-                if(block[0] >= Short.MAX_VALUE){
-                    block[0] = 1;
-                }
+                ++seq[0];
 
                 return true;
             } catch (IOException e) {
@@ -81,6 +110,80 @@ public class DATAPacket extends TftpPacket{
         };
     }
 
+    /**
+     * read one block from input stream, read until the block is full or the stream end.
+     * @param inputStream
+     * @param blockNo
+     * @return the count of data read, less than block size means the last block.
+     * @throws IOException
+     */
+    public int readBlock(InputStream inputStream, short blockNo) throws IOException {
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        DataUtils.shortToBytes(buffer, blockNo, 2);
+        int count = 0;
+        while (count < blockSize){
+            int readCount = inputStream.read(buffer, 4 + count, blockSize - count);
+            if(readCount < 0){
+                break;
+            }
+            count += readCount;
+        }
+
+        readSize = count;
+        return count;
+    }
+
+    /**
+     * read one block by position, such as from the file channel, the position of channel is not changed.
+     * @param reader
+     * @param position
+     * @param blockNo
+     * @return the count of data read, less than block size means the last block.
+     * @throws IOException
+     */
+    public int readBlock(PositionalReader reader, long position, short blockNo) throws IOException {
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        DataUtils.shortToBytes(buffer, blockNo, 2);
+        if(blockView == null){
+            blockView = ByteBuffer.wrap(buffer, 4, blockSize);
+        }
+
+        blockView.clear().position(4);
+        int count = 0;
+        while (blockView.hasRemaining()){
+            int readCount = reader.read(blockView, position + count);
+            if(readCount < 0){
+                break;
+            }
+            count += readCount;
+        }
+
+        readSize = count;
+        return count;
+    }
+
+    /**
+     * fill the block with the data already read, such as from cache.
+     * @param data
+     * @param blockNo
+     * @return the count of data.
+     */
+    public int setBlock(byte[] data, short blockNo) {
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        DataUtils.shortToBytes(buffer, blockNo, 2);
+        System.arraycopy(data, 0, buffer, 4, data.length);
+        readSize = data.length;
+        return readSize;
+    }
+
+    /**
+     * copy the data of the block read.
+     * @return
+     */
+    public byte[] copyBlockData() {
+        return Arrays.copyOfRange(buffer, 4, 4 + readSize);
+    }
+
     @Override
     protected byte[] getPacketDatas() {
         return buffer;
@@ -116,7 +219,16 @@ public class DATAPacket extends TftpPacket{
      * @return
      */
     public boolean isLast(){
-        return buffer.length < DATA_SIZE + 4;
+        return isLast(blockSize);
+    }
+
+    /**
+     * check if packet is last or not by the negotiated block size.
+     * @param blockSize
+     * @return
+     */
+    public boolean isLast(int blockSize){
+        return buffer.length < blockSize + 4;
     }
 
 }
@@ -3,6 +3,7 @@ package network.packet;
 import utils.DataUtils;
 
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
 
 /**
  * err msg
@@ -23,6 +24,13 @@ public class ERRORPacket extends TftpPacket{
         init();
     }
 
+    public ERRORPacket(InetSocketAddress address, short errCode, String errMsg) {
+        super(address, TftpPacketConsts.OP_ERROR);
+        this.errCode = errCode;
+        this.errMsg = errMsg;
+        init();
+    }
+
     private void init() {
         byte[] errMsgBytes = errMsg.getBytes();
         buffer = new byte[errMsgBytes.length + 5];
@@ -33,9 +41,14 @@ public class ERRORPacket extends TftpPacket{
 
     public ERRORPacket(DatagramPacket datagramPacket) {
         super(datagramPacket);
-        buffer = datagramPacket.getData();
+        if(datagramPacket.getLength() < 4){
+            throw new IllegalArgumentException("Malformed ERROR, length " + datagramPacket.getLength());
+        }
+        //copy the bytes received, the buffer of the datagram packet may be reused.
+        buffer = new byte[datagramPacket.getLength()];
+        System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), buffer, 0, buffer.length);
         this.errCode = DataUtils.bytesToShort(buffer, 2);
-        this.errMsg = new String(buffer, 4, datagramPacket.getLength() - 5);
+        this.errMsg = new String(buffer, 4, TftpOptions.indexOfZero(buffer, 4, buffer.length) - 4);
     }
 
     @Override
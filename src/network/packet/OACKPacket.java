@@ -0,0 +1,53 @@
+package network.packet;
+
+import utils.DataUtils;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * option acknowledgment packet
+ */
+public class OACKPacket extends TftpPacket{
+
+    /**
+     * the accepted options.
+     */
+    private Map<String, String> options;
+
+    private byte[] buffer;
+
+    public OACKPacket(String ip, int port, Map<String, String> options) {
+        this(new InetSocketAddress(ip, port), options);
+    }
+
+    public OACKPacket(InetSocketAddress address, Map<String, String> options) {
+        super(address, TftpPacketConsts.OP_OACK);
+        this.options = options;
+        buffer = new byte[2 + TftpOptions.getOptionsLength(options)];
+        DataUtils.shortToBytes(buffer, getOpCode(), 0);
+        TftpOptions.writeOptions(options, buffer, 2);
+    }
+
+    public OACKPacket(DatagramPacket datagramPacket) {
+        super(datagramPacket);
+        buffer = new byte[datagramPacket.getLength()];
+        System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), buffer, 0, buffer.length);
+        options = TftpOptions.readOptions(buffer, 2, buffer.length);
+    }
+
+    @Override
+    protected byte[] getPacketDatas() {
+        return buffer;
+    }
+
+    @Override
+    protected int getPacketLength() {
+        return buffer.length;
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+}
@@ -0,0 +1,191 @@
+package network.packet;
+
+import utils.DataUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * the flyweight view of the packet in a reusable buffer, decode and encode in place without allocation.
+ * one view is reused for every packet received by the same thread.
+ */
+public class PacketView {
+
+    /**
+     * the packet bytes are from 0 to limit.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * the buffer wrap the byte array, reused while the array is the same.
+     */
+    private ByteBuffer arrayBuffer;
+
+    /**
+     * the duplicate of buffer to view the data, reused while the buffer is the same.
+     */
+    private ByteBuffer dataBuffer;
+
+    private ByteBuffer dataSource;
+
+    /**
+     * view the packet in buffer, the packet bytes are from 0 to limit.
+     * @param buffer
+     * @return this
+     */
+    public PacketView wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+
+    /**
+     * view the packet in byte array, such as the data of DatagramPacket.
+     * @param data
+     * @param length
+     * @return this
+     */
+    public PacketView wrap(byte[] data, int length) {
+        if (arrayBuffer == null || arrayBuffer.array() != data) {
+            arrayBuffer = ByteBuffer.wrap(data);
+        }
+        arrayBuffer.clear().limit(length);
+        return wrap(arrayBuffer);
+    }
+
+    /**
+     * get the opCode.
+     * a DATA or ACK shorter than 4 bytes and an ERROR without its code or the '0' after the msg are malformed,
+     * they read as -1, so the receivers drop them as stray packets.
+     * @return -1 if the packet is too short.
+     */
+    public short getOpCode() {
+        int limit = buffer.limit();
+        if (limit < 2) {
+            return -1;
+        }
+        short opCode = DataUtils.getShort(buffer, 0);
+        switch (opCode) {
+            case TftpPacketConsts.OP_DATA:
+            case TftpPacketConsts.OP_ACK:
+                return limit < 4 ? -1 : opCode;
+            case TftpPacketConsts.OP_ERROR:
+                return limit < 4 || indexOfZero(4) < 0 ? -1 : opCode;
+            default:
+                return opCode;
+        }
+    }
+
+    /**
+     * get the block number of DATA or ACK, only valid after getOpCode checked the packet.
+     * @return
+     */
+    public short getBlockNo() {
+        return DataUtils.getShort(buffer, 2);
+    }
+
+    /**
+     * get the byte count of the data of DATA.
+     * @return
+     */
+    public int getDataLength() {
+        return Math.max(0, buffer.limit() - 4);
+    }
+
+    /**
+     * check the DATA is last or not by the negotiated block size.
+     * @param blockSize
+     * @return
+     */
+    public boolean isLast(int blockSize) {
+        return getDataLength() < blockSize;
+    }
+
+    /**
+     * write the data of DATA to outputstream.
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeData(OutputStream outputStream) throws IOException {
+        int length = getDataLength();
+        if (length == 0) {
+            return;
+        }
+
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + 4, length);
+            return;
+        }
+
+        byte[] data = new byte[length];
+        ByteBuffer dataView = buffer.duplicate();
+        dataView.position(4);
+        dataView.get(data);
+        outputStream.write(data);
+    }
+
+    /**
+     * get the data of DATA, share the bytes of the packet buffer.
+     * the view is reused and only valid until the next packet.
+     * @return the data is from position to limit.
+     */
+    public ByteBuffer getData() {
+        if (dataSource != buffer) {
+            dataBuffer = buffer.duplicate();
+            dataSource = buffer;
+        }
+        int limit = buffer.limit();
+        dataBuffer.clear().limit(limit).position(Math.min(4, limit));
+        return dataBuffer;
+    }
+
+    /**
+     * get the error code of ERROR, only valid after getOpCode checked the packet.
+     * @return
+     */
+    public short getErrCode() {
+        return DataUtils.getShort(buffer, 2);
+    }
+
+    /**
+     * get the error msg of ERROR, the msg is terminated by a '0' byte.
+     * @return the bytes before the '0', or before the end if the packet has no '0'.
+     */
+    public String getErrMsg() {
+        int end = indexOfZero(4);
+        int length = Math.max(0, (end < 0 ? buffer.limit() : end) - 4);
+        byte[] msgBytes = new byte[length];
+        ByteBuffer msgView = buffer.duplicate();
+        msgView.position(4);
+        msgView.get(msgBytes);
+        return new String(msgBytes);
+    }
+
+    /**
+     * encode the ACK into the buffer, the buffer is ready to send after return.
+     * @param target
+     * @param blockNo
+     * @return target
+     */
+    public static ByteBuffer putAck(ByteBuffer target, short blockNo) {
+        target.clear();
+        DataUtils.putShort(target, 0, TftpPacketConsts.OP_ACK);
+        DataUtils.putShort(target, 2, blockNo);
+        target.limit(4);
+        return target;
+    }
+
+    /**
+     * find the first '0' byte from the index.
+     * @param from
+     * @return -1 if not found before the limit.
+     */
+    private int indexOfZero(int from) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
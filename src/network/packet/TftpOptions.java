@@ -0,0 +1,91 @@
+package network.packet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * the codec of the options of RFC 2347, shared by the requests and the OACK.
+ */
+final class TftpOptions {
+
+    private TftpOptions(){
+    }
+
+    /**
+     * read the options, every option is name and value terminated by a '0' byte.
+     * @param data
+     * @param start
+     * @param end
+     * @return the options, name is lower case.
+     */
+    static Map<String, String> readOptions(byte[] data, int start, int end){
+        Map<String, String> options = new LinkedHashMap<>();
+        int index = start;
+        while (index < end){
+            int nameEnd = indexOfZero(data, index, end);
+            int valueEnd = indexOfZero(data, nameEnd + 1, end);
+            if(valueEnd >= end){
+                //incomplete option, ignore it.
+                break;
+            }
+
+            String name = new String(data, index, nameEnd - index);
+            String value = new String(data, nameEnd + 1, valueEnd - nameEnd - 1);
+            options.put(name.toLowerCase(), value);
+            index = valueEnd + 1;
+        }
+        return options;
+    }
+
+    /**
+     * get the byte count of the options.
+     * @param options
+     * @return
+     */
+    static int getOptionsLength(Map<String, String> options){
+        int length = 0;
+        for (Map.Entry<String, String> entry : options.entrySet()) {
+            length += entry.getKey().getBytes().length + entry.getValue().getBytes().length + 2;
+        }
+        return length;
+    }
+
+    /**
+     * write the options into the bytes.
+     * @param options
+     * @param bytes
+     * @param start
+     * @return the end index.
+     */
+    static int writeOptions(Map<String, String> options, byte[] bytes, int start){
+        int index = start;
+        for (Map.Entry<String, String> entry : options.entrySet()) {
+            byte[] nameBytes = entry.getKey().getBytes();
+            System.arraycopy(nameBytes, 0, bytes, index, nameBytes.length);
+            index += nameBytes.length;
+            bytes[index++] = 0;
+
+            byte[] valueBytes = entry.getValue().getBytes();
+            System.arraycopy(valueBytes, 0, bytes, index, valueBytes.length);
+            index += valueBytes.length;
+            bytes[index++] = 0;
+        }
+        return index;
+    }
+
+    /**
+     * find the index of the '0' byte.
+     * @param data
+     * @param start
+     * @param end
+     * @return end if not found.
+     */
+    static int indexOfZero(byte[] data, int start, int end){
+        for (int i = start; i < end; i++) {
+            if(data[i] == 0){
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -10,40 +10,48 @@ import java.net.InetSocketAddress;
  */
 public abstract class TftpPacket {
     /**
-     * ip info
+     * ip and port info
      */
-    private String ip;
+    private InetSocketAddress address;
 
     /**
-     * port info
+     * opcode
      */
-    private int port;
+    private short opCode;
 
     /**
-     * opcode
+     * the datagram packet reused by every build.
      */
-    private short opCode;
+    private DatagramPacket datagramPacket;
 
     public TftpPacket(String ip, int port, short opCode) {
+        this(new InetSocketAddress(ip, port), opCode);
+    }
+
+    public TftpPacket(InetSocketAddress address, short opCode) {
         this.opCode = opCode;
-        this.ip = ip;
-        this.port = port;
+        this.address = address;
     }
 
     public TftpPacket(DatagramPacket datagramPacket) {
-        short opCode = DataUtils.bytesToShort(datagramPacket.getData(), 0);
+        short opCode = DataUtils.bytesToShort(datagramPacket.getData(), datagramPacket.getOffset());
         this.opCode = opCode;
-        this.ip = datagramPacket.getAddress().getHostAddress();
-        this.port = datagramPacket.getPort();
+        this.address = (InetSocketAddress) datagramPacket.getSocketAddress();
     }
 
     /**
      * build get datagarmPacket.
+     * the datagram packet is reused by the next build, so do not keep it.
      *
      * @return
      */
     public DatagramPacket build() {
-        return new DatagramPacket(getPacketDatas(), getPacketLength(), new InetSocketAddress(ip, port));
+        if (datagramPacket == null) {
+            datagramPacket = new DatagramPacket(getPacketDatas(), getPacketLength(), address);
+        } else {
+            datagramPacket.setData(getPacketDatas(), 0, getPacketLength());
+        }
+        return datagramPacket;
     }
 
 
@@ -70,11 +78,15 @@ public abstract class TftpPacket {
     }
 
     public String getIp() {
-        return ip;
+        return address.getAddress().getHostAddress();
     }
 
     public int getPort() {
-        return port;
+        return address.getPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
     }
 
 }
@@ -28,6 +28,11 @@ public interface TftpPacketConsts {
      */
     public static final short OP_ERROR = 5;
 
+    /**
+     * option acknowledgment opcode.
+     */
+    public static final short OP_OACK = 6;
+
 
     /**
      * Undefined error
@@ -44,13 +49,73 @@ public interface TftpPacketConsts {
      */
     public static final short ERRCODE_ACCESS = 2;
 
+    /**
+     * Disk full or allocation exceeded
+     */
+    public static final short ERRCODE_DISKFULL = 3;
+
     /**
      * Illegal Opcode
      */
     public static final short ERRCODE_ILLOP = 4;
 
+    /**
+     * Option negotiation refused
+     */
+    public static final short ERRCODE_OPTION = 8;
+
     /**
      * request mode.
      */
     public static final String MODE_OCTET = "octet";
+
+    /**
+     * block size option.
+     */
+    public static final String OPTION_BLKSIZE = "blksize";
+
+    /**
+     * window size option.
+     */
+    public static final String OPTION_WINDOWSIZE = "windowsize";
+
+    /**
+     * max count of blocks in one window.
+     */
+    public static final int MAX_WINDOWSIZE = 65535;
+
+    /**
+     * timeout option, the seconds to wait before retransmit.
+     */
+    public static final String OPTION_TIMEOUT = "timeout";
+
+    /**
+     * max seconds of timeout option.
+     */
+    public static final int MAX_TIMEOUT = 255;
+
+    /**
+     * transfer size option, the byte count of file.
+     */
+    public static final String OPTION_TSIZE = "tsize";
+
+    /**
+     * multicast option of RFC 2090, answered with the group address, port and the master flag.
+     */
+    public static final String OPTION_MULTICAST = "multicast";
+
+    /**
+     * default byte count of data block.
+     */
+    public static final int DEFAULT_BLKSIZE = 512;
+
+    /**
+     * min byte count of data block can negotiate.
+     */
+    public static final int MIN_BLKSIZE = 8;
+
+    /**
+     * max byte count of data block can negotiate.
+     */
+    public static final int MAX_BLKSIZE = 65464;
 }
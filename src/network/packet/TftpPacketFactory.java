@@ -5,7 +5,9 @@ import utils.DataUtils;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.Map;
 
 /**
  * use to build the TftpPacket.
@@ -39,6 +41,34 @@ public class TftpPacketFactory {
         return new WRRQPacket(ip, port, TftpPacketConsts.OP_RRQ, fileName, mode);
     }
 
+    /**
+     * build the RRQ packet with options.
+     *
+     * @param ip
+     * @param port
+     * @param fileName
+     * @param mode
+     * @param options
+     * @return
+     */
+    public static WRRQPacket buildRRQPacket(String ip, int port, String fileName, String mode, Map<String, String> options) {
+        return new WRRQPacket(ip, port, TftpPacketConsts.OP_RRQ, fileName, mode, options);
+    }
+
+    /**
+     * build the WRQ packet with options.
+     *
+     * @param ip
+     * @param port
+     * @param fileName
+     * @param mode
+     * @param options
+     * @return
+     */
+    public static WRRQPacket buildWRQPacket(String ip, int port, String fileName, String mode, Map<String, String> options) {
+        return new WRRQPacket(ip, port, TftpPacketConsts.OP_WRQ, fileName, mode, options);
+    }
+
     /**
      * build the ACK packet
      * @param ip
@@ -56,7 +86,7 @@ public class TftpPacketFactory {
      * @param blockNo
      */
     public static ACKPacket buildACKPacket(TftpPacket tarPacket, short blockNo) {
-        return new ACKPacket(tarPacket.getIp(), tarPacket.getPort(), blockNo);
+        return new ACKPacket(tarPacket.getAddress(), blockNo);
     }
 
     /**
@@ -74,7 +104,25 @@ public class TftpPacketFactory {
      * @param tarPacket
      */
     public static DATAPacket buildDatapacket(TftpPacket tarPacket) {
-        return new DATAPacket(tarPacket.getIp(), tarPacket.getPort());
+        return new DATAPacket(tarPacket.getAddress(), TftpPacketConsts.DEFAULT_BLKSIZE);
+    }
+
+    /**
+     * build the data packet with the negotiated block size from tarPacket
+     * @param tarPacket
+     * @param blockSize
+     */
+    public static DATAPacket buildDatapacket(TftpPacket tarPacket, int blockSize) {
+        return new DATAPacket(tarPacket.getAddress(), blockSize);
+    }
+
+    /**
+     * build the option ack packet from tarPacket
+     * @param tarPacket
+     * @param options the accepted options
+     */
+    public static OACKPacket buildOACKPacket(TftpPacket tarPacket, Map<String, String> options) {
+        return new OACKPacket(tarPacket.getAddress(), options);
     }
 
     /**
@@ -82,7 +130,7 @@ public class TftpPacketFactory {
      * @param tarPacket
      */
     public static ERRORPacket buildERRORpacket(TftpPacket tarPacket, short errCode, String errMsg) {
-        return new ERRORPacket(tarPacket.getIp(), tarPacket.getPort(), errCode, errMsg);
+        return new ERRORPacket(tarPacket.getAddress(), errCode, errMsg);
     }
 
 
@@ -91,9 +139,13 @@ public class TftpPacketFactory {
      * @param datagramPacket
      * @return
      * @throws UnknownHostException
+     * @throws IllegalArgumentException the packet is too short or malformed.
      */
     public static TftpPacket buildTftpPacket(DatagramPacket datagramPacket) throws UnknownHostException, UnsupportedEncodingException {
-        short opCode = DataUtils.bytesToShort(datagramPacket.getData(), 0);
+        if(datagramPacket.getLength() < 2){
+            throw new IllegalArgumentException("Malformed packet, length " + datagramPacket.getLength());
+        }
+        short opCode = DataUtils.bytesToShort(datagramPacket.getData(), datagramPacket.getOffset());
 
         if(TftpPacketConsts.OP_WRQ == opCode || TftpPacketConsts.OP_RRQ == opCode){
             return new WRRQPacket(datagramPacket);
@@ -111,7 +163,11 @@ public class TftpPacketFactory {
             return new ERRORPacket(datagramPacket);
         }
 
-        return new ERRORPacket(datagramPacket.getAddress().getHostAddress(), datagramPacket.getPort(), TftpPacketConsts.ERRCODE_ILLOP, "Illegal Opcode");
+        if(TftpPacketConsts.OP_OACK == opCode){
+            return new OACKPacket(datagramPacket);
+        }
+
+        return new ERRORPacket((InetSocketAddress) datagramPacket.getSocketAddress(), TftpPacketConsts.ERRCODE_ILLOP, "Illegal Opcode");
     }
 
 
@@ -4,6 +4,8 @@ import utils.DataUtils;
 
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * write and read data request packet
@@ -19,30 +21,47 @@ public class WRRQPacket extends TftpPacket{
      */
     private String mode;
 
+    /**
+     * the request options, name is lower case.
+     */
+    private Map<String, String> options;
+
     private byte[] packetDatas;
 
     public WRRQPacket(String ip, int port, short opCode, String fileName, String mode){
+        this(ip, port, opCode, fileName, mode, Collections.emptyMap());
+    }
+
+    public WRRQPacket(String ip, int port, short opCode, String fileName, String mode, Map<String, String> options){
         super(ip, port, opCode);
         this.fileName = fileName;
         this.mode = mode;
+        this.options = options;
         initPacketDatas();
     }
 
 
+    /**
+     * parse the request, only the bytes received are read, the buffer may be reused by the last request.
+     * @param datagramPacket
+     * @throws IllegalArgumentException the file name is not terminated.
+     */
     public WRRQPacket(DatagramPacket datagramPacket){
         super(datagramPacket);
         byte[] data = datagramPacket.getData();
-        int fileNameEndIndex = -1;
-        for (int i = 3; i < data.length; i++) {
-           if(data[i] == 0){
-               fileNameEndIndex = i;
-               break;
-           }
+        int start = datagramPacket.getOffset() + 2;
+        int end = datagramPacket.getOffset() + datagramPacket.getLength();
+        int fileNameEndIndex = TftpOptions.indexOfZero(data, start, end);
+        if(fileNameEndIndex >= end){
+            throw new IllegalArgumentException("Malformed request, the file name is not terminated.");
         }
 
-        this.fileName = new String(data, 2, fileNameEndIndex - 2);
+        this.fileName = new String(data, start, fileNameEndIndex - start);
         int modeStartIndex = fileNameEndIndex + 1;
-        this.mode = new String(data, modeStartIndex, datagramPacket.getLength() - modeStartIndex - 1);
+        int modeEndIndex = TftpOptions.indexOfZero(data, modeStartIndex, end);
+        this.mode = new String(data, modeStartIndex, modeEndIndex - modeStartIndex);
+        //the options follow the mode.
+        this.options = TftpOptions.readOptions(data, modeEndIndex + 1, end);
         initPacketDatas();
     }
 
@@ -59,7 +78,7 @@ public class WRRQPacket extends TftpPacket{
         byte[] fileNameBytes = fileName.getBytes();
         byte[] modeBytes = mode.getBytes();
 
-        int dataByteCount = 4 + fileNameBytes.length + modeBytes.length;
+        int dataByteCount = 4 + fileNameBytes.length + modeBytes.length + TftpOptions.getOptionsLength(options);
         packetDatas = new byte[dataByteCount];
 
         DataUtils.shortToBytes(packetDatas, getOpCode(), 0);
@@ -68,7 +87,9 @@ public class WRRQPacket extends TftpPacket{
         packetDatas[2 + fileNameBytes.length] = 0;
         System.arraycopy(modeBytes, 0, packetDatas, 3 + fileNameBytes.length, modeBytes.length);
         // terminated by a ‘0’ byte
-        packetDatas[packetDatas.length - 1] = 0;
+        int modeEndIndex = 3 + fileNameBytes.length + modeBytes.length;
+        packetDatas[modeEndIndex] = 0;
+        TftpOptions.writeOptions(options, packetDatas, modeEndIndex + 1);
     }
 
     @Override
@@ -83,4 +104,8 @@ public class WRRQPacket extends TftpPacket{
     public String getMode() {
         return mode;
     }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
 }
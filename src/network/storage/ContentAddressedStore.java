@@ -0,0 +1,406 @@
+package network.storage;
+
+import network.io.FsyncPolicy;
+import network.io.UploadWriter;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * the deduplicating store, a file is the list of the hashes of its chunks and the chunks are stored once by hash,
+ * so the identical uploads share the chunks on disk.
+ * the layout of the root dir:
+ * objects/ab/abcd... the chunk named by its sha-256.
+ * refs/name the manifest of the file: the size and modified time, then the hash of every chunk.
+ * staging/ the uploads not committed.
+ * the upload is written to the staging by the upload writer, the chunks are stored by the writer thread on commit.
+ * the chunks not referenced after the files are replaced are kept, there is no garbage collection.
+ */
+public class ContentAddressedStore implements FileStore {
+
+    /**
+     * the size of one chunk, the last chunk of a file may be shorter.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * the root dir under the base dir if no root is given, the path resolver never serves it.
+     */
+    public static final String DEFAULT_DIR_NAME = ".tftp-cas";
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final Path objectsDir;
+
+    private final Path refsDir;
+
+    private final Path stagingDir;
+
+    private final UploadWriter uploadWriter;
+
+    /**
+     * the manifest of every file by name.
+     */
+    private final Map<String, Manifest> manifests = new ConcurrentHashMap<>();
+
+    private final LongAdder storedChunks = new LongAdder();
+
+    private final LongAdder sharedChunks = new LongAdder();
+
+    /**
+     * open the store and load the manifests, the dirs are created if not exist.
+     * @param root
+     * @param uploadWriter the write-behind stage of uploads.
+     * @throws IOException
+     */
+    public ContentAddressedStore(Path root, UploadWriter uploadWriter) throws IOException {
+        this.objectsDir = Files.createDirectories(root.resolve("objects"));
+        this.refsDir = Files.createDirectories(root.resolve("refs"));
+        this.stagingDir = Files.createDirectories(root.resolve("staging"));
+        this.uploadWriter = uploadWriter;
+        newDigest();
+
+        try (Stream<Path> stream = Files.list(refsDir)) {
+            for (Path ref : (Iterable<Path>) stream::iterator) {
+                String fileName = ref.getFileName().toString();
+                if (fileName.startsWith(".")) {
+                    //the manifest not committed.
+                    Files.deleteIfExists(ref);
+                    continue;
+                }
+                manifests.put(URLDecoder.decode(fileName, StandardCharsets.UTF_8), readManifest(ref));
+            }
+        }
+        try (Stream<Path> stream = Files.list(stagingDir)) {
+            for (Path staged : (Iterable<Path>) stream::iterator) {
+                Files.deleteIfExists(staged);
+            }
+        }
+    }
+
+    @Override
+    public StoredFile open(String name) throws IOException {
+        Manifest manifest = manifests.get(PathResolver.normalize(name));
+        return manifest != null ? new ContentAddressedFile(manifest) : null;
+    }
+
+    @Override
+    public WriteSession create(String name, long expectedSize) throws IOException {
+        String normalized = PathResolver.normalize(name);
+        Path staged = stagingDir.resolve(Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        return new ContentAddressedWriteSession(normalized, staged, uploadWriter.open(staged, expectedSize));
+    }
+
+    /**
+     * get the count of chunks written to the objects.
+     * @return
+     */
+    public long getStoredChunks() {
+        return storedChunks.sum();
+    }
+
+    /**
+     * get the count of chunks uploaded but already stored, not written again.
+     * @return
+     */
+    public long getSharedChunks() {
+        return sharedChunks.sum();
+    }
+
+    public int getFileCount() {
+        return manifests.size();
+    }
+
+    /**
+     * split the staged file into chunks and publish the manifest, the staged file is deleted.
+     * @param name
+     * @param staged
+     * @throws IOException
+     */
+    private void ingest(String name, Path staged) throws IOException {
+        MessageDigest digest = newDigest();
+        boolean force = uploadWriter.getFsyncPolicy() != FsyncPolicy.NONE;
+        List<String> hashes = new ArrayList<>();
+        long size;
+        try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.READ)) {
+            size = channel.size();
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                chunk.clear().limit((int) Math.min(CHUNK_SIZE, size - position));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, position + chunk.position()) < 0) {
+                        throw new IOException("Staged file truncated:" + staged);
+                    }
+                }
+                chunk.flip();
+                digest.update(chunk.duplicate());
+                String hash = toHex(digest.digest());
+                storeChunk(hash, chunk, force);
+                hashes.add(hash);
+            }
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+
+        Manifest manifest = new Manifest(size, System.currentTimeMillis(), hashes);
+        StringBuilder builder = new StringBuilder();
+        builder.append(manifest.size).append(' ').append(manifest.lastModified).append('\n');
+        for (String hash : hashes) {
+            builder.append(hash).append('\n');
+        }
+        Path ref = refsDir.resolve(URLEncoder.encode(name, StandardCharsets.UTF_8));
+        Path temp = refsDir.resolve("." + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        writeAndMove(temp, ref, ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8)), force);
+        manifests.put(name, manifest);
+    }
+
+    /**
+     * write the chunk if no chunk of the hash.
+     * @param hash
+     * @param chunk
+     * @param force
+     * @throws IOException
+     */
+    private void storeChunk(String hash, ByteBuffer chunk, boolean force) throws IOException {
+        Path object = toObject(hash);
+        if (Files.exists(object)) {
+            sharedChunks.increment();
+            return;
+        }
+        //the same chunk stored by another upload at the same time has the same content, either one wins.
+        Path dir = Files.createDirectories(object.getParent());
+        Path temp = dir.resolve("." + hash + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        writeAndMove(temp, object, chunk, force);
+        storedChunks.increment();
+    }
+
+    /**
+     * write the temp file and move it to the target, so the target is never half written.
+     * @param temp
+     * @param target replaced if exists.
+     * @param data
+     * @param force
+     * @throws IOException
+     */
+    private void writeAndMove(Path temp, Path target, ByteBuffer data, boolean force) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            if (force) {
+                channel.force(true);
+            }
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private Manifest readManifest(Path ref) throws IOException {
+        List<String> lines = Files.readAllLines(ref, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IOException("Empty manifest:" + ref);
+        }
+        String[] header = lines.get(0).split(" ");
+        return new Manifest(Long.parseLong(header[0]), Long.parseLong(header[1]), new ArrayList<>(lines.subList(1, lines.size())));
+    }
+
+    private Path toObject(String hash) {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * one version of a file, the same chunks make the same key.
+     */
+    private static class Manifest {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final List<String> hashes;
+
+        private final String key;
+
+        private Manifest(long size, long lastModified, List<String> hashes) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hashes = hashes;
+            MessageDigest digest = newDigest();
+            for (String hash : hashes) {
+                digest.update(hash.getBytes(StandardCharsets.US_ASCII));
+            }
+            this.key = "cas:" + toHex(digest.digest()) + ":" + size;
+        }
+    }
+
+    /**
+     * read the chunks of the manifest, the chunk read last is kept open.
+     */
+    private class ContentAddressedFile implements StoredFile {
+
+        private final Manifest manifest;
+
+        private FileChannel chunkChannel;
+
+        private int chunkIndex = -1;
+
+        private ContentAddressedFile(Manifest manifest) {
+            this.manifest = manifest;
+        }
+
+        @Override
+        public int read(ByteBuffer target, long position) throws IOException {
+            if (position >= manifest.size) {
+                return -1;
+            }
+            int count = 0;
+            while (target.hasRemaining() && position + count < manifest.size) {
+                long current = position + count;
+                FileChannel channel = openChunk((int) (current / CHUNK_SIZE));
+                int limit = target.limit();
+                target.limit(target.position() + (int) Math.min(target.remaining(), CHUNK_SIZE - current % CHUNK_SIZE));
+                int readCount;
+                try {
+                    readCount = channel.read(target, current % CHUNK_SIZE);
+                } finally {
+                    target.limit(limit);
+                }
+                if (readCount < 0) {
+                    throw new IOException("Chunk truncated:" + manifest.hashes.get(chunkIndex));
+                }
+                count += readCount;
+            }
+            return count;
+        }
+
+        private FileChannel openChunk(int index) throws IOException {
+            if (index != chunkIndex) {
+                close();
+                chunkChannel = FileChannel.open(toObject(manifest.hashes.get(index)), StandardOpenOption.READ);
+                chunkIndex = index;
+            }
+            return chunkChannel;
+        }
+
+        @Override
+        public long size() {
+            return manifest.size;
+        }
+
+        @Override
+        public long lastModified() {
+            return manifest.lastModified;
+        }
+
+        @Override
+        public String getKey() {
+            return manifest.key;
+        }
+
+        @Override
+        public boolean isMemoryResident() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (chunkChannel != null) {
+                chunkChannel.close();
+                chunkChannel = null;
+                chunkIndex = -1;
+            }
+        }
+    }
+
+    /**
+     * write the staged file behind by the upload writer, ingest it into chunks on commit.
+     */
+    private class ContentAddressedWriteSession implements WriteSession {
+
+        private final String name;
+
+        private final Path staged;
+
+        private final UploadWriter.FileSink sink;
+
+        private ContentAddressedWriteSession(String name, Path staged, UploadWriter.FileSink sink) {
+            this.name = name;
+            this.staged = staged;
+            this.sink = sink;
+        }
+
+        @Override
+        public boolean write(ByteBuffer src, long timeoutMs) throws IOException {
+            return sink.write(src, timeoutMs);
+        }
+
+        @Override
+        public CompletableFuture<Void> commit() {
+            //run on the writer thread finishing the staged file.
+            return sink.commit().thenRun(() -> {
+                try {
+                    ingest(name, staged);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        @Override
+        public void abort() {
+            sink.abort();
+        }
+
+        @Override
+        public String getKey() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            sink.close();
+        }
+    }
+}
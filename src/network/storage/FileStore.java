@@ -0,0 +1,38 @@
+package network.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * the storage of the served files, the engines read and write the files only through it.
+ * the name is the file name of the request, the names out of the store are refused by AccessDeniedException.
+ */
+public interface FileStore extends Closeable {
+
+    /**
+     * open the file to read by position.
+     * @param name
+     * @return null if not found.
+     * @throws java.nio.file.AccessDeniedException the name is out of the store.
+     * @throws IOException the file exists but can not be opened.
+     */
+    StoredFile open(String name) throws IOException;
+
+    /**
+     * start to write the file, the readers see it after commit and the readers opened before keep the old content.
+     * @param name
+     * @param expectedSize the size of file if known, such as the tsize option, -1 if not.
+     * @return
+     * @throws network.io.QuotaExceededException the expected size is over the quota or the free space.
+     * @throws java.nio.file.AccessDeniedException the name is out of the store.
+     * @throws IOException
+     */
+    WriteSession create(String name, long expectedSize) throws IOException;
+
+    /**
+     * release the resources of the store, the files opened are still readable until closed.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,105 @@
+package network.storage;
+
+import network.io.UploadWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * the files of the base dir, the uploads are written behind by the upload writer.
+ * the names are resolved by the path resolver, the metadata of the hot files is cached.
+ */
+public class FileSystemStore implements FileStore {
+
+    public static final int DEFAULT_PATH_CACHE_SIZE = 4096;
+
+    private final String baseDir;
+
+    private final UploadWriter uploadWriter;
+
+    private final PathResolver resolver;
+
+    public FileSystemStore(String baseDir, UploadWriter uploadWriter) {
+        this(baseDir, uploadWriter, DEFAULT_PATH_CACHE_SIZE);
+    }
+
+    /**
+     * @param baseDir
+     * @param uploadWriter the write-behind stage of uploads.
+     * @param pathCacheSize the max files of the cached metadata, 0 to read the metadata by every request.
+     */
+    public FileSystemStore(String baseDir, UploadWriter uploadWriter, int pathCacheSize) {
+        this.baseDir = baseDir;
+        this.uploadWriter = uploadWriter;
+        this.resolver = new PathResolver(Paths.get(baseDir), pathCacheSize);
+    }
+
+    @Override
+    public StoredFile open(String name) throws IOException {
+        return resolver.open(PathResolver.normalize(name));
+    }
+
+    @Override
+    public WriteSession create(String name, long expectedSize) throws IOException {
+        String normalized = PathResolver.normalize(name);
+        return new FileSystemWriteSession(normalized, uploadWriter.open(resolver.resolve(normalized), expectedSize));
+    }
+
+    /**
+     * stop watching the base dir.
+     */
+    @Override
+    public void close() {
+        resolver.close();
+    }
+
+    public String getBaseDir() {
+        return baseDir;
+    }
+
+    public PathResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * drop the cached metadata of the file when the upload is published, before the last ACK is sent.
+     */
+    private class FileSystemWriteSession implements WriteSession {
+
+        private final String name;
+
+        private final UploadWriter.FileSink sink;
+
+        private FileSystemWriteSession(String name, UploadWriter.FileSink sink) {
+            this.name = name;
+            this.sink = sink;
+        }
+
+        @Override
+        public boolean write(ByteBuffer src, long timeoutMs) throws IOException {
+            return sink.write(src, timeoutMs);
+        }
+
+        @Override
+        public CompletableFuture<Void> commit() {
+            return sink.commit().thenRun(() -> resolver.invalidate(name));
+        }
+
+        @Override
+        public void abort() {
+            sink.abort();
+        }
+
+        @Override
+        public String getKey() {
+            return sink.getKey();
+        }
+
+        @Override
+        public void close() {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package network.storage;
+
+import network.io.QuotaExceededException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * the files held in memory, such as the hot boot images, served without any disk io.
+ * the uploads are kept in memory too and lost when the server stop.
+ */
+public class MemoryStore implements FileStore {
+
+    /**
+     * the max length of one array.
+     */
+    private static final int MAX_FILE_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * the max array allocated by the announced size before the data arrives, grown by the data after.
+     */
+    private static final int MAX_PREALLOCATE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * the max bytes of all files and uploads writing, 0 means no limit.
+     */
+    private final long maxBytes;
+
+    /**
+     * the max bytes of one uploaded file, 0 means no limit.
+     */
+    private final long maxFileSize;
+
+    private final Map<String, MemoryFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * the bytes of the files and the arrays of the uploads writing.
+     */
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * the default max bytes of the server, a quarter of the max heap, the transfers and the caches keep the rest.
+     * @return
+     */
+    public static long defaultMaxBytes() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * @param maxBytes the max bytes of all files, 0 means no limit.
+     * @param maxFileSize the max bytes of one uploaded file, 0 means no limit.
+     */
+    public MemoryStore(long maxBytes, long maxFileSize) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+    }
+
+    @Override
+    public StoredFile open(String name) throws IOException {
+        return files.get(PathResolver.normalize(name));
+    }
+
+    @Override
+    public WriteSession create(String name, long expectedSize) throws IOException {
+        if (maxFileSize > 0 && expectedSize > maxFileSize) {
+            throw new QuotaExceededException(String.format("File size %s over the quota %s", expectedSize, maxFileSize));
+        }
+        if (maxBytes > 0 && expectedSize > maxBytes - usedBytes.get()) {
+            throw new QuotaExceededException(String.format("File size %s over the free memory", expectedSize));
+        }
+        String normalized = PathResolver.normalize(name);
+        int capacity = (int) Math.max(0, Math.min(expectedSize, MAX_PREALLOCATE_SIZE));
+        reserve(capacity);
+        return new MemoryWriteSession(normalized, capacity);
+    }
+
+    /**
+     * put the file, replace the old one.
+     * @param name
+     * @param data not copied, must not be changed after.
+     * @throws QuotaExceededException the memory is used up.
+     */
+    public void put(String name, byte[] data) throws QuotaExceededException {
+        reserve(data.length);
+        publish(name, data);
+    }
+
+    /**
+     * load all the regular files under the dir, the name is the relative path separated by '/'.
+     * @param dir
+     * @return the count of files loaded.
+     * @throws QuotaExceededException the memory is used up.
+     * @throws IOException
+     */
+    public int load(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            paths = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        int count = 0;
+        for (Path path : paths) {
+            String name;
+            try {
+                name = PathResolver.normalize(dir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/"));
+            } catch (AccessDeniedException e) {
+                //such as the chunks of the content addressed store.
+                continue;
+            }
+            put(name, Files.readAllBytes(path));
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * remove the file.
+     * @param name
+     * @return false if not found.
+     */
+    public boolean remove(String name) {
+        MemoryFile file = files.remove(name);
+        if (file == null) {
+            return false;
+        }
+        usedBytes.addAndGet(-file.data.length);
+        return true;
+    }
+
+    /**
+     * get the bytes of the files and the uploads writing.
+     * @return
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    private void reserve(long bytes) throws QuotaExceededException {
+        long used = usedBytes.addAndGet(bytes);
+        if (maxBytes > 0 && used > maxBytes) {
+            usedBytes.addAndGet(-bytes);
+            throw new QuotaExceededException(String.format("Memory store over the quota %s", maxBytes));
+        }
+    }
+
+    /**
+     * publish the file, the bytes are reserved before.
+     * @param name
+     * @param data
+     */
+    private void publish(String name, byte[] data) {
+        MemoryFile old = files.put(name, new MemoryFile(name, data, System.currentTimeMillis()));
+        if (old != null) {
+            usedBytes.addAndGet(-old.data.length);
+        }
+    }
+
+    /**
+     * the immutable content, shared by all the readers, close does nothing.
+     */
+    private static class MemoryFile implements StoredFile {
+
+        private final String key;
+
+        private final byte[] data;
+
+        private final long lastModified;
+
+        private MemoryFile(String name, byte[] data, long lastModified) {
+            this.key = "memory:" + name;
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public int read(ByteBuffer target, long position) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = (int) Math.min(target.remaining(), data.length - position);
+            target.put(data, (int) position, count);
+            return count;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public boolean isMemoryResident() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * copy the data into a growing array, the capacity of the array is reserved before allocated.
+     */
+    private class MemoryWriteSession implements WriteSession {
+
+        private final String name;
+
+        private byte[] buffer;
+
+        private int size;
+
+        private boolean closed;
+
+        /**
+         * @param name
+         * @param capacity reserved by the caller.
+         */
+        private MemoryWriteSession(String name, int capacity) {
+            this.name = name;
+            this.buffer = new byte[capacity];
+        }
+
+        @Override
+        public boolean write(ByteBuffer src, long timeoutMs) throws IOException {
+            if (closed) {
+                throw new IOException("Write session is closed.");
+            }
+            int length = src.remaining();
+            if (maxFileSize > 0 && size + (long) length > maxFileSize) {
+                throw new QuotaExceededException(String.format("File size over the quota %s", maxFileSize));
+            }
+            if (size + (long) length > MAX_FILE_SIZE) {
+                throw new QuotaExceededException("File size over the max of memory file.");
+            }
+            if (size + length > buffer.length) {
+                grow(size + length);
+            }
+            src.get(buffer, size, length);
+            size += length;
+            return true;
+        }
+
+        /**
+         * double the array, or only to the size needed if the doubled one is over the quota.
+         * @param minCapacity
+         * @throws QuotaExceededException
+         */
+        private void grow(int minCapacity) throws QuotaExceededException {
+            int capacity = (int) Math.min(MAX_FILE_SIZE, Math.max(minCapacity, buffer.length * 2L));
+            try {
+                reserve(capacity - buffer.length);
+            } catch (QuotaExceededException e) {
+                capacity = minCapacity;
+                reserve(capacity - buffer.length);
+            }
+            buffer = Arrays.copyOf(buffer, capacity);
+        }
+
+        @Override
+        public CompletableFuture<Void> commit() {
+            if (!closed) {
+                closed = true;
+                //give back the capacity not used.
+                usedBytes.addAndGet(size - buffer.length);
+                publish(name, size == buffer.length ? buffer : Arrays.copyOf(buffer, size));
+                buffer = null;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void abort() {
+            if (!closed) {
+                closed = true;
+                usedBytes.addAndGet(-buffer.length);
+                buffer = null;
+            }
+        }
+
+        @Override
+        public String getKey() {
+            return "memory:" + name;
+        }
+
+        @Override
+        public void close() {
+            abort();
+        }
+    }
+}
@@ -0,0 +1,698 @@
+package network.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * resolve the file names of requests under the base dir, and cache the metadata of the files.
+ * the name is normalized once, the names out of the base dir are refused.
+ * the entry keeps the size, modified time, real path and a shared open channel of the file,
+ * so a hot request is answered without any metadata call, and the missing file is cached too.
+ * the entries are evicted by LRU, the missing files have a smaller bound so scanning can not push out the hot files.
+ * the entries are dropped by the events of the watch service when the files are changed.
+ */
+public class PathResolver {
+
+    /**
+     * the max open channels kept by the entries, the other files are opened by every request.
+     */
+    private static final int MAX_SHARED_CHANNELS = 256;
+
+    /**
+     * the count of segments, each segment has its own lock and LRU list.
+     */
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * the part of entries of one segment allowed to be the missing files.
+     */
+    private static final int MISSING_ENTRY_RATIO = 4;
+
+    private final Path baseDir;
+
+    /**
+     * the max entries cached, 0 to disable the cache.
+     */
+    private final int maxEntries;
+
+    /**
+     * empty if the cache is disabled.
+     */
+    private final Segment[] segments;
+
+    /**
+     * the dirs watched, the entries under them are dropped when the dir is changed.
+     */
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+
+    /**
+     * changed by every invalidation, the entry loaded before it is not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicInteger sharedChannels = new AtomicInteger();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder invalidationCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * null if the cache is disabled or the watch service is not supported.
+     */
+    private final WatchService watchService;
+
+    private volatile boolean run = true;
+
+    /**
+     * @param baseDir
+     * @param maxEntries the max entries cached, 0 to disable the cache.
+     */
+    public PathResolver(Path baseDir, int maxEntries) {
+        this.baseDir = baseDir.toAbsolutePath().normalize();
+        this.watchService = maxEntries > 0 ? startWatch() : null;
+        this.maxEntries = watchService != null ? maxEntries : 0;
+        int segmentCount = Math.min(SEGMENT_COUNT, this.maxEntries);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentEntries = (this.maxEntries + segmentCount - 1) / segmentCount;
+            segments[i] = new Segment(segmentEntries, Math.max(1, segmentEntries / MISSING_ENTRY_RATIO));
+        }
+    }
+
+    /**
+     * normalize the file name of request to the relative path separated by '/',
+     * the '\' of windows clients is taken as '/', the leading '/' is relative to the base dir.
+     * the drive, UNC and stream forms of windows, such as "C:x", "\\host\share" and "a:stream", are refused.
+     * @param name
+     * @return
+     * @throws AccessDeniedException the name is empty, out of the base dir or under the reserved dir.
+     */
+    public static String normalize(String name) throws AccessDeniedException {
+        if (name == null || name.indexOf('\0') >= 0 || name.indexOf(':') >= 0) {
+            throw new AccessDeniedException(String.valueOf(name), null, "Illegal file name");
+        }
+        if (name.length() > 1 && isSeparator(name.charAt(0)) && isSeparator(name.charAt(1))) {
+            throw new AccessDeniedException(name, null, "Illegal file name");
+        }
+        ArrayDeque<String> segments = new ArrayDeque<>();
+        int start = 0;
+        int length = name.length();
+        for (int i = 0; i <= length; i++) {
+            if (i < length && !isSeparator(name.charAt(i))) {
+                continue;
+            }
+            String segment = name.substring(start, i);
+            start = i + 1;
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                if (segments.isEmpty()) {
+                    throw new AccessDeniedException(name, null, "Out of the base dir");
+                }
+                segments.removeLast();
+                continue;
+            }
+            if (segments.isEmpty() && ContentAddressedStore.DEFAULT_DIR_NAME.equals(segment)) {
+                //the chunks of the content addressed store are not served as files.
+                throw new AccessDeniedException(name, null, "Reserved dir");
+            }
+            segments.addLast(segment);
+        }
+        if (segments.isEmpty()) {
+            throw new AccessDeniedException(name, null, "Illegal file name");
+        }
+        return String.join("/", segments);
+    }
+
+    /**
+     * the '/' and the '\\' of windows clients.
+     * @param c
+     * @return
+     */
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+
+    /**
+     * get the path of the normalized name.
+     * @param name normalized.
+     * @return
+     * @throws AccessDeniedException the path is not under the base dir, such as a name that the platform reads as absolute.
+     */
+    public Path resolve(String name) throws AccessDeniedException {
+        Path path = baseDir.resolve(name).normalize();
+        if (!path.startsWith(baseDir) || path.equals(baseDir)) {
+            throw new AccessDeniedException(name, null, "Out of the base dir");
+        }
+        return path;
+    }
+
+    /**
+     * open the file of the normalized name, use the cached entry if any.
+     * @param name normalized.
+     * @return null if not found.
+     * @throws IOException the file can not be opened, such as a dir.
+     */
+    public StoredFile open(String name) throws IOException {
+        Entry entry = segments.length > 0 ? segmentFor(name).get(name) : null;
+        if (entry != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            entry = load(name);
+        }
+
+        if (!entry.exists) {
+            return null;
+        }
+        if (entry.directory) {
+            throw new IOException("Is a directory:" + entry.key);
+        }
+        SharedChannel channel = entry.channel;
+        if (channel == null || !channel.retain()) {
+            channel = new SharedChannel(FileChannel.open(resolve(name), StandardOpenOption.READ), false);
+        }
+        return new ResolvedFile(name, entry, channel);
+    }
+
+    /**
+     * drop the entry of the normalized name, such as after the file is replaced by upload.
+     * @param name normalized.
+     */
+    public void invalidate(String name) {
+        generation.incrementAndGet();
+        if (segments.length == 0) {
+            return;
+        }
+        Entry entry = segmentFor(name).remove(name);
+        if (entry != null) {
+            entry.retire();
+            invalidationCount.increment();
+        }
+    }
+
+    /**
+     * stop the watch and close the shared channels, the files opened keep their channels until closed.
+     */
+    public void close() {
+        run = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                //ignore.
+            }
+        }
+        invalidateAll();
+    }
+
+    /**
+     * the cache is enabled and watched.
+     * @return
+     */
+    public boolean isCaching() {
+        return maxEntries > 0;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public int getEntryCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.size();
+        }
+        return count;
+    }
+
+    private Segment segmentFor(String name) {
+        return segments[(name.hashCode() & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * read the metadata of the file, and cache it if the cache is enabled.
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    private Entry load(String name) throws IOException {
+        long loadGeneration = generation.get();
+        Path path = resolve(name);
+        Entry entry;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            String key = path.toRealPath().toString();
+            SharedChannel channel = null;
+            boolean cacheable = maxEntries > 0 && attributes.isRegularFile();
+            if (cacheable && sharedChannels.incrementAndGet() <= MAX_SHARED_CHANNELS) {
+                channel = new SharedChannel(FileChannel.open(path, StandardOpenOption.READ), true);
+            } else if (cacheable) {
+                sharedChannels.decrementAndGet();
+            }
+            entry = new Entry(true, attributes.isDirectory(), key, attributes.size(), attributes.lastModifiedTime().toMillis(), channel);
+        } catch (NoSuchFileException e) {
+            entry = new Entry(false, false, path.toString(), 0, 0, null);
+        }
+
+        if (segments.length == 0) {
+            entry.retire();
+            return entry;
+        }
+        Segment segment = segmentFor(name);
+        for (Entry removed : segment.put(name, entry)) {
+            removed.retire();
+        }
+        if (generation.get() != loadGeneration && segment.remove(name, entry)) {
+            //the file is changed while loading, the entry may be stale.
+            entry.retire();
+        }
+        return entry;
+    }
+
+    private void invalidateAll() {
+        invalidateIf(name -> true);
+    }
+
+    /**
+     * drop the entries of the names matched.
+     * @param filter
+     */
+    private void invalidateIf(Predicate<String> filter) {
+        generation.incrementAndGet();
+        for (Segment segment : segments) {
+            for (Entry removed : segment.removeIf(filter)) {
+                removed.retire();
+                invalidationCount.increment();
+            }
+        }
+    }
+
+    /**
+     * drop the entry of the path, and the entries under it if it is a dir.
+     * @param path
+     * @param directory
+     */
+    private void invalidateTree(Path path, boolean directory) {
+        if (!path.startsWith(baseDir) || path.equals(baseDir)) {
+            invalidateAll();
+            return;
+        }
+        String name = baseDir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+        invalidate(name);
+        if (directory) {
+            String prefix = name + "/";
+            invalidateIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    /**
+     * watch the base dir and all the dirs under it.
+     * @return null if the watch service is not supported, the cache is disabled.
+     */
+    private WatchService startWatch() {
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            try {
+                registerTree(service, baseDir);
+            } catch (IOException e) {
+                service.close();
+                throw e;
+            }
+            Thread thread = new Thread(() -> runWatch(service), "path-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private void registerTree(WatchService service, Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+                if (path.equals(baseDir.resolve(ContentAddressedStore.DEFAULT_DIR_NAME))) {
+                    //never served, and written by every upload of the content addressed store.
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void runWatch(WatchService service) {
+        while (run) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    //the events are lost, the entries can not be trusted.
+                    invalidateAll();
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                boolean directory;
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    //the dir is created or moved in, watch it before dropping the entries under it,
+                    //the files created in it before it is watched raise no event.
+                    directory = true;
+                    try {
+                        registerTree(service, path);
+                    } catch (IOException | ClosedWatchServiceException e) {
+                        //the dir is removed again or the watch is closed.
+                    }
+                } else {
+                    directory = watchedDirs.containsValue(path);
+                }
+                invalidateTree(path, directory);
+            }
+            if (!key.reset()) {
+                //the dir is removed.
+                Path removed = watchedDirs.remove(key);
+                if (removed != null) {
+                    invalidateTree(removed, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * one part of the cache with its own lock and LRU list.
+     */
+    private class Segment {
+
+        private final int maxEntries;
+
+        /**
+         * the max entries of the missing files.
+         */
+        private final int maxMissingEntries;
+
+        private int missingCount;
+
+        /**
+         * access order, the eldest is the least recently used.
+         */
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Segment(int maxEntries, int maxMissingEntries) {
+            this.maxEntries = maxEntries;
+            this.maxMissingEntries = maxMissingEntries;
+        }
+
+        synchronized Entry get(String name) {
+            return entries.get(name);
+        }
+
+        /**
+         * put the entry and evict the least recently used entries.
+         * the missing file only takes the place of the eldest missing file, never of the found files.
+         * @return the entries replaced or evicted, to retire out of the lock.
+         */
+        synchronized List<Entry> put(String name, Entry entry) {
+            List<Entry> removed = new ArrayList<>(1);
+            Entry old = entries.remove(name);
+            if (old != null) {
+                onRemoved(old);
+                removed.add(old);
+            }
+            if (!entry.exists && (missingCount >= maxMissingEntries || entries.size() >= maxEntries)
+                    && !evictEldestMissing(removed)) {
+                //full of the found files, do not cache it.
+                return removed;
+            }
+
+            entries.put(name, entry);
+            if (!entry.exists) {
+                ++missingCount;
+            }
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                evict(eldest, removed);
+            }
+            return removed;
+        }
+
+        /**
+         * @param removed
+         * @return false if no missing file cached.
+         */
+        private boolean evictEldestMissing(List<Entry> removed) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                if (!eldest.exists) {
+                    iterator.remove();
+                    evict(eldest, removed);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized Entry remove(String name) {
+            Entry entry = entries.remove(name);
+            if (entry != null) {
+                onRemoved(entry);
+            }
+            return entry;
+        }
+
+        synchronized boolean remove(String name, Entry entry) {
+            if (entries.remove(name, entry)) {
+                onRemoved(entry);
+                return true;
+            }
+            return false;
+        }
+
+        synchronized List<Entry> removeIf(Predicate<String> filter) {
+            List<Entry> removed = new ArrayList<>();
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> next = iterator.next();
+                if (filter.test(next.getKey())) {
+                    iterator.remove();
+                    onRemoved(next.getValue());
+                    removed.add(next.getValue());
+                }
+            }
+            return removed;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        private void evict(Entry entry, List<Entry> removed) {
+            onRemoved(entry);
+            removed.add(entry);
+            evictionCount.increment();
+        }
+
+        private void onRemoved(Entry entry) {
+            if (!entry.exists) {
+                --missingCount;
+            }
+        }
+    }
+
+    /**
+     * the metadata of one file, immutable after loaded.
+     */
+    private class Entry {
+
+        private final boolean exists;
+
+        private final boolean directory;
+
+        /**
+         * the real path, the key of the cached blocks.
+         */
+        private final String key;
+
+        private final long size;
+
+        private final long lastModified;
+
+        /**
+         * the channel shared by the readers, null if not kept.
+         */
+        private final SharedChannel channel;
+
+        private Entry(boolean exists, boolean directory, String key, long size, long lastModified, SharedChannel channel) {
+            this.exists = exists;
+            this.directory = directory;
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.channel = channel;
+        }
+
+        /**
+         * release the channel held by the cache, it is closed after the last reader.
+         */
+        private void retire() {
+            if (channel != null) {
+                channel.release();
+            }
+        }
+    }
+
+    /**
+     * the channel read by position, safe to share by the threads, closed after the last holder released.
+     */
+    private class SharedChannel {
+
+        private final FileChannel channel;
+
+        /**
+         * counted in the shared channels.
+         */
+        private final boolean shared;
+
+        /**
+         * the holders, the cache holds one for the shared channel.
+         */
+        private int refs = 1;
+
+        private SharedChannel(FileChannel channel, boolean shared) {
+            this.channel = channel;
+            this.shared = shared;
+        }
+
+        synchronized boolean retain() {
+            if (refs == 0) {
+                return false;
+            }
+            ++refs;
+            return true;
+        }
+
+        synchronized void release() {
+            if (refs == 0 || --refs > 0) {
+                return;
+            }
+            if (shared) {
+                sharedChannels.decrementAndGet();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //nothing to write.
+            }
+        }
+    }
+
+    /**
+     * the file opened by one reader, the metadata is from the entry.
+     */
+    private class ResolvedFile implements StoredFile {
+
+        private final String name;
+
+        private final Entry entry;
+
+        private SharedChannel channel;
+
+        private ResolvedFile(String name, Entry entry, SharedChannel channel) {
+            this.name = name;
+            this.entry = entry;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer target, long position) throws IOException {
+            try {
+                return channel.channel.read(target, position);
+            } catch (ClosedChannelException e) {
+                //the shared channel is closed by the interrupt of a reader, drop it for the next requests.
+                invalidate(name);
+                throw e;
+            }
+        }
+
+        @Override
+        public long size() {
+            return entry.size;
+        }
+
+        @Override
+        public long lastModified() {
+            return entry.lastModified;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.key;
+        }
+
+        @Override
+        public boolean isMemoryResident() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            if (channel != null) {
+                channel.release();
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package network.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * one version of a stored file, the content is not changed while it is open.
+ */
+public interface StoredFile extends Closeable {
+
+    /**
+     * read the bytes at the position into the target, like the positional read of FileChannel.
+     * @param target
+     * @param position
+     * @return the count of bytes read, -1 if the position is at the end.
+     * @throws IOException
+     */
+    int read(ByteBuffer target, long position) throws IOException;
+
+    long size();
+
+    /**
+     * get the time of last modified.
+     * @return ms
+     */
+    long lastModified();
+
+    /**
+     * get the identity of the content in the block cache, such as the canonical path.
+     * @return
+     */
+    String getKey();
+
+    /**
+     * the content is held in memory, read without disk io, so it is not cached again.
+     * @return
+     */
+    boolean isMemoryResident();
+}
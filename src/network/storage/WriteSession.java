@@ -0,0 +1,44 @@
+package network.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * the write of one uploaded file, written by one session thread in order.
+ */
+public interface WriteSession extends AutoCloseable {
+
+    /**
+     * accept the data, it may be written later.
+     * @param src the remaining bytes are consumed if return true.
+     * @param timeoutMs the time to wait the buffer, 0 to return at once.
+     * @return false if the store is busy, nothing is consumed.
+     * @throws network.io.QuotaExceededException the file is over the quota.
+     * @throws IOException the former write is failed.
+     */
+    boolean write(ByteBuffer src, long timeoutMs) throws IOException;
+
+    /**
+     * write the rest data and publish the file.
+     * @return complete when the file can be read, or exceptionally if any write is failed.
+     */
+    CompletableFuture<Void> commit();
+
+    /**
+     * drop the data, the old file is not changed.
+     */
+    void abort();
+
+    /**
+     * get the key of the cached blocks to drop after commit.
+     * @return null if the new version never shares the key of the old one.
+     */
+    String getKey();
+
+    /**
+     * abort if not committed.
+     */
+    @Override
+    void close();
+}
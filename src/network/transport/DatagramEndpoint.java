@@ -0,0 +1,38 @@
+package network.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * the socket of a listener or a session, the server and client send and receive only through it.
+ */
+public interface DatagramEndpoint extends Closeable {
+
+    /**
+     * send the packet to its address.
+     * @param packet the buffer may be reused after return.
+     * @throws IOException
+     */
+    void send(DatagramPacket packet) throws IOException;
+
+    /**
+     * receive one packet, wait until the timeout.
+     * @param packet
+     * @throws java.net.SocketTimeoutException if no packet in time.
+     * @throws IOException
+     */
+    void receive(DatagramPacket packet) throws IOException;
+
+    /**
+     * set the time to wait in receive.
+     * @param timeout ms, 0 means wait forever.
+     * @throws IOException
+     */
+    void setSoTimeout(int timeout) throws IOException;
+
+    int getLocalPort();
+
+    @Override
+    void close();
+}
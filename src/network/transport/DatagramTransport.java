@@ -0,0 +1,25 @@
+package network.transport;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+/**
+ * create the endpoints of the listeners and sessions, such as the real udp or the simulated lossy link.
+ */
+public interface DatagramTransport {
+
+    /**
+     * open the endpoint of one session on a free port.
+     * @return
+     * @throws IOException
+     */
+    DatagramEndpoint open() throws IOException;
+
+    /**
+     * use the bound socket as endpoint, such as the socket of listener.
+     * the socket is closed with the endpoint.
+     * @param socket
+     * @return
+     */
+    DatagramEndpoint wrap(DatagramSocket socket);
+}
@@ -0,0 +1,319 @@
+package network.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the udp passed through a simulated faulty link, use to test the retransmit and the recovery.
+ * the faults are decided by the random of the seed, every endpoint has its own random by the open order,
+ * so the same seed drops, duplicates and reorders the same packets of the same session.
+ * the faults apply to the packets sent, and the loss applies to the packets received too.
+ */
+public class SimulatedTransport implements DatagramTransport {
+
+    /**
+     * the extra delay of the reordered packet, the packets sent after it overtake it.
+     */
+    private static final int REORDER_DELAY_MS = 5;
+
+    /**
+     * spread the seeds of the endpoints.
+     */
+    private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+    private final DatagramTransport delegate;
+
+    private final long seed;
+
+    private final AtomicLong endpointCount = new AtomicLong();
+
+    private volatile double lossRate;
+
+    private volatile double duplicateRate;
+
+    private volatile double reorderRate;
+
+    private volatile int delayMs;
+
+    private volatile int jitterMs;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder duplicated = new LongAdder();
+
+    private final LongAdder reordered = new LongAdder();
+
+    /**
+     * send the delayed packets, create on first use.
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    public SimulatedTransport(long seed) {
+        this(UdpTransport.INSTANCE, seed);
+    }
+
+    /**
+     * @param delegate the transport to send and receive the packets passed the link.
+     * @param seed
+     */
+    public SimulatedTransport(DatagramTransport delegate, long seed) {
+        this.delegate = delegate;
+        this.seed = seed;
+    }
+
+    @Override
+    public DatagramEndpoint open() throws IOException {
+        return new SimulatedEndpoint(delegate.open(), nextRandom());
+    }
+
+    @Override
+    public DatagramEndpoint wrap(DatagramSocket socket) {
+        return new SimulatedEndpoint(delegate.wrap(socket), nextRandom());
+    }
+
+    private Random nextRandom() {
+        return new Random(seed + endpointCount.getAndIncrement() * SEED_INCREMENT);
+    }
+
+    /**
+     * set the chance to drop a packet.
+     * @param lossRate 0..1
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * set the chance to send a packet twice.
+     * @param duplicateRate 0..1
+     */
+    public void setDuplicateRate(double duplicateRate) {
+        this.duplicateRate = duplicateRate;
+    }
+
+    /**
+     * set the chance to hold a packet so the next ones overtake it.
+     * @param reorderRate 0..1
+     */
+    public void setReorderRate(double reorderRate) {
+        this.reorderRate = reorderRate;
+    }
+
+    /**
+     * set the delay of every packet sent.
+     * @param delayMs
+     * @param jitterMs the random delay added to the delay.
+     */
+    public void setDelay(int delayMs, int jitterMs) {
+        this.delayMs = delayMs;
+        this.jitterMs = jitterMs;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public double getDuplicateRate() {
+        return duplicateRate;
+    }
+
+    public double getReorderRate() {
+        return reorderRate;
+    }
+
+    public int getDelayMs() {
+        return delayMs;
+    }
+
+    public int getJitterMs() {
+        return jitterMs;
+    }
+
+    /**
+     * get the count of packets dropped, sent or received.
+     * @return
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getDuplicated() {
+        return duplicated.sum();
+    }
+
+    public long getReordered() {
+        return reordered.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("seed=%s loss=%s duplicate=%s reorder=%s delay=%sms jitter=%sms",
+                seed, lossRate, duplicateRate, reorderRate, delayMs, jitterMs);
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            synchronized (this) {
+                current = scheduler;
+                if (current == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "simulated-link");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    scheduler = current = executor;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * the endpoint with its own random, the faults of one session are decided in order.
+     */
+    private final class SimulatedEndpoint implements DatagramEndpoint {
+
+        private final DatagramEndpoint endpoint;
+
+        private final Random random;
+
+        private int timeout;
+
+        /**
+         * the delayed packets not sent yet, the socket is closed after them like a real one.
+         */
+        private int pendingCount;
+
+        private boolean closed;
+
+        private SimulatedEndpoint(DatagramEndpoint endpoint, Random random) {
+            this.endpoint = endpoint;
+            this.random = random;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            if (chance(lossRate)) {
+                dropped.increment();
+                return;
+            }
+            int copies = 1;
+            if (chance(duplicateRate)) {
+                duplicated.increment();
+                copies = 2;
+            }
+            for (int i = 0; i < copies; i++) {
+                int delay = nextDelay();
+                if (delay <= 0) {
+                    endpoint.send(packet);
+                } else {
+                    sendLater(packet, delay);
+                }
+            }
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            int length = packet.getLength();
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            while (true) {
+                if (deadline > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Receive timed out");
+                    }
+                    endpoint.setSoTimeout((int) remaining);
+                }
+                packet.setLength(length);
+                endpoint.receive(packet);
+                if (!chance(lossRate)) {
+                    return;
+                }
+                dropped.increment();
+            }
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws IOException {
+            this.timeout = timeout;
+            endpoint.setSoTimeout(timeout);
+        }
+
+        @Override
+        public int getLocalPort() {
+            return endpoint.getLocalPort();
+        }
+
+        /**
+         * a packet sent is already on the link, so the socket is closed after the delayed packets are sent.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                if (pendingCount > 0) {
+                    return;
+                }
+            }
+            endpoint.close();
+        }
+
+        private boolean chance(double rate) {
+            return rate > 0 && random.nextDouble() < rate;
+        }
+
+        /**
+         * get the delay of the packet to send.
+         * @return ms, 0 to send now.
+         */
+        private int nextDelay() {
+            int delay = delayMs;
+            if (jitterMs > 0) {
+                delay += random.nextInt(jitterMs + 1);
+            }
+            if (chance(reorderRate)) {
+                reordered.increment();
+                delay += REORDER_DELAY_MS + jitterMs;
+            }
+            return delay;
+        }
+
+        /**
+         * copy the packet and send it after the delay.
+         * @param packet
+         * @param delay ms
+         */
+        private void sendLater(DatagramPacket packet, int delay) {
+            byte[] data = new byte[packet.getLength()];
+            System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+            DatagramPacket delayed = new DatagramPacket(data, data.length, packet.getSocketAddress());
+            synchronized (this) {
+                ++pendingCount;
+            }
+            getScheduler().schedule(() -> {
+                try {
+                    endpoint.send(delayed);
+                } catch (IOException e) {
+                    //the send failed, the packet is lost.
+                }
+                boolean closeNow;
+                synchronized (this) {
+                    closeNow = --pendingCount == 0 && closed;
+                }
+                if (closeNow) {
+                    endpoint.close();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package network.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+
+/**
+ * the real udp, the endpoint is the socket itself.
+ */
+public class UdpTransport implements DatagramTransport {
+
+    public static final UdpTransport INSTANCE = new UdpTransport();
+
+    @Override
+    public DatagramEndpoint open() throws IOException {
+        return new UdpEndpoint(new DatagramSocket());
+    }
+
+    @Override
+    public DatagramEndpoint wrap(DatagramSocket socket) {
+        return new UdpEndpoint(socket);
+    }
+
+    private static final class UdpEndpoint implements DatagramEndpoint {
+
+        private final DatagramSocket socket;
+
+        private UdpEndpoint(DatagramSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            socket.send(packet);
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            socket.receive(packet);
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public int getLocalPort() {
+            return socket.getLocalPort();
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * the leveled logger which hand the events to a background thread by a lock-free ring buffer.
+ * the caller only fill a preallocated event with the format and args,
+ * the message is formatted and passed to the sink on the drain thread.
+ * the events are dropped and counted when the ring is full, the caller never block.
+ * the drain thread parks while the ring is empty, and is unparked by the next event.
+ */
+public class AsyncLogger implements AutoCloseable {
+
+    private final Consumer<String> sink;
+
+    private final Event[] events;
+
+    /**
+     * the sequence of each slot, equal to the position when the slot is free to write,
+     * and position + 1 when the event is ready to drain.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /**
+     * the next position to claim by producers.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * the next position to drain, only touched by the drain thread.
+     */
+    private long head;
+
+    private final LongAdder dropCount = new LongAdder();
+
+    private volatile LogLevel level;
+
+    private volatile boolean run = true;
+
+    /**
+     * the drain thread is going to park, the producer unparks it after publishing.
+     */
+    private volatile boolean waiting;
+
+    private final Thread drainThread;
+
+    /**
+     * @param sink receive the formatted message on the drain thread.
+     * @param capacity the count of events the ring hold, round up to power of 2.
+     * @param level
+     */
+    public AsyncLogger(Consumer<String> sink, int capacity, LogLevel level) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.sink = sink;
+        this.level = level;
+        this.events = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event();
+            sequences.set(i, i);
+        }
+
+        drainThread = new Thread(this::drain, "log-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(this.level) >= 0 && level != LogLevel.OFF;
+    }
+
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    public void setLevel(LogLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * get the count of events dropped because the ring is full.
+     * @return
+     */
+    public long getDropCount() {
+        return dropCount.sum();
+    }
+
+    /**
+     * log the event, the message is "category(thread): prefix-format".
+     * @param level
+     * @param category such as the kind of thread, null to log without thread info.
+     * @param prefix such as the kind of transfer, null if none.
+     * @param format the format of {@link String#format}.
+     */
+    public void log(LogLevel level, String category, String prefix, String format) {
+        log(level, category, prefix, null, format, 0, null, null, null);
+    }
+
+    public void log(LogLevel level, String category, String prefix, String format, Object arg0) {
+        log(level, category, prefix, null, format, 1, arg0, null, null);
+    }
+
+    public void log(LogLevel level, String category, String prefix, String format, Object arg0, Object arg1) {
+        log(level, category, prefix, null, format, 2, arg0, arg1, null);
+    }
+
+    public void log(LogLevel level, String category, String prefix, String format, Object arg0, Object arg1, Object arg2) {
+        log(level, category, prefix, null, format, 3, arg0, arg1, arg2);
+    }
+
+    /**
+     * log the event with the stack trace of the throwable, which is printed on the drain thread.
+     * @param level
+     * @param category
+     * @param prefix
+     * @param thrown
+     * @param format
+     */
+    public void log(LogLevel level, String category, String prefix, Throwable thrown, String format) {
+        log(level, category, prefix, thrown, format, 0, null, null, null);
+    }
+
+    public void log(LogLevel level, String category, String prefix, Throwable thrown, String format, Object arg0) {
+        log(level, category, prefix, thrown, format, 1, arg0, null, null);
+    }
+
+    public void log(LogLevel level, String category, String prefix, Throwable thrown, String format, Object arg0, Object arg1) {
+        log(level, category, prefix, thrown, format, 2, arg0, arg1, null);
+    }
+
+    private void log(LogLevel level, String category, String prefix, Throwable thrown, String format, int argCount, Object arg0, Object arg1, Object arg2) {
+        if (!isEnabled(level)) {
+            return;
+        }
+
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Event event = events[index];
+                    event.level = level;
+                    event.category = category;
+                    event.threadName = Thread.currentThread().getName();
+                    event.prefix = prefix;
+                    event.thrown = thrown;
+                    event.format = format;
+                    event.argCount = argCount;
+                    event.arg0 = arg0;
+                    event.arg1 = arg1;
+                    event.arg2 = arg2;
+                    //publish the event to the drain thread, the volatile set is ordered before reading waiting.
+                    sequences.set(index, pos + 1);
+                    if (waiting) {
+                        LockSupport.unpark(drainThread);
+                    }
+                    return;
+                }
+            } else if (diff < 0) {
+                //the ring is full.
+                dropCount.increment();
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        long reportedDropCount = 0;
+        while (run) {
+            if (drainAvailable()) {
+                continue;
+            }
+            long drops = dropCount.sum();
+            if (drops != reportedDropCount) {
+                sink.accept(String.format("Logger: %s events dropped", drops - reportedDropCount));
+                reportedDropCount = drops;
+            }
+            waiting = true;
+            //check again after waiting is set, the event published before it is not missed.
+            if (run && !isAvailable()) {
+                LockSupport.park(this);
+            }
+            waiting = false;
+        }
+        drainAvailable();
+    }
+
+    private boolean isAvailable() {
+        return sequences.get((int) (head & mask)) == head + 1;
+    }
+
+    /**
+     * drain the events ready in the ring.
+     * @return false if no event.
+     */
+    private boolean drainAvailable() {
+        boolean drained = false;
+        while (true) {
+            if (!isAvailable()) {
+                return drained;
+            }
+            int index = (int) (head & mask);
+
+            Event event = events[index];
+            String msg;
+            try {
+                msg = event.format();
+            } catch (RuntimeException e) {
+                msg = "Logger: format error:" + event.format;
+            }
+            event.clear();
+            //release the slot for the next round.
+            sequences.lazySet(index, head + events.length);
+            ++head;
+            drained = true;
+
+            try {
+                sink.accept(msg);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * the logger is closed, the later events are not drained.
+     * @return
+     */
+    public boolean isClosed() {
+        return !run;
+    }
+
+    /**
+     * stop the drain thread after the events in ring are drained.
+     */
+    @Override
+    public void close() {
+        if (!run) {
+            return;
+        }
+        run = false;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * the slot of ring, reused by the later events.
+     */
+    private static class Event {
+        private LogLevel level;
+        private String category;
+        private String threadName;
+        private String prefix;
+        private Throwable thrown;
+        private String format;
+        private int argCount;
+        private Object arg0;
+        private Object arg1;
+        private Object arg2;
+
+        private String format() {
+            String msg;
+            switch (argCount) {
+                case 0:
+                    msg = format;
+                    break;
+                case 1:
+                    msg = String.format(format, arg0);
+                    break;
+                case 2:
+                    msg = String.format(format, arg0, arg1);
+                    break;
+                default:
+                    msg = String.format(format, arg0, arg1, arg2);
+                    break;
+            }
+
+            StringBuilder sb = new StringBuilder(msg.length() + 64);
+            if (category != null) {
+                sb.append(category).append('(').append(threadName).append("): ");
+            }
+            if (level.compareTo(LogLevel.WARN) >= 0) {
+                sb.append(level).append(' ');
+            }
+            if (prefix != null) {
+                sb.append(prefix).append('-');
+            }
+            sb.append(msg);
+            if (thrown != null) {
+                StringWriter trace = new StringWriter();
+                thrown.printStackTrace(new PrintWriter(trace));
+                sb.append(System.lineSeparator()).append(trace);
+            }
+            return sb.toString();
+        }
+
+        private void clear() {
+            //release the references for gc.
+            category = null;
+            threadName = null;
+            prefix = null;
+            thrown = null;
+            format = null;
+            arg0 = null;
+            arg1 = null;
+            arg2 = null;
+        }
+    }
+}
@@ -1,9 +1,23 @@
 package utils;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * the utils for data change.
+ * the numbers of tftp are in the network byte order (big endian) as RFC 1350,
+ * they are read and written by the var handle views, which do not depend on the order of the buffer.
  */
 public class DataUtils {
+
+    private static final VarHandle SHORT_ARRAY =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle SHORT_BUFFER =
+            MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
     /**
      * short change to byte array.
      * @param num
@@ -11,8 +25,7 @@ public class DataUtils {
      */
     public static byte[] shortToBytes(short num) {
         byte b[] = new byte[2];
-        b[0] = (byte) num;
-        b[1] = (byte) (num >>> 8) ;
+        SHORT_ARRAY.set(b, 0, num);
         return b;
     }
 
@@ -24,8 +37,7 @@ public class DataUtils {
      * @param start
      */
     public static void shortToBytes(byte[] bytes, short num, int start) {
-        bytes[start] = (byte) num;
-        bytes[start + 1] = (byte) (num >>> 8) ;
+        SHORT_ARRAY.set(bytes, start, num);
     }
 
     /**
@@ -34,7 +46,7 @@ public class DataUtils {
      * @return
      */
     public static short bytesToShort(byte[] bytes) {
-        return (short) (bytes[0]& 0xff | (bytes[1] << 8));
+        return (short) SHORT_ARRAY.get(bytes, 0);
     }
 
     /**
@@ -44,6 +56,26 @@ public class DataUtils {
      * @return
      */
     public static short bytesToShort(byte[] bytes, int start) {
-        return (short) (bytes[start]& 0xff | (bytes[start + 1] << 8));
+        return (short) SHORT_ARRAY.get(bytes, start);
+    }
+
+    /**
+     * read short from the buffer at index, the position of buffer is not changed.
+     * @param buffer
+     * @param index
+     * @return
+     */
+    public static short getShort(ByteBuffer buffer, int index) {
+        return (short) SHORT_BUFFER.get(buffer, index);
+    }
+
+    /**
+     * write short into the buffer at index, the position of buffer is not changed.
+     * @param buffer
+     * @param index
+     * @param num
+     */
+    public static void putShort(ByteBuffer buffer, int index, short num) {
+        SHORT_BUFFER.set(buffer, index, num);
     }
 }
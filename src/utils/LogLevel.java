@@ -0,0 +1,25 @@
+package utils;
+
+/**
+ * the level of log, the events below the level of logger are dropped at the call.
+ */
+public enum LogLevel {
+    /**
+     * every block sent or received.
+     */
+    TRACE,
+    /**
+     * the ignored packets and retries.
+     */
+    DEBUG,
+    /**
+     * the start and finish of transfers.
+     */
+    INFO,
+    WARN,
+    ERROR,
+    /**
+     * disable all the logs.
+     */
+    OFF
+}
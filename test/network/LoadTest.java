@@ -0,0 +1,113 @@
+package network;
+
+import network.client.TftpClient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * the simulated clients download at once, report the server threads and the throughput of each executor.
+ */
+class LoadTest {
+
+    /**
+     * the request port of the server, above 1024 so the test runs without root.
+     */
+    private static final int SERVER_PORT = 16975;
+
+    /**
+     * the clients running at once.
+     */
+    private static final int CONCURRENCY = 1000;
+
+    private static final int FILE_SIZE = 2048;
+
+    @TempDir
+    static Path baseDir;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        Files.write(baseDir.resolve("load"), new byte[FILE_SIZE]);
+    }
+
+    /**
+     * the virtual thread executor falls back to the cached pool before JDK 21.
+     * @param engineType
+     * @param executorType
+     * @param sessions
+     */
+    @ParameterizedTest(name = "{0} {1} sessions={2}")
+    @CsvSource({
+            "BLOCKING, CACHED_POOL, 1000",
+            "BLOCKING, CACHED_POOL, 10000",
+            "BLOCKING, VIRTUAL_THREAD, 1000",
+            "BLOCKING, VIRTUAL_THREAD, 10000",
+            "NIO, CACHED_POOL, 1000",
+            "NIO, CACHED_POOL, 10000"
+    })
+    void downloadAtOnce(TransferEngineType engineType, HandlerExecutorType executorType, int sessions) throws Exception {
+        TftpServer server = new TftpServer(msg -> { });
+        server.setBaseDir(baseDir.toString());
+        server.setEngineType(engineType);
+        server.setExecutorType(executorType);
+        server.setPort(SERVER_PORT);
+        server.start();
+        ThreadPoolExecutor clients = (ThreadPoolExecutor) Executors.newFixedThreadPool(CONCURRENCY);
+        //start the client threads first, so the peak counts the threads of server only.
+        clients.prestartAllCoreThreads();
+        try {
+            //wait the listener to bind.
+            Thread.sleep(300);
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            int threadsBefore = threadBean.getThreadCount();
+            threadBean.resetPeakThreadCount();
+
+            TftpClient client = new TftpClient(new InetSocketAddress("127.0.0.1", SERVER_PORT));
+            client.setTimeout(500);
+            client.setRetries(10);
+            AtomicInteger failed = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>(sessions);
+            long start = System.nanoTime();
+            for (int i = 0; i < sessions; i++) {
+                futures.add(clients.submit(() -> {
+                    try {
+                        if (client.download("load", OutputStream.nullOutputStream()).getBytes() != FILE_SIZE) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long nanos = System.nanoTime() - start;
+
+            System.out.printf("%s %s sessions=%s: %.0f sessions/s, %.2f MB/s, server threads %s, failed %s%n",
+                    engineType, executorType, sessions, sessions / (nanos / 1e9), (double) sessions * FILE_SIZE / nanos * 1e9 / 1024 / 1024,
+                    threadBean.getPeakThreadCount() - threadsBefore, failed.get());
+            assertEquals(0, failed.get());
+        } finally {
+            clients.shutdownNow();
+            server.stop();
+        }
+    }
+}
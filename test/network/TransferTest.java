@@ -0,0 +1,224 @@
+package network;
+
+import network.client.TftpClient;
+import network.client.TftpErrorException;
+import network.packet.ERRORPacket;
+import network.packet.PacketView;
+import network.packet.TftpPacket;
+import network.packet.TftpPacketConsts;
+import network.packet.TftpPacketFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * the loopback download and upload of both engines, across the block sizes, window sizes and the sizes at the block edges.
+ */
+class TransferTest {
+
+    private static final int BASE_PORT = 16972;
+
+    private static final int[] SIZES = {0, 100, 512, 1024, 1428 * 3, 5000, 300000};
+
+    @TempDir
+    static Path baseDir;
+
+    private static final Map<TransferEngineType, TftpServer> SERVERS = new EnumMap<>(TransferEngineType.class);
+
+    @BeforeAll
+    static void start() throws Exception {
+        Random random = new Random(1);
+        for (int size : SIZES) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            Files.write(baseDir.resolve("f" + size), data);
+        }
+        for (TransferEngineType engineType : TransferEngineType.values()) {
+            TftpServer server = new TftpServer(msg -> { });
+            server.setBaseDir(baseDir.toString());
+            server.setEngineType(engineType);
+            server.setPort(portOf(engineType));
+            server.start();
+            SERVERS.put(engineType, server);
+        }
+        //wait the listeners to bind.
+        Thread.sleep(300);
+    }
+
+    @AfterAll
+    static void stop() {
+        SERVERS.values().forEach(TftpServer::stop);
+    }
+
+    static Stream<Arguments> transfers() {
+        List<Arguments> arguments = new ArrayList<>();
+        for (TransferEngineType engineType : TransferEngineType.values()) {
+            for (int[] option : new int[][]{{512, 1}, {1428, 1}, {65464, 1}, {1428, 8}, {512, 3}}) {
+                for (int size : SIZES) {
+                    arguments.add(Arguments.of(engineType, option[0], option[1], size));
+                }
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "{0} blksize={1} windowsize={2} size={3}")
+    @MethodSource("transfers")
+    void downloadAndUpload(TransferEngineType engineType, int blockSize, int windowSize, int size) throws IOException {
+        TftpClient client = clientOf(engineType);
+        client.setBlockSize(blockSize);
+        client.setWindowSize(windowSize);
+        byte[] data = Files.readAllBytes(baseDir.resolve("f" + size));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(size, client.download("f" + size, outputStream).getBytes());
+        assertArrayEquals(data, outputStream.toByteArray());
+
+        String uploadName = String.format("u-%s-%s-%s-%s", engineType, blockSize, windowSize, size);
+        client.upload(uploadName, new ByteArrayInputStream(data), size);
+        assertArrayEquals(data, Files.readAllBytes(baseDir.resolve(uploadName)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransferEngineType.class)
+    void answerFileNotFound(TransferEngineType engineType) {
+        TftpErrorException e = assertThrows(TftpErrorException.class,
+                () -> clientOf(engineType).download("missing", new ByteArrayOutputStream()));
+        assertEquals(TftpPacketConsts.ERRCODE_NOTFD, e.getErrCode());
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransferEngineType.class)
+    void refuseOutsideBaseDir(TransferEngineType engineType) {
+        TftpErrorException e = assertThrows(TftpErrorException.class,
+                () -> clientOf(engineType).download("../f100", new ByteArrayOutputStream()));
+        assertEquals(TftpPacketConsts.ERRCODE_ACCESS, e.getErrCode());
+    }
+
+    /**
+     * the file name is not terminated, the listener answers ERROR 4 and keeps serving.
+     */
+    @ParameterizedTest
+    @EnumSource(TransferEngineType.class)
+    void answerMalformedRequest(TransferEngineType engineType) throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(3000);
+            byte[] request = {0, 1, 'f', '1', '0', '0'};
+            socket.send(new DatagramPacket(request, request.length, InetAddress.getLoopbackAddress(), portOf(engineType)));
+            byte[] buffer = new byte[516];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            socket.receive(response);
+            TftpPacket packet = TftpPacketFactory.buildTftpPacket(response);
+            assertEquals(TftpPacketConsts.OP_ERROR, packet.getOpCode());
+            assertEquals(TftpPacketConsts.ERRCODE_ILLOP, ((ERRORPacket) packet).getErrCode());
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        clientOf(engineType).download("f100", outputStream);
+        assertEquals(100, outputStream.size());
+    }
+
+    /**
+     * a truncated ACK or DATA is dropped as a stray packet, the transfer goes on.
+     */
+    @ParameterizedTest
+    @EnumSource(TransferEngineType.class)
+    void ignoreTruncatedPackets(TransferEngineType engineType) throws IOException {
+        InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), portOf(engineType));
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(3000);
+            socket.send(TftpPacketFactory.buildRRQPacket("127.0.0.1", server.getPort(), "f1024", TftpPacketConsts.MODE_OCTET).build());
+            DatagramPacket data = receive(socket, TftpPacketConsts.OP_DATA, 1);
+            send(socket, data, 0, 4, 0);
+            send(socket, data, 0, 4, 0, 1);
+            receive(socket, TftpPacketConsts.OP_DATA, 2);
+        }
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(3000);
+            String uploadName = "u-truncated-" + engineType;
+            socket.send(TftpPacketFactory.buildWRQPacket("127.0.0.1", server.getPort(), uploadName, TftpPacketConsts.MODE_OCTET).build());
+            DatagramPacket ack = receive(socket, TftpPacketConsts.OP_ACK, 0);
+            send(socket, ack, 0, 3, 0);
+            send(socket, ack, 0, 3, 0, 1, 'a');
+            receive(socket, TftpPacketConsts.OP_ACK, 1);
+        }
+    }
+
+    /**
+     * the last ack is lost, the blocking handler is still there to answer the last block again.
+     */
+    @Test
+    void ackLastBlockAgain() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(3000);
+            socket.send(TftpPacketFactory.buildWRQPacket("127.0.0.1", portOf(TransferEngineType.BLOCKING), "u-last-ack-lost", TftpPacketConsts.MODE_OCTET).build());
+            DatagramPacket ack = receive(socket, TftpPacketConsts.OP_ACK, 0);
+            send(socket, ack, 0, 3, 0, 1, 'a');
+            receive(socket, TftpPacketConsts.OP_ACK, 1);
+            send(socket, ack, 0, 3, 0, 1, 'a');
+            receive(socket, TftpPacketConsts.OP_ACK, 1);
+        }
+        assertArrayEquals(new byte[]{'a'}, Files.readAllBytes(baseDir.resolve("u-last-ack-lost")));
+    }
+
+    /**
+     * send the bytes to the port of the session, which sent the packet.
+     */
+    private static void send(DatagramSocket socket, DatagramPacket from, int... values) throws IOException {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        socket.send(new DatagramPacket(bytes, bytes.length, from.getSocketAddress()));
+    }
+
+    /**
+     * receive until the packet of the opcode and block number, the retransmits of the earlier blocks are skipped.
+     */
+    private static DatagramPacket receive(DatagramSocket socket, short opCode, int blockNo) throws IOException {
+        DatagramPacket response = new DatagramPacket(new byte[516], 516);
+        PacketView view = new PacketView();
+        while (true) {
+            response.setLength(516);
+            socket.receive(response);
+            view.wrap(response.getData(), response.getLength());
+            assertNotEquals(TftpPacketConsts.OP_ERROR, view.getOpCode());
+            if (view.getOpCode() == opCode && view.getBlockNo() == blockNo) {
+                return response;
+            }
+        }
+    }
+
+    private static TftpClient clientOf(TransferEngineType engineType) {
+        return new TftpClient(new InetSocketAddress("127.0.0.1", portOf(engineType)));
+    }
+
+    private static int portOf(TransferEngineType engineType) {
+        return BASE_PORT + engineType.ordinal();
+    }
+}
@@ -0,0 +1,65 @@
+package network.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.AsyncLogger;
+import utils.LogLevel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the files ready when the writer stop are still written.
+ */
+class UploadWriterTest {
+
+    @TempDir
+    Path baseDir;
+
+    private final AsyncLogger logger = new AsyncLogger(msg -> { }, 16, LogLevel.OFF);
+
+    @AfterEach
+    void closeLogger() {
+        logger.close();
+    }
+
+    @Test
+    void writeReadyFilesOnStop() throws Exception {
+        UploadWriter writer = new UploadWriter(1, 4 * UploadWriter.CHUNK_SIZE, FsyncPolicy.NONE, 0, logger);
+        byte[][] data = new byte[8][];
+        UploadWriter.FileSink[] sinks = new UploadWriter.FileSink[data.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new byte[UploadWriter.CHUNK_SIZE / 2 + i];
+            new Random(i).nextBytes(data[i]);
+            sinks[i] = writer.open(baseDir.resolve("f" + i), -1);
+            assertTrue(sinks[i].write(ByteBuffer.wrap(data[i]), 1000));
+            sinks[i].commit();
+        }
+        writer.stop();
+
+        for (int i = 0; i < data.length; i++) {
+            sinks[i].commit().get(5, TimeUnit.SECONDS);
+            assertArrayEquals(data[i], Files.readAllBytes(baseDir.resolve("f" + i)));
+        }
+    }
+
+    @Test
+    void writeOnSessionThreadAfterStop() throws Exception {
+        UploadWriter writer = new UploadWriter(1, 4 * UploadWriter.CHUNK_SIZE, FsyncPolicy.NONE, 0, logger);
+        writer.stop();
+        byte[] data = new byte[3 * UploadWriter.CHUNK_SIZE + 1];
+        new Random(1).nextBytes(data);
+        UploadWriter.FileSink sink = writer.open(baseDir.resolve("late"), data.length);
+        assertTrue(sink.write(ByteBuffer.wrap(data), 1000));
+        sink.commit().get(5, TimeUnit.SECONDS);
+        assertArrayEquals(data, Files.readAllBytes(baseDir.resolve("late")));
+    }
+}
@@ -0,0 +1,34 @@
+package network.packet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * the seq found back from the block number, against the scan of the seqs.
+ */
+class BlockNumberTest {
+
+    @Test
+    void toSeqAcrossRollover() {
+        long[] fromSeqs = {0, 1, 2, 100, BlockNumber.MAX - 1, BlockNumber.MAX, BlockNumber.MAX + 1, BlockNumber.MAX + 2, 3L * BlockNumber.MAX + 7};
+        int[] blockNos = {0, 1, 2, 99, 100, 101, BlockNumber.MAX - 1, BlockNumber.MAX};
+        for (int rollover : new int[]{BlockNumber.ROLLOVER_ZERO, BlockNumber.ROLLOVER_ONE}) {
+            for (long fromSeq : fromSeqs) {
+                for (int blockNo : blockNos) {
+                    assertEquals(scan(fromSeq, (short) blockNo, rollover), BlockNumber.toSeq(fromSeq, (short) blockNo, rollover),
+                            String.format("rollover=%s from=%s block=%s", rollover, fromSeq, blockNo));
+                }
+            }
+        }
+    }
+
+    private static long scan(long fromSeq, short blockNo, int rollover) {
+        for (long seq = fromSeq; seq <= fromSeq + BlockNumber.MAX + 1; seq++) {
+            if (BlockNumber.fromSeq(seq, rollover) == blockNo) {
+                return seq;
+            }
+        }
+        return -1;
+    }
+}
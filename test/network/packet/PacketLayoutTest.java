@@ -0,0 +1,187 @@
+package network.packet;
+
+import org.junit.jupiter.api.Test;
+import utils.DataUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the packets against the bytes of RFC 1350 and RFC 2347, the numbers are in network byte order.
+ */
+class PacketLayoutTest {
+
+    private static final InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+
+    private static final Map<String, String> NO_OPTIONS = Collections.emptyMap();
+
+    @Test
+    void encodeReadRequest() {
+        assertBytes(TftpPacketFactory.buildRRQPacket("127.0.0.1", 5000, "a", TftpPacketConsts.MODE_OCTET, NO_OPTIONS).build(),
+                0, 1, 'a', 0, 'o', 'c', 't', 'e', 't', 0);
+    }
+
+    @Test
+    void encodeWriteRequest() {
+        assertBytes(TftpPacketFactory.buildWRQPacket("127.0.0.1", 5000, "a", TftpPacketConsts.MODE_OCTET, NO_OPTIONS).build(),
+                0, 2, 'a', 0, 'o', 'c', 't', 'e', 't', 0);
+    }
+
+    @Test
+    void encodeRequestOptions() {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put(TftpPacketConsts.OPTION_BLKSIZE, "1428");
+        byte[] bytes = copy(TftpPacketFactory.buildRRQPacket("127.0.0.1", 5000, "a", TftpPacketConsts.MODE_OCTET, options).build());
+        assertArrayEquals(bytes(0, 1, 'a', 0, 'o', 'c', 't', 'e', 't', 0, 'b', 'l', 'k', 's', 'i', 'z', 'e', 0, '1', '4', '2', '8', 0), bytes);
+    }
+
+    @Test
+    void encodeAck() {
+        assertBytes(TftpPacketFactory.buildACKPacket("127.0.0.1", 5000, (short) 0x1234).build(), 0, 4, 0x12, 0x34);
+        assertBytes(TftpPacketFactory.buildACKPacket("127.0.0.1", 5000, (short) 0xFFFF).build(), 0, 4, 0xFF, 0xFF);
+    }
+
+    @Test
+    void encodeData() throws IOException {
+        DATAPacket dataPacket = TftpPacketFactory.buildDatapacket("127.0.0.1", 5000);
+        dataPacket.readBlock(new ByteArrayInputStream(new byte[]{'x'}), (short) 258);
+        assertBytes(dataPacket.build(), 0, 3, 1, 2, 'x');
+    }
+
+    @Test
+    void encodeError() throws IOException {
+        byte[] errorBytes = bytes(0, 5, 0, 1, 'n', 'o', 0);
+        TftpPacket error = TftpPacketFactory.buildTftpPacket(datagram(errorBytes));
+        assertArrayEquals(errorBytes, copy(TftpPacketFactory.buildERRORpacket(error, TftpPacketConsts.ERRCODE_NOTFD, "no").build()));
+    }
+
+    @Test
+    void decodeUnsignedBlockNo() throws IOException {
+        byte[] ackBytes = bytes(0, 4, 0x80, 0x01);
+        ACKPacket ack = new ACKPacket(datagram(ackBytes));
+        assertEquals((short) 0x8001, ack.getBlockNo());
+        assertEquals(0x8001, BlockNumber.toUnsigned(ack.getBlockNo()));
+
+        PacketView view = new PacketView().wrap(ackBytes, ackBytes.length);
+        assertEquals(TftpPacketConsts.OP_ACK, view.getOpCode());
+        assertEquals((short) 0x8001, view.getBlockNo());
+    }
+
+    @Test
+    void decodeData() throws IOException {
+        TftpPacket packet = TftpPacketFactory.buildTftpPacket(datagram(bytes(0, 3, 0xFF, 0xFE, 'a', 'b')));
+        assertEquals(TftpPacketConsts.OP_DATA, packet.getOpCode());
+        DATAPacket dataPacket = (DATAPacket) packet;
+        assertEquals((short) 0xFFFE, dataPacket.getBlockNum());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        dataPacket.writeBlockData(outputStream);
+        assertArrayEquals(bytes('a', 'b'), outputStream.toByteArray());
+        assertTrue(dataPacket.isLast(TftpPacketConsts.DEFAULT_BLKSIZE));
+    }
+
+    @Test
+    void decodeError() throws IOException {
+        ERRORPacket error = (ERRORPacket) TftpPacketFactory.buildTftpPacket(datagram(bytes(0, 5, 0, 2, 'n', 'o', 0)));
+        assertEquals(TftpPacketConsts.ERRCODE_ACCESS, error.getErrCode());
+        assertEquals("no", error.getErrMsg());
+    }
+
+    @Test
+    void decodeRequestOptions() throws IOException {
+        byte[] bytes = bytes(0, 1, 'a', 0, 'o', 'c', 't', 'e', 't', 0, 'B', 'L', 'K', 'S', 'I', 'Z', 'E', 0, '1', '4', '2', '8', 0);
+        WRRQPacket request = (WRRQPacket) TftpPacketFactory.buildTftpPacket(datagram(bytes));
+        assertEquals("a", request.getFileName());
+        assertEquals(TftpPacketConsts.MODE_OCTET, request.getMode());
+        assertEquals("1428", request.getOptions().get(TftpPacketConsts.OPTION_BLKSIZE));
+    }
+
+    /**
+     * the listener reuses its buffer, only the bytes received are parsed.
+     */
+    @Test
+    void decodeRequestInReusedBuffer() {
+        byte[] buffer = new byte[64];
+        Arrays.fill(buffer, (byte) 'z');
+        byte[] request = bytes(0, 1, 'a', 0, 'o', 'c', 't', 'e', 't', 0);
+        System.arraycopy(request, 0, buffer, 8, request.length);
+        WRRQPacket packet = new WRRQPacket(new DatagramPacket(buffer, 8, request.length, LOCALHOST, 5000));
+        assertEquals(TftpPacketConsts.OP_RRQ, packet.getOpCode());
+        assertEquals("a", packet.getFileName());
+        assertEquals(TftpPacketConsts.MODE_OCTET, packet.getMode());
+        assertTrue(packet.getOptions().isEmpty());
+    }
+
+    @Test
+    void rejectMalformedPackets() {
+        assertThrows(IllegalArgumentException.class, () -> new WRRQPacket(datagram(bytes(0, 1, 'a', 'b'))));
+        assertThrows(IllegalArgumentException.class, () -> TftpPacketFactory.buildTftpPacket(datagram(bytes(0))));
+        assertThrows(IllegalArgumentException.class, () -> TftpPacketFactory.buildTftpPacket(datagram(bytes(0, 4, 1))));
+        assertThrows(IllegalArgumentException.class, () -> TftpPacketFactory.buildTftpPacket(datagram(bytes(0, 5, 0))));
+    }
+
+    /**
+     * the view reads a truncated packet as an unknown opcode, the receivers drop it as a stray packet.
+     */
+    @Test
+    void viewTruncatedPackets() {
+        assertEquals(-1, view(0).getOpCode());
+        assertEquals(-1, view(0, 4, 1).getOpCode());
+        assertEquals(-1, view(0, 3, 0).getOpCode());
+        assertEquals(-1, view(0, 5, 0).getOpCode());
+        assertEquals(-1, view(0, 5, 0, 1, 'n', 'o').getOpCode());
+
+        assertEquals(TftpPacketConsts.OP_DATA, view(0, 3, 0, 1).getOpCode());
+        assertEquals(0, view(0, 3, 0, 1).getDataLength());
+        PacketView error = view(0, 5, 0, 1, 'n', 'o', 0, 'x');
+        assertEquals(TftpPacketConsts.OP_ERROR, error.getOpCode());
+        assertEquals("no", error.getErrMsg());
+    }
+
+    @Test
+    void dataUtilsIsBigEndian() {
+        byte[] bytes = new byte[4];
+        DataUtils.shortToBytes(bytes, (short) 0x0102, 1);
+        assertArrayEquals(bytes(0, 1, 2, 0), bytes);
+        assertEquals((short) 0x0102, DataUtils.bytesToShort(bytes, 1));
+        assertArrayEquals(bytes(0xAB, 0xCD), DataUtils.shortToBytes((short) 0xABCD));
+    }
+
+    private static void assertBytes(DatagramPacket datagramPacket, int... expected) {
+        assertArrayEquals(bytes(expected), copy(datagramPacket));
+    }
+
+    private static PacketView view(int... values) {
+        byte[] bytes = bytes(values);
+        return new PacketView().wrap(bytes, bytes.length);
+    }
+
+    private static DatagramPacket datagram(byte[] bytes) {
+        return new DatagramPacket(bytes, bytes.length, LOCALHOST, 5000);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] copy(DatagramPacket datagramPacket) {
+        byte[] bytes = new byte[datagramPacket.getLength()];
+        System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), bytes, 0, bytes.length);
+        return bytes;
+    }
+}
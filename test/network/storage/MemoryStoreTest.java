@@ -0,0 +1,66 @@
+package network.storage;
+
+import network.io.QuotaExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * the quota of the memory store counts the files and the uploads writing.
+ */
+class MemoryStoreTest {
+
+    @Test
+    void publishOnCommit() throws Exception {
+        MemoryStore store = new MemoryStore(0, 0);
+        try (WriteSession session = store.create("a", 3)) {
+            session.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0);
+            assertNull(store.open("a"));
+            session.commit().get();
+        }
+        StoredFile file = store.open("a");
+        assertNotNull(file);
+        assertEquals(3, file.size());
+        assertEquals(3, store.getUsedBytes());
+    }
+
+    /**
+     * the announced size is checked before any array is allocated.
+     */
+    @Test
+    void refuseAnnouncedSizeOverQuota() {
+        MemoryStore store = new MemoryStore(1024, 0);
+        assertThrows(QuotaExceededException.class, () -> store.create("a", 2_000_000_000L));
+        assertThrows(QuotaExceededException.class, () -> new MemoryStore(0, 1024).create("a", 1025));
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    void refuseDataOverQuota() throws IOException {
+        MemoryStore store = new MemoryStore(1024, 0);
+        try (WriteSession session = store.create("a", -1)) {
+            session.write(ByteBuffer.wrap(new byte[1000]), 0);
+            assertThrows(QuotaExceededException.class, () -> session.write(ByteBuffer.wrap(new byte[100]), 0));
+            session.abort();
+        }
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    void releaseOnAbort() throws IOException {
+        MemoryStore store = new MemoryStore(1024, 0);
+        try (WriteSession session = store.create("a", 1000)) {
+            assertEquals(1000, store.getUsedBytes());
+            session.abort();
+        }
+        assertEquals(0, store.getUsedBytes());
+        store.put("b", new byte[1024]);
+        assertEquals(1024, store.getUsedBytes());
+    }
+}
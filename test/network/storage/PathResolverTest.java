@@ -0,0 +1,121 @@
+package network.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the names of the requests and the bound of the cached metadata.
+ */
+class PathResolverTest {
+
+    @TempDir
+    Path baseDir;
+
+    private PathResolver resolver;
+
+    @AfterEach
+    void close() {
+        if (resolver != null) {
+            resolver.close();
+        }
+    }
+
+    @Test
+    void normalizeName() throws AccessDeniedException {
+        assertEquals("a/b", PathResolver.normalize("/a/./b"));
+        assertEquals("a/b", PathResolver.normalize("a\\b"));
+        assertEquals("b", PathResolver.normalize("a/../b"));
+        assertEquals("a/.tftp-cas", PathResolver.normalize("a/.tftp-cas"));
+    }
+
+    @Test
+    void refuseOutOfBaseDir() {
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("../a"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("a/../../a"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("a\0b"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("/"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize(ContentAddressedStore.DEFAULT_DIR_NAME + "/chunk"));
+    }
+
+    /**
+     * the drive, UNC and stream names of windows clients.
+     */
+    @Test
+    void refuseWindowsForms() {
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("C:\\a"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("C:a"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("a/b:stream"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("\\\\host\\share\\a"));
+        assertThrows(AccessDeniedException.class, () -> PathResolver.normalize("//host/share/a"));
+    }
+
+    @Test
+    void resolveUnderBaseDir() throws AccessDeniedException {
+        resolver = new PathResolver(baseDir, 0);
+        assertEquals(baseDir.toAbsolutePath().normalize().resolve("a/b"), resolver.resolve("a/b"));
+        assertThrows(AccessDeniedException.class, () -> resolver.resolve("../a"));
+        assertThrows(AccessDeniedException.class, () -> resolver.resolve("/a"));
+        assertThrows(AccessDeniedException.class, () -> resolver.resolve("."));
+    }
+
+    /**
+     * a scan of missing names evicts only the missing entries, the hot file stays cached.
+     */
+    @Test
+    void keepHotFileOnScan() throws IOException {
+        Files.write(baseDir.resolve("hot"), new byte[16]);
+        resolver = new PathResolver(baseDir, 16);
+        if (!resolver.isCaching()) {
+            return;
+        }
+        resolver.open("hot").close();
+        for (int i = 0; i < 1000; i++) {
+            assertNull(resolver.open("missing-" + i));
+        }
+        assertTrue(resolver.getEntryCount() <= 16, "entries " + resolver.getEntryCount());
+        assertTrue(resolver.getEvictionCount() > 0);
+
+        long hits = resolver.getHitCount();
+        resolver.open("hot").close();
+        assertEquals(hits + 1, resolver.getHitCount());
+    }
+
+    @Test
+    void boundEntries() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            Files.write(baseDir.resolve("f" + i), new byte[]{(byte) i});
+        }
+        resolver = new PathResolver(baseDir, 32);
+        for (int i = 0; i < 100; i++) {
+            try (StoredFile file = resolver.open("f" + i)) {
+                assertNotNull(file);
+                assertEquals(1, file.size());
+            }
+        }
+        assertTrue(resolver.getEntryCount() <= 32, "entries " + resolver.getEntryCount());
+    }
+
+    @Test
+    void dropInvalidatedEntry() throws IOException {
+        Files.write(baseDir.resolve("f"), new byte[1]);
+        resolver = new PathResolver(baseDir, 16);
+        resolver.open("f").close();
+        Files.write(baseDir.resolve("f"), new byte[2]);
+        resolver.invalidate("f");
+        try (StoredFile file = resolver.open("f")) {
+            assertEquals(2, file.size());
+        }
+    }
+}
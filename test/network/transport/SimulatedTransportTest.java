@@ -0,0 +1,181 @@
+package network.transport;
+
+import network.TftpServer;
+import network.TransferEngineType;
+import network.client.TftpClient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the faults of the seeded link, and the recovery of the blocking engine on it.
+ */
+class SimulatedTransportTest {
+
+    private static final int SERVER_PORT = 16971;
+
+    private static final int PACKET_COUNT = 200;
+
+    private static final int FILE_SIZE = 256 * 1024;
+
+    @TempDir
+    static Path baseDir;
+
+    private static byte[] data;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        data = new byte[FILE_SIZE];
+        new Random(FILE_SIZE).nextBytes(data);
+        Files.write(baseDir.resolve("loss"), data);
+    }
+
+    @Test
+    void sameSeedDropsSamePackets() throws IOException {
+        BitSet first = sendThroughLossyLink(42);
+        BitSet second = sendThroughLossyLink(42);
+        assertEquals(first, second);
+        assertTrue(first.cardinality() > 0 && first.cardinality() < PACKET_COUNT, "dropped " + (PACKET_COUNT - first.cardinality()));
+        assertNotEquals(first, sendThroughLossyLink(43));
+    }
+
+    @Test
+    void dropAtLossRate() throws IOException {
+        SimulatedTransport transport = new SimulatedTransport(7);
+        transport.setLossRate(0.3);
+        BitSet received = sendThroughLossyLink(transport);
+        assertEquals(PACKET_COUNT - received.cardinality(), transport.getDropped());
+        //30% of 200, far from the tail of the binomial.
+        assertTrue(transport.getDropped() > 30 && transport.getDropped() < 90, "dropped " + transport.getDropped());
+    }
+
+    @Test
+    void duplicatePackets() throws IOException {
+        SimulatedTransport transport = new SimulatedTransport(7);
+        transport.setDuplicateRate(1);
+        try (DatagramEndpoint sender = transport.open(); DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(1000);
+            byte[] payload = {1, 2, 3};
+            sender.send(new DatagramPacket(payload, payload.length, receiver.getLocalSocketAddress()));
+            DatagramPacket packet = new DatagramPacket(new byte[16], 16);
+            for (int i = 0; i < 2; i++) {
+                receiver.receive(packet);
+                assertEquals(3, packet.getLength());
+            }
+            assertEquals(1, transport.getDuplicated());
+        }
+    }
+
+    /**
+     * the server sends and receives through the faulty link, every file is checked.
+     * @param lossRate
+     * @param duplicateRate
+     * @param reorderRate
+     * @param delayMs
+     * @param jitterMs
+     * @param windowSize
+     */
+    @ParameterizedTest(name = "loss={0} dup={1} reorder={2} delay={3}+{4} window={5}")
+    @CsvSource({
+            "0, 0, 0, 0, 0, 1",
+            "0.01, 0, 0, 0, 0, 1",
+            "0.05, 0, 0, 0, 0, 1",
+            "0, 0.05, 0.05, 1, 2, 1",
+            "0.02, 0.02, 0.02, 1, 2, 1",
+            "0.01, 0, 0, 0, 0, 8",
+            "0.05, 0, 0, 0, 0, 8",
+            "0, 0.05, 0.05, 1, 2, 8",
+            "0.02, 0.02, 0.02, 1, 2, 8"
+    })
+    void recoverOnFaultyLink(double lossRate, double duplicateRate, double reorderRate, int delayMs, int jitterMs, int windowSize) throws Exception {
+        SimulatedTransport transport = new SimulatedTransport(42);
+        transport.setLossRate(lossRate);
+        transport.setDuplicateRate(duplicateRate);
+        transport.setReorderRate(reorderRate);
+        transport.setDelay(delayMs, jitterMs);
+
+        TftpServer server = new TftpServer(msg -> { });
+        server.setBaseDir(baseDir.toString());
+        server.setEngineType(TransferEngineType.BLOCKING);
+        server.setTransport(transport);
+        server.setPort(SERVER_PORT);
+        //the loopback has no delay, so the min timeout decides the time to recover.
+        server.setRetransmitTimeout(20, 1000);
+        server.start();
+        try {
+            //wait the listener to bind.
+            Thread.sleep(300);
+            TftpClient client = new TftpClient(new InetSocketAddress("127.0.0.1", SERVER_PORT));
+            client.setBlockSize(1428);
+            client.setWindowSize(windowSize);
+            client.setTimeout(50);
+            client.setRetries(20);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(FILE_SIZE);
+            client.download("loss", outputStream);
+            assertArrayEquals(data, outputStream.toByteArray(), "download on " + transport);
+
+            String uploadName = "upload-" + windowSize + "-" + transport.getLossRate() + "-" + transport.getReorderRate();
+            client.upload(uploadName, new ByteArrayInputStream(data), data.length);
+            assertArrayEquals(data, Files.readAllBytes(baseDir.resolve(uploadName)), "upload on " + transport);
+
+            if (lossRate > 0) {
+                assertTrue(transport.getDropped() > 0);
+                assertTrue(server.getMetrics().getRetransmits() > 0);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static BitSet sendThroughLossyLink(long seed) throws IOException {
+        SimulatedTransport transport = new SimulatedTransport(seed);
+        transport.setLossRate(0.3);
+        return sendThroughLossyLink(transport);
+    }
+
+    /**
+     * send the numbered packets from one simulated endpoint to a plain socket.
+     * @return the numbers received.
+     */
+    private static BitSet sendThroughLossyLink(SimulatedTransport transport) throws IOException {
+        BitSet received = new BitSet(PACKET_COUNT);
+        try (DatagramEndpoint sender = transport.open(); DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(1000);
+            byte[] payload = new byte[1];
+            DatagramPacket packet = new DatagramPacket(payload, payload.length, receiver.getLocalSocketAddress());
+            DatagramPacket response = new DatagramPacket(new byte[16], 16);
+            for (int i = 0; i < PACKET_COUNT; i++) {
+                payload[0] = (byte) i;
+                long dropped = transport.getDropped();
+                sender.send(packet);
+                //the link has no delay, a packet not dropped is received at once.
+                if (transport.getDropped() == dropped) {
+                    response.setLength(16);
+                    receiver.receive(response);
+                    received.set(response.getData()[0] & 0xff);
+                }
+            }
+        }
+        return received;
+    }
+}